@@ -20,6 +20,7 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 package cio;
 
 import java.io.*;
+import java.nio.*;
 
 /**
  * <p>Data input class with low level binary IO operations. The
@@ -31,13 +32,25 @@ import java.io.*;
  * the case that multiple bytes are read in readLine() or readUTF(),
  * the endian order is not switched!
  *
+ * <p>Besides the DataInput methods, bulk methods are provided to read
+ * entire arrays of shorts, ints or floats in one call.
+ *
  * @see java.io.DataInputStream
  *
  * @author Erwin Vervaet (klr8@fragland.net)
  */
 public class LittleEndianDataInputStream extends FilterInputStream implements DataInput {
+  private static final int BUFFER_SIZE=8192;
+  
   private DataInputStream din;
   
+  //scratch buffer shared by all multi-byte reads, with little endian views on it
+  private byte[] buf=new byte[BUFFER_SIZE];
+  private ByteBuffer bbuf=ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+  private ShortBuffer sbuf=bbuf.asShortBuffer();
+  private IntBuffer ibuf=bbuf.asIntBuffer();
+  private FloatBuffer fbuf=bbuf.asFloatBuffer();
+  
   public LittleEndianDataInputStream(InputStream in) {
     super(in);
     din=new DataInputStream(in);
@@ -68,15 +81,13 @@ public class LittleEndianDataInputStream extends FilterInputStream implements Da
   }
   
   public short readShort() throws IOException {
-    int low=din.read();
-    int high=din.read();
-    return (short)((high << 8) | (low & 0xff));
+    din.readFully(buf, 0, 2);
+    return bbuf.getShort(0);
   }
   
   public int readUnsignedShort() throws IOException {
-    int low=din.read();
-    int high=din.read();
-    return ((high & 0xff) << 8) | (low & 0xff);
+    din.readFully(buf, 0, 2);
+    return bbuf.getShort(0) & 0xffff;
   }
   
   public char readChar() throws IOException {
@@ -84,37 +95,23 @@ public class LittleEndianDataInputStream extends FilterInputStream implements Da
   }
   
   public int readInt() throws IOException {
-    int[] res=new int[4];
-    for(int i=3;i>=0;i--)
-      res[i]=din.read();
-    
-    return ((res[0] & 0xff) << 24) |
-           ((res[1] & 0xff) << 16) |
-           ((res[2] & 0xff) << 8) |
-           (res[3] & 0xff);
+    din.readFully(buf, 0, 4);
+    return bbuf.getInt(0);
   }
 
   public long readLong() throws IOException {
-    int[] res=new int[8];
-    for(int i=7;i>=0;i--)
-      res[i]=din.read();
-    
-    return (((long)(res[0] & 0xff) << 56) |
-            ((long)(res[1] & 0xff) << 48) |
-            ((long)(res[2] & 0xff) << 40) |
-            ((long)(res[3] & 0xff) << 32) |
-            ((long)(res[4] & 0xff) << 24) |
-            ((long)(res[5] & 0xff) << 16) |
-            ((long)(res[6] & 0xff) <<  8) |
-            ((long)(res[7] & 0xff)));
+    din.readFully(buf, 0, 8);
+    return bbuf.getLong(0);
   }
   
   public float readFloat() throws IOException {
-    return Float.intBitsToFloat(readInt());
+    din.readFully(buf, 0, 4);
+    return bbuf.getFloat(0);
   }
   
   public double readDouble() throws IOException {
-    return Double.longBitsToDouble(readLong());
+    din.readFully(buf, 0, 8);
+    return bbuf.getDouble(0);
   }
 
   public final String readLine() throws IOException {
@@ -124,4 +121,52 @@ public class LittleEndianDataInputStream extends FilterInputStream implements Da
   public String readUTF() throws IOException {
     return din.readUTF();
   }
+  
+  /**
+   * <p>Read len little endian shorts into the given array, starting at index off.
+   * The data is read in large blocks, so this is a lot faster than calling
+   * readShort() len times.
+   */
+  public void readShorts(short[] v, int off, int len) throws IOException {
+    while (len>0) {
+      int n=Math.min(len, BUFFER_SIZE/2);
+      din.readFully(buf, 0, n*2);
+      sbuf.clear();
+      sbuf.get(v, off, n);
+      off+=n;
+      len-=n;
+    }
+  }
+  
+  /**
+   * <p>Read len little endian ints into the given array, starting at index off.
+   * The data is read in large blocks, so this is a lot faster than calling
+   * readInt() len times.
+   */
+  public void readInts(int[] v, int off, int len) throws IOException {
+    while (len>0) {
+      int n=Math.min(len, BUFFER_SIZE/4);
+      din.readFully(buf, 0, n*4);
+      ibuf.clear();
+      ibuf.get(v, off, n);
+      off+=n;
+      len-=n;
+    }
+  }
+  
+  /**
+   * <p>Read len little endian floats into the given array, starting at index off.
+   * The data is read in large blocks, so this is a lot faster than calling
+   * readFloat() len times.
+   */
+  public void readFloats(float[] v, int off, int len) throws IOException {
+    while (len>0) {
+      int n=Math.min(len, BUFFER_SIZE/4);
+      din.readFully(buf, 0, n*4);
+      fbuf.clear();
+      fbuf.get(v, off, n);
+      off+=n;
+      len-=n;
+    }
+  }
 }
\ No newline at end of file
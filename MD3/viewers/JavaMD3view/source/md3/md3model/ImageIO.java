@@ -22,13 +22,14 @@ package md3.md3model;
 import java.awt.*;
 import java.awt.image.*;
 import java.io.*;
+import javax.imageio.stream.*;
 
 import md3.util.*;
 
 /**
- * <p>Booch utility class that provides Image IO functions. A method
- * is provided that you can use to convert java.awt.Image data into an
- * MD3Texture object.
+ * <p>Booch utility class that provides Image IO functions. Methods
+ * are provided that you can use to decode an image from a stream, or
+ * to convert java.awt.Image data, into an MD3Texture object.
  *  
  * @see md3.md3model.MD3Texture
  *
@@ -37,6 +38,88 @@ import md3.util.*;
 class ImageIO {
 
 	private ImageIO() {} //cannot instantiate
+	
+  /**
+   * <p>Decode the image in the given stream, in any format supported by javax.imageio
+   * (e.g. JPEG), into a MD3Texture object with OpenGL compatible texture data. The
+   * texture bytes that end up in the data member of the MD3Texture object have a RGBA
+   * structure and are unsigned, images without alpha channel get an opaque alpha.
+   *
+   * <p>This does not need the AWT toolkit, so it can be used in headless environments
+   * (-Djava.awt.headless=true).
+   *
+   * @param tex MD3Texture object that should hold the read data.
+   * @param in Stream from which to read the image data.
+   */
+	static void loadImage(MD3Texture tex, InputStream in) throws IOException {
+		//decode using a memory cache, not a temporary file
+		loadImage(tex, new MemoryCacheImageInputStream(in));
+	}
+	
+  /**
+   * <p>Decode the encoded image in the given array, like loadImage(MD3Texture,
+   * InputStream). The image is read straight from the array, it is not copied.
+   *
+   * @param tex MD3Texture object that should hold the read data.
+   * @param encoded The encoded image data.
+   */
+	static void loadImage(MD3Texture tex, byte[] encoded) throws IOException {
+		loadImage(tex, new ByteArrayImageInputStream(encoded));
+	}
+	
+	//decode the image in the given image input stream into the texture
+	private static void loadImage(MD3Texture tex, ImageInputStream in) throws IOException {
+		BufferedImage img=javax.imageio.ImageIO.read(in);
+		if (img==null)
+			throw new IOException("unsupported image format");
+		
+		int width=img.getWidth();
+		int height=img.getHeight();
+		byte[] rgba=new byte[width * height * 4];
+		int type=img.getType();
+		
+		if (type==BufferedImage.TYPE_3BYTE_BGR || type==BufferedImage.TYPE_4BYTE_ABGR || type==BufferedImage.TYPE_BYTE_GRAY) {
+			//read the samples straight from the raster, bands are R, G, B (, A) or gray
+			Raster raster=img.getRaster();
+			int bands=raster.getNumBands();
+			int[] row=new int[width * bands];
+			int dst=0;
+			for (int y=0;y<height;y++) {
+				raster.getPixels(0, y, width, 1, row);
+				for (int x=0, src=0;x<width;x++, src+=bands) {
+					if (bands==1) {
+						rgba[dst++]=(byte)row[src];
+						rgba[dst++]=(byte)row[src];
+						rgba[dst++]=(byte)row[src];
+						rgba[dst++]=(byte)0xFF;
+					}
+					else {
+						rgba[dst++]=(byte)row[src];
+						rgba[dst++]=(byte)row[src + 1];
+						rgba[dst++]=(byte)row[src + 2];
+						rgba[dst++]=bands==4 ? (byte)row[src + 3] : (byte)0xFF;
+					}
+				}
+			}
+		}
+		else {
+			//let the color model convert to ARGB
+			int[] row=new int[width];
+			int dst=0;
+			for (int y=0;y<height;y++) {
+				img.getRGB(0, y, width, 1, row, 0, width);
+				for (int x=0;x<width;x++) {
+					int argb=row[x];
+					rgba[dst++]=(byte)(argb >> 16);
+					rgba[dst++]=(byte)(argb >> 8);
+					rgba[dst++]=(byte)argb;
+					rgba[dst++]=(byte)(argb >> 24);
+				}
+			}
+		}
+		
+		tex.setTextureData(rgba, width, height);
+	}
 
   /**
    * <p>Convert the given java.awt.Image into a MD3Texture object with OpenGL
@@ -64,4 +147,34 @@ class ImageIO {
     //pixels in sourcePixBuf are in ARGB order, convert to RGBA
     tex.setTextureData(sourcePixBuf, sourceWidth, sourceHeight, true);			
 	}
+	
+	//image input stream reading straight from a byte array
+	private static class ByteArrayImageInputStream extends ImageInputStreamImpl {
+		private byte[] data;
+		
+		public ByteArrayImageInputStream(byte[] data) {
+			this.data=data;
+		}
+		
+		public int read() throws IOException {
+			checkClosed();
+			bitOffset=0;
+			return streamPos<data.length ? data[(int)streamPos++] & 0xff : -1;
+		}
+		
+		public int read(byte[] b, int off, int len) throws IOException {
+			checkClosed();
+			bitOffset=0;
+			if (streamPos>=data.length)
+				return len==0 ? 0 : -1;
+			len=(int)Math.min(len, data.length - streamPos);
+			System.arraycopy(data, (int)streamPos, b, off, len);
+			streamPos+=len;
+			return len;
+		}
+		
+		public long length() {
+			return data.length;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,288 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3model;
+
+import java.util.concurrent.*;
+
+/**
+ * <p>The ImageScaler class provides methods to resample RGBA texture data to
+ * another size, e.g. the power of two sizes needed by OpenGL. Two filters are
+ * available: a box filter, where every destination texel is the average of the
+ * source texels it covers, weighted by the covered area, and a bilinear filter,
+ * which interpolates between neighbouring texels when magnifying and averages
+ * with triangle shaped weights when minifying. Both passes of the separable
+ * filters are done in parallel for large images.
+ *
+ * <p>All methods are static, this is a Booch utility class.
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+public class ImageScaler {
+	
+	/**
+	 * <p>Box (area averaging) filter.
+	 */
+	public static final int BOX=0;
+	
+	/**
+	 * <p>Bilinear (triangle) filter.
+	 */
+	public static final int BILINEAR=1;
+	
+	//fixed point scale of the filter weights
+	private static final int ONE=1 << 14;
+	
+	//minimal number of destination texels to scale an image in parallel
+	private static final int PARALLEL_SCALING_THRESHOLD=256 * 256;
+	private static final int ROWS_PER_TASK=32;
+	
+	private ImageScaler() {
+		//Booch utility class: no instances
+	}
+	
+	/**
+	 * <p>Return the power of two closest to the given size, like gluScaleImage()
+	 * chooses it: sizes halfway between two powers of two are rounded up.
+	 */
+	public static int nearestPowerOfTwo(int size) {
+		if (size<=1)
+			return 1;
+		int res=Integer.highestOneBit(size);
+		return size>=res+(res >> 1) ? res << 1 : res;
+	}
+	
+	/**
+	 * <p>Return the largest power of two that is not bigger than the given size.
+	 */
+	public static int floorPowerOfTwo(int size) {
+		return size<=1 ? 1 : Integer.highestOneBit(size);
+	}
+	
+	/**
+	 * <p>Scale the given RGBA data to the given size using the box filter.
+	 *
+	 * @see #scale(byte[], int, int, int, int, int)
+	 */
+	public static byte[] scale(byte[] src, int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+		return scale(src, srcWidth, srcHeight, dstWidth, dstHeight, BOX);
+	}
+	
+	/**
+	 * <p>Scale the given RGBA data to the given size. A new array is returned, even
+	 * if the size doesn't change.
+	 *
+	 * @param src RGBA data to scale, rows of srcWidth texels.
+	 * @param srcWidth Width of the source data.
+	 * @param srcHeight Height of the source data.
+	 * @param dstWidth Width of the scaled data.
+	 * @param dstHeight Height of the scaled data.
+	 * @param filter The filter to use: BOX or BILINEAR.
+	 * @return New RGBA array of dstWidth * dstHeight texels.
+	 */
+	public static byte[] scale(final byte[] src, final int srcWidth, final int srcHeight, final int dstWidth, final int dstHeight, int filter) {
+		final byte[] dst=new byte[dstWidth * dstHeight * 4];
+		final Weights xWeights=filter==BILINEAR ? bilinearWeights(srcWidth, dstWidth) : boxWeights(srcWidth, dstWidth);
+		final Weights yWeights=filter==BILINEAR ? bilinearWeights(srcHeight, dstHeight) : boxWeights(srcHeight, dstHeight);
+		
+		//horizontal pass: every source row is scaled to dstWidth texels, kept with
+		//8 extra bits of precision
+		final int[] tmp=new int[dstWidth * srcHeight * 4];
+		processRows(new RowOperation() {
+			void processRows(int lo, int hi) {
+				for (int y=lo;y<hi;y++) {
+					int srcRow=y * srcWidth * 4;
+					int tmpPtr=y * dstWidth * 4;
+					for (int x=0;x<dstWidth;x++) {
+						int[] w=xWeights.weights[x];
+						int srcPtr=srcRow + xWeights.first[x] * 4;
+						int r=0, g=0, b=0, a=0;
+						for (int i=0;i<w.length;i++, srcPtr+=4) {
+							r+=(src[srcPtr] & 0xFF) * w[i];
+							g+=(src[srcPtr+1] & 0xFF) * w[i];
+							b+=(src[srcPtr+2] & 0xFF) * w[i];
+							a+=(src[srcPtr+3] & 0xFF) * w[i];
+						}
+						tmp[tmpPtr++]=(r + (1 << 5)) >> 6;
+						tmp[tmpPtr++]=(g + (1 << 5)) >> 6;
+						tmp[tmpPtr++]=(b + (1 << 5)) >> 6;
+						tmp[tmpPtr++]=(a + (1 << 5)) >> 6;
+					}
+				}
+			}
+		}, srcHeight, dstWidth * srcHeight);
+		
+		//vertical pass: combine the scaled rows into the destination rows
+		processRows(new RowOperation() {
+			void processRows(int lo, int hi) {
+				int rowSize=dstWidth * 4;
+				for (int y=lo;y<hi;y++) {
+					int[] w=yWeights.weights[y];
+					int tmpRow=yWeights.first[y] * rowSize;
+					int dstPtr=y * rowSize;
+					for (int x=0;x<rowSize;x++) {
+						int v=0;
+						for (int i=0, tmpPtr=tmpRow + x;i<w.length;i++, tmpPtr+=rowSize)
+							v+=tmp[tmpPtr] * w[i];
+						v=(v + (1 << 21)) >> 22;
+						dst[dstPtr++]=(byte)(v > 255 ? 255 : v);
+					}
+				}
+			}
+		}, dstHeight, dstWidth * dstHeight);
+		
+		return dst;
+	}
+	
+	//calculate the box filter weights to scale a row or column of srcSize texels to dstSize texels
+	private static Weights boxWeights(int srcSize, int dstSize) {
+		Weights res=new Weights(dstSize);
+		double scale=(double)srcSize / dstSize;
+		for (int i=0;i<dstSize;i++) {
+			double start=i * scale, end=(i+1) * scale;
+			if (scale<=1.0) {
+				//magnification: use the source texel containing the center
+				res.first[i]=Math.min((int)((start + end) / 2), srcSize-1);
+				res.weights[i]=new int[] { ONE };
+				continue;
+			}
+			
+			int first=(int)start;
+			int last=Math.min((int)Math.ceil(end) - 1, srcSize-1);
+			int[] w=new int[last - first + 1];
+			int sum=0, max=0;
+			for (int s=first;s<=last;s++) {
+				double covered=Math.min(end, s+1) - Math.max(start, s);
+				w[s-first]=(int)Math.round(covered / scale * ONE);
+				sum+=w[s-first];
+				if (w[s-first]>w[max])
+					max=s-first;
+			}
+			w[max]+=ONE - sum; //weights should add up to exactly one
+			res.first[i]=first;
+			res.weights[i]=w;
+		}
+		return res;
+	}
+	
+	//calculate the bilinear filter weights to scale a row or column of srcSize texels to
+	//dstSize texels, when minifying the triangle is widened to cover all source texels
+	private static Weights bilinearWeights(int srcSize, int dstSize) {
+		Weights res=new Weights(dstSize);
+		double scale=(double)srcSize / dstSize;
+		double radius=Math.max(1.0, scale);
+		for (int i=0;i<dstSize;i++) {
+			double center=(i + 0.5) * scale - 0.5; //in source texel coordinates
+			int first=Math.max((int)Math.floor(center - radius) + 1, 0);
+			int last=Math.min((int)Math.ceil(center + radius) - 1, srcSize-1);
+			if (last<first) {
+				//only happens at the edges when magnifying
+				first=last=Math.min(Math.max((int)Math.round(center), 0), srcSize-1);
+			}
+			
+			double[] f=new double[last - first + 1];
+			double total=0.0;
+			for (int s=first;s<=last;s++) {
+				f[s-first]=Math.max(0.0, 1.0 - Math.abs(s - center) / radius);
+				total+=f[s-first];
+			}
+			
+			int[] w=new int[f.length];
+			int sum=0, max=0;
+			for (int j=0;j<f.length;j++) {
+				w[j]=total>0.0 ? (int)Math.round(f[j] / total * ONE) : 0;
+				sum+=w[j];
+				if (w[j]>w[max])
+					max=j;
+			}
+			w[max]+=ONE - sum; //weights should add up to exactly one
+			res.first[i]=first;
+			res.weights[i]=w;
+		}
+		return res;
+	}
+	
+	/**
+	 * <p>Run the given operation on all rows from 0 to rows, splitting them up
+	 * over the threads of the common fork/join pool when there are at least
+	 * PARALLEL_SCALING_THRESHOLD texels to process and parallel decoding is enabled
+	 * in the factory. Without a factory, the rows are processed sequentially.
+	 */
+	static void processRows(RowOperation op, int rows, int texels) {
+		MD3ModelFactory factory=MD3ModelFactory.getFactory();
+		if (factory!=null && factory.isParallelDecoding() &&
+		    ForkJoinPool.getCommonPoolParallelism() > 1 &&
+		    texels >= PARALLEL_SCALING_THRESHOLD)
+			ForkJoinPool.commonPool().invoke(new RowsTask(op, 0, rows));
+		else
+			op.processRows(0, rows);
+	}
+	
+	/**
+	 * <p>An operation that processes a range of image rows, rows from different ranges
+	 * may be processed concurrently.
+	 */
+	static abstract class RowOperation {
+		
+		/**
+		 * <p>Process the rows lo (inclusive) to hi (exclusive).
+		 */
+		abstract void processRows(int lo, int hi);
+	}
+	
+	/**
+	 * <p>Fork/join task running a row operation on a range of rows, splitting it
+	 * when it is too big.
+	 */
+	private static class RowsTask extends RecursiveAction {
+		private static final long serialVersionUID=1L;
+		
+		private RowOperation op;
+		private int lo, hi;
+		
+		RowsTask(RowOperation op, int lo, int hi) {
+			this.op=op;
+			this.lo=lo;
+			this.hi=hi;
+		}
+		
+		protected void compute() {
+			if (hi - lo <= ROWS_PER_TASK)
+				op.processRows(lo, hi);
+			else {
+				int mid=(lo + hi) >>> 1;
+				invokeAll(new RowsTask(op, lo, mid), new RowsTask(op, mid, hi));
+			}
+		}
+	}
+	
+	/**
+	 * <p>Filter weights to scale along one axis: for every destination texel the first
+	 * source texel it uses and the weights of the consecutive source texels.
+	 */
+	private static class Weights {
+		int[] first;
+		int[][] weights;
+		
+		Weights(int size) {
+			first=new int[size];
+			weights=new int[size][];
+		}
+	}
+}
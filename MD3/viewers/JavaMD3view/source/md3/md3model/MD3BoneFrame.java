@@ -20,6 +20,7 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 package md3.md3model;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import md3.util.*;
 
@@ -66,6 +67,16 @@ public class MD3BoneFrame implements java.io.Serializable {
   	MD3IO.loadBoneFrame(this, din);
   }
 
+  /**
+   * <p>Create a MD3BoneFrame object with the data read from the current position
+   * of the specified little endian buffer. Note that the tag information will NOT
+   * be initialized. This has to be done separately!
+   */
+  protected MD3BoneFrame(int tagNum, ByteBuffer buf) {
+  	this(tagNum);
+  	MD3IO.loadBoneFrame(this, buf);
+  }
+
 	/**
 	 * <p>Constructor for use in subclasses that creates an uninitialized object
 	 * with the specified amount of tag positions.
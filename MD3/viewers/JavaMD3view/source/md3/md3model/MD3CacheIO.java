@@ -0,0 +1,427 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3model;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+import md3.util.*;
+
+/**
+ * <p>Booch utility class that provides IO functions for the binary model cache
+ * format used by MD3ModelCache.
+ *
+ * <p>A cache file contains a model structure (a model and all models linked to it)
+ * as it was decoded from its source. All data is little endian and 4 byte aligned,
+ * so all arrays can be read from a buffer holding the file with bulk copies. The
+ * vertex frames are kept in the raw form of the .md3 file, so they can be used in
+ * place and decoded when needed, just like the frames of a .md3 file:
+ * <pre>
+ *   header:  int magic "MD3C", int version,
+ *            long source size, long source modification time, long source CRC,
+ *            string source path
+ *   table:   int model count, per model: int offset of model section
+ *   model:   int parent model index, int parent tag index,
+ *            strings id, filename, loadFilename,
+ *            ints version, boneFrameNum, tagNum, meshNum, maxTextureNum,
+ *                 boneFrameStart, tagStart, meshStart, fileSize,
+ *            bone frames, tags, per mesh: int offset of mesh section
+ *   mesh:    strings id, name, ints meshFrameNum, textureNum, vertexNum, triangleNum,
+ *                 triangleStart, textureStart, texVecStart, vertexStart, meshSize,
+ *            per texture: strings name, loadFilename,
+ *            triangle indices, texture coordinates,
+ *            vertex frames (per vertex 3 shorts position and 2 bytes normal)
+ * </pre>
+ * Strings are stored as an int length followed by the UTF-8 bytes, padded to
+ * a multiple of 4 bytes. A length of -1 indicates a null string.
+ *  
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+class MD3CacheIO {
+	
+	/**
+	 * <p>Magic number identifying cache files, "MD3C" in little endian order.
+	 */
+	static final int MAGIC=('C' << 24) | ('3' << 16) | ('D' << 8) | 'M';
+	
+	/**
+	 * <p>Version of the cache format, files with another version are ignored.
+	 */
+	static final int VERSION=2;
+	
+  /**
+   * <p>Check the header of the cache file in the given buffer against the specified
+   * source key. Returns true if the cache data was created from that source. The
+   * position of the buffer is not changed.
+   */
+  static boolean matches(ByteBuffer buf, String sourcePath, long size, long time, long crc) {
+    buf=buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      return buf.getInt()==MAGIC && buf.getInt()==VERSION &&
+             buf.getLong()==size && buf.getLong()==time && buf.getLong()==crc &&
+             sourcePath.equals(getString(buf));
+    } catch (BufferUnderflowException e) {
+      return false;
+    }
+  }
+  
+  /**
+   * <p>Load a model structure from the cache data in the given buffer, starting at
+   * its current position. Returns the root model of the structure.
+   */
+  static MD3Model loadModel(ByteBuffer buf) throws IOException {
+    buf=buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      if (buf.getInt()!=MAGIC)
+        throw new IOException("not a model cache file");
+      if (buf.getInt()!=VERSION)
+        throw new IOException("unsupported model cache version");
+      buf.position(buf.position() + 24);
+      getString(buf); //source path
+      
+      MD3Model[] models=new MD3Model[buf.getInt()];
+      int[] offsets=new int[models.length];
+      getInts(buf, offsets);
+      for (int i=0;i<models.length;i++) {
+        buf.position(offsets[i]);
+        int parent=buf.getInt();
+        int parentTagIndex=buf.getInt();
+        models[i]=MD3ModelFactory.getFactory().makeMD3Model();
+        loadModel(models[i], buf);
+        if (parent>=0)
+          models[parent].addLinkedModel(parentTagIndex, models[i]);
+      }
+      return models[0];
+    } catch (BufferUnderflowException e) {
+      throw new IOException("corrupt model cache file");
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("corrupt model cache file");
+    } catch (IllegalArgumentException e) {
+      throw new IOException("corrupt model cache file");
+    } catch (NegativeArraySizeException e) {
+      throw new IOException("corrupt model cache file");
+    }
+  }
+  
+  //read a single model at the current position of the buffer
+  private static void loadModel(MD3Model model, ByteBuffer buf) throws IOException {
+    model.id=getString(buf);
+    model.filename=getString(buf);
+    model.loadFilename=getString(buf);
+    model.version=buf.getInt();
+    model.boneFrameNum=buf.getInt();
+    model.tagNum=buf.getInt();
+    model.meshNum=buf.getInt();
+    model.maxTextureNum=buf.getInt();
+    model.boneFrameStart=buf.getInt();
+    model.tagStart=buf.getInt();
+    model.meshStart=buf.getInt();
+    model.fileSize=buf.getInt();
+    
+    model.boneFrames=new MD3BoneFrame[model.boneFrameNum];
+    for (int i=0;i<model.boneFrameNum;i++) {
+      MD3BoneFrame frame=MD3ModelFactory.getFactory().makeMD3BoneFrame(model.tagNum);
+      frame.mins=getVec3(buf);
+      frame.maxs=getVec3(buf);
+      frame.position=getVec3(buf);
+      frame.scale=buf.getFloat();
+      frame.creator=getString(buf);
+      for (int j=0;j<model.tagNum;j++) {
+        MD3Tag tag=MD3ModelFactory.getFactory().makeMD3Tag();
+        tag.name=getString(buf);
+        tag.position=getVec3(buf);
+        for (int k=0;k<3;k++)
+          for (int l=0;l<3;l++)
+            tag.matrix[k][l]=buf.getFloat();
+        frame.tags[j]=tag;
+      }
+      model.boneFrames[i]=frame;
+    }
+    
+    int[] offsets=new int[model.meshNum];
+    getInts(buf, offsets);
+    model.meshes=new MD3Mesh[model.meshNum];
+    for (int i=0;i<model.meshNum;i++) {
+      buf.position(offsets[i]);
+      model.meshes[i]=MD3ModelFactory.getFactory().makeMD3Mesh();
+      loadMesh(model.meshes[i], buf);
+    }
+  }
+  
+  //read a single mesh at the current position of the buffer
+  private static void loadMesh(MD3Mesh mesh, ByteBuffer buf) throws IOException {
+    mesh.id=getString(buf);
+    mesh.name=getString(buf);
+    mesh.meshFrameNum=buf.getInt();
+    mesh.textureNum=buf.getInt();
+    mesh.vertexNum=buf.getInt();
+    mesh.triangleNum=buf.getInt();
+    mesh.triangleStart=buf.getInt();
+    mesh.textureStart=buf.getInt();
+    mesh.texVecStart=buf.getInt();
+    mesh.vertexStart=buf.getInt();
+    mesh.meshSize=buf.getInt();
+    
+    mesh.textures=new MD3Texture[mesh.textureNum];
+    for (int i=0;i<mesh.textureNum;i++) {
+      String name=getString(buf);
+      String loadFilename=getString(buf);
+      mesh.textures[i]=MD3ModelFactory.getFactory().makeMD3Texture(name, loadFilename);
+    }
+    
+    mesh.triangleIndices=new int[mesh.triangleNum*3];
+    getInts(buf, mesh.triangleIndices);
+    mesh.texCoords=new float[mesh.vertexNum*2];
+    getFloats(buf, mesh.texCoords);
+    
+    //the frames are used straight from the cache data, like those of an .md3 file
+    long frameSize=8L * mesh.meshFrameNum * mesh.vertexNum;
+    if (frameSize>buf.remaining())
+      throw new IOException("corrupt model cache file");
+    MD3IO.readVertices(mesh, buf);
+    buf.position(buf.position() + (int)frameSize);
+  }
+  
+  /**
+   * <p>Write the given model, and all models linked to it, in the cache format
+   * to the given output stream. The specified source key is stored in the header.
+   */
+  static void writeModel(MD3Model model, OutputStream out, String sourcePath, long size, long time, long crc) throws IOException {
+    //collect the model structure, parents before children
+    List<MD3Model> models=new ArrayList<MD3Model>();
+    collectModels(model, models);
+    
+    CacheBuffer cb=new CacheBuffer();
+    cb.ensure(36);
+    cb.buf.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(time).putLong(crc);
+    cb.putString(sourcePath);
+    cb.ensure(4 + models.size()*4);
+    cb.buf.putInt(models.size());
+    int modelTable=cb.buf.position();
+    cb.buf.position(modelTable + models.size()*4);
+    
+    for (int i=0;i<models.size();i++) {
+      MD3Model m=models.get(i);
+      cb.buf.putInt(modelTable + i*4, cb.buf.position());
+      cb.ensure(8);
+      cb.buf.putInt(models.indexOf(m.getParent()));
+      cb.buf.putInt(m.getParentTagIndex());
+      writeModel(m, cb);
+    }
+    
+    out.write(cb.buf.array(), 0, cb.buf.position());
+  }
+  
+  //add the given model and all models linked to it to the list
+  private static void collectModels(MD3Model model, List<MD3Model> models) {
+    models.add(model);
+    Iterator<?> it=model.linkedModels();
+    while (it.hasNext())
+      collectModels((MD3Model)it.next(), models);
+  }
+  
+  //write a single model
+  private static void writeModel(MD3Model model, CacheBuffer cb) {
+    cb.putString(model.id);
+    cb.putString(model.filename);
+    cb.putString(model.loadFilename);
+    cb.ensure(36);
+    cb.buf.putInt(model.version);
+    cb.buf.putInt(model.boneFrameNum);
+    cb.buf.putInt(model.tagNum);
+    cb.buf.putInt(model.meshNum);
+    cb.buf.putInt(model.maxTextureNum);
+    cb.buf.putInt(model.boneFrameStart);
+    cb.buf.putInt(model.tagStart);
+    cb.buf.putInt(model.meshStart);
+    cb.buf.putInt(model.fileSize);
+    
+    for (int i=0;i<model.boneFrameNum;i++) {
+      MD3BoneFrame frame=model.boneFrames[i];
+      cb.putVec3(frame.mins);
+      cb.putVec3(frame.maxs);
+      cb.putVec3(frame.position);
+      cb.ensure(4);
+      cb.buf.putFloat(frame.scale);
+      cb.putString(frame.creator);
+      for (int j=0;j<model.tagNum;j++) {
+        MD3Tag tag=frame.tags[j];
+        cb.putString(tag.name);
+        cb.putVec3(tag.position);
+        cb.ensure(36);
+        for (int k=0;k<3;k++)
+          for (int l=0;l<3;l++)
+            cb.buf.putFloat(tag.matrix[k][l]);
+      }
+    }
+    
+    cb.ensure(model.meshNum*4);
+    int meshTable=cb.buf.position();
+    cb.buf.position(meshTable + model.meshNum*4);
+    for (int i=0;i<model.meshNum;i++) {
+      cb.buf.putInt(meshTable + i*4, cb.buf.position());
+      writeMesh(model.meshes[i], cb);
+    }
+  }
+  
+  //write a single mesh, no frames are decoded
+  private static void writeMesh(MD3Mesh mesh, CacheBuffer cb) {
+    cb.putString(mesh.id);
+    cb.putString(mesh.name);
+    cb.ensure(36);
+    cb.buf.putInt(mesh.meshFrameNum);
+    cb.buf.putInt(mesh.textureNum);
+    cb.buf.putInt(mesh.vertexNum);
+    cb.buf.putInt(mesh.triangleNum);
+    cb.buf.putInt(mesh.triangleStart);
+    cb.buf.putInt(mesh.textureStart);
+    cb.buf.putInt(mesh.texVecStart);
+    cb.buf.putInt(mesh.vertexStart);
+    cb.buf.putInt(mesh.meshSize);
+    
+    for (int i=0;i<mesh.textureNum;i++) {
+      MD3Texture tex=mesh.textures[i];
+      cb.putString(tex==null ? null : tex.name);
+      cb.putString(tex==null ? null : tex.loadFilename);
+    }
+    
+    cb.ensure(mesh.triangleNum*12 + mesh.vertexNum*8);
+    cb.buf.asIntBuffer().put(mesh.triangleIndices, 0, mesh.triangleNum*3);
+    cb.buf.position(cb.buf.position() + mesh.triangleNum*12);
+    cb.buf.asFloatBuffer().put(mesh.texCoords, 0, mesh.vertexNum*2);
+    cb.buf.position(cb.buf.position() + mesh.vertexNum*8);
+    
+    int frameSize=mesh.vertexNum*8;
+    ByteBuffer raw=mesh.frameData;
+    for (int i=0;i<mesh.meshFrameNum;i++) {
+      cb.ensure(frameSize);
+      if (raw!=null) {
+        //copy the raw frame, nothing needs to be decoded
+        ByteBuffer frame=raw.duplicate();
+        frame.limit((i+1) * frameSize);
+        frame.position(i * frameSize);
+        cb.buf.put(frame);
+      }
+      else {
+        //all frames are decoded, store them in their raw form again
+        short[] quantized=mesh.isQuantized() ? mesh.getQuantizedPositions(i) : null;
+        float[] pos=quantized==null ? mesh.getFramePositions(i) : null;
+        byte[] normals=mesh.getFrameNormals(i);
+        for (int j=0;j<mesh.vertexNum;j++) {
+          for (int k=0;k<3;k++)
+            cb.buf.putShort(quantized!=null ? quantized[j*3 + k] : quantize(pos[j*3 + k]));
+          cb.buf.put(normals[j*2]);
+          cb.buf.put(normals[j*2 + 1]);
+        }
+      }
+    }
+  }
+  
+  //convert a model space coordinate to the int16 form used in .md3 files
+  private static short quantize(float v) {
+    return (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(v / MD3Mesh.QUANTIZATION_SCALE)));
+  }
+  
+  //read a string at the current position of the buffer
+  private static String getString(ByteBuffer buf) throws BufferUnderflowException {
+    int len=buf.getInt();
+    if (len<0)
+      return null;
+    byte[] b=new byte[len];
+    buf.get(b);
+    align(buf);
+    try {
+      return new String(b, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new InternalError(e.getMessage()); //UTF-8 is always supported
+    }
+  }
+  
+  //read a Vec3 at the current position of the buffer
+  private static Vec3 getVec3(ByteBuffer buf) {
+    return new Vec3(buf.getFloat(), buf.getFloat(), buf.getFloat());
+  }
+  
+  //bulk read ints at the current position of the buffer
+  private static void getInts(ByteBuffer buf, int[] dst) {
+    buf.asIntBuffer().get(dst);
+    buf.position(buf.position() + dst.length*4);
+  }
+  
+  //bulk read floats at the current position of the buffer
+  private static void getFloats(ByteBuffer buf, float[] dst) {
+    buf.asFloatBuffer().get(dst);
+    buf.position(buf.position() + dst.length*4);
+  }
+  
+  //skip the padding up to the next multiple of 4 bytes
+  private static void align(ByteBuffer buf) {
+    buf.position((buf.position() + 3) & ~3);
+  }
+  
+  /**
+   * <p>Growable little endian buffer used to write cache files, so that the
+   * section tables can be filled in once the section offsets are known.
+   */
+  private static class CacheBuffer {
+    ByteBuffer buf=ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    
+    //make sure at least n more bytes can be put in the buffer
+    void ensure(int n) {
+      if (buf.remaining()<n) {
+        ByteBuffer res=ByteBuffer.allocate(Math.max(buf.capacity()*2, buf.position() + n)).order(ByteOrder.LITTLE_ENDIAN);
+        buf.flip();
+        res.put(buf);
+        buf=res;
+      }
+    }
+    
+    void putString(String s) {
+      if (s==null) {
+        ensure(4);
+        buf.putInt(-1);
+        return;
+      }
+      byte[] b;
+      try {
+        b=s.getBytes("UTF-8");
+      } catch (UnsupportedEncodingException e) {
+        throw new InternalError(e.getMessage()); //UTF-8 is always supported
+      }
+      ensure(4 + b.length + 3);
+      buf.putInt(b.length);
+      buf.put(b);
+      align();
+    }
+    
+    void putVec3(Vec3 v) {
+      ensure(12);
+      buf.putFloat(v.x).putFloat(v.y).putFloat(v.z);
+    }
+    
+    //pad with zeros up to the next multiple of 4 bytes
+    void align() {
+      ensure(3);
+      while ((buf.position() & 3)!=0)
+        buf.put((byte)0);
+    }
+  }
+}
@@ -0,0 +1,542 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3model;
+
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * <p>A decorator for an MD3ModelFactory that keeps the models it loads in an in
+ * memory cache, so that loading the same model again only costs a copy. All requests
+ * are delegated to the decorated factory, which does the actual loading.
+ *
+ * <p>The cache holds the parsed models themselves and hands out copies that share
+ * their geometry (see MD3Model.clone()), so every user of a cached model gets its own
+ * animation state, linked models and textures. The shared geometry is never modified,
+ * and the decoded vertex frames are shared by all copies and guarded by a common lock,
+ * so the copies can be used by different threads and a frame decoded by one copy is
+ * available to all of them. Models are keyed by their canonical
+ * path: the canonical file path, size and modification time for models loaded from
+ * files, and the name (e.g. a "pak://" path), size, modification time and CRC of
+ * their source for models loaded from buffers. Callers that know the modification
+ * time and CRC of a buffer's source, e.g. from the central directory of a pak file,
+ * should pass them in, otherwise the CRC of the data has to be computed. Streaming
+ * loads with a listener are not cached.
+ *
+ * <p>The cached models keep the textures they were loaded with, and with them the
+ * decoded texture data in the MD3TextureCache, so that data is part of the estimated
+ * size of a model. The least recently used models are evicted when the estimated size
+ * of the cached models exceeds the maximum cache size. Evicted models are kept through soft
+ * references, so they can still be found as long as the garbage collector does not
+ * need the memory. Optionally, models are also stored in a persistent MD3ModelCache
+ * on disk. New models are written to the disk cache by a background thread, so the
+ * load itself doesn't wait for that.
+ *
+ * <p>This factory is thread safe if the decorated factory is.
+ *
+ * @see md3.md3model.MD3ModelCache
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+public class MD3CachingModelFactory extends MD3ModelFactory {
+	
+	//thread storing loaded models in disk caches
+	private static Executor diskWriter=Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t=new Thread(r, "MD3ModelCacheWriter");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	private MD3ModelFactory factory; //the decorated factory
+	private long maxSize;
+	private MD3ModelCache diskCache=null;
+	
+	private long size=0; //estimated size of all models in the cache
+	private LinkedHashMap<String, CacheEntry> models=new LinkedHashMap<String, CacheEntry>(16, 0.75f, true); //access ordered
+	private HashMap<String, SoftReference<CacheEntry>> softModels=new HashMap<String, SoftReference<CacheEntry>>(); //evicted models
+	
+	//statistics
+	private int hitCount=0, softHitCount=0, diskHitCount=0, missCount=0, evictionCount=0;
+	
+	/**
+	 * <p>Create a caching factory that decorates the given factory and caches models
+	 * up to an estimated total size of maxSize bytes.
+	 */
+	public MD3CachingModelFactory(MD3ModelFactory factory, long maxSize) {
+		this.factory=factory;
+		this.maxSize=maxSize;
+	}
+	
+	/**
+	 * <p>Return the factory decorated by this factory.
+	 */
+	public MD3ModelFactory getDecoratedFactory() {
+		return factory;
+	}
+	
+	/**
+	 * <p>Set the persistent cache that is consulted when a model is not found in memory,
+	 * or null if none.
+	 */
+	public synchronized void setDiskCache(MD3ModelCache diskCache) {
+		this.diskCache=diskCache;
+	}
+	
+	public synchronized MD3ModelCache getDiskCache() {
+		return diskCache;
+	}
+	
+	/**
+	 * <p>Set the maximum estimated size, in bytes, of the models kept in the cache.
+	 */
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize=maxSize;
+		evict();
+	}
+	
+	public synchronized long getMaxSize() {
+		return maxSize;
+	}
+	
+	/**
+	 * <p>Return the estimated size, in bytes, of the models currently in the cache.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+	
+	/**
+	 * <p>Return the number of models currently in the cache.
+	 */
+	public synchronized int getModelCount() {
+		return models.size();
+	}
+	
+	/**
+	 * <p>Return the number of requests served from the cache.
+	 */
+	public synchronized int getHitCount() {
+		return hitCount;
+	}
+	
+	/**
+	 * <p>Return the number of requests served by a model that had been evicted from
+	 * the cache, but was still softly reachable. These are also counted as hits.
+	 */
+	public synchronized int getSoftHitCount() {
+		return softHitCount;
+	}
+	
+	/**
+	 * <p>Return the number of requests served from the disk cache. These are also
+	 * counted as misses.
+	 */
+	public synchronized int getDiskHitCount() {
+		return diskHitCount;
+	}
+	
+	/**
+	 * <p>Return the number of requests that could not be served from the cache.
+	 */
+	public synchronized int getMissCount() {
+		return missCount;
+	}
+	
+	/**
+	 * <p>Return the number of models evicted from the cache.
+	 */
+	public synchronized int getEvictionCount() {
+		return evictionCount;
+	}
+	
+	/**
+	 * <p>Remove all models from the cache. The statistics are not reset.
+	 */
+	public synchronized void clear() {
+		models.clear();
+		softModels.clear();
+		size=0;
+	}
+	
+	public synchronized String toString() {
+		return "model cache: " + models.size() + " models, " + size + " of " + maxSize + " bytes, " +
+		       hitCount + " hits (" + softHitCount + " soft), " + missCount + " misses (" +
+		       diskHitCount + " from disk), " + evictionCount + " evictions";
+	}
+	
+	//lookup a cached model, returns a copy or null if the model is not cached
+	private synchronized MD3Model get(String key) {
+		CacheEntry entry=models.get(key);
+		if (entry==null) {
+			SoftReference<CacheEntry> ref=softModels.remove(key);
+			if (ref!=null && ref.get()!=null) {
+				//still softly reachable: put it back in the cache
+				entry=ref.get();
+				models.put(key, entry);
+				size+=entry.size;
+				softHitCount++;
+				evict();
+			}
+		}
+		
+		if (entry==null) {
+			missCount++;
+			return null;
+		}
+		else {
+			hitCount++;
+			return (MD3Model)entry.model.clone();
+		}
+	}
+	
+	//add a model to the cache and return a copy of it
+	private synchronized MD3Model put(String key, MD3Model model) {
+		CacheEntry entry=new CacheEntry(model, estimateSize(model));
+		CacheEntry old=models.put(key, entry);
+		if (old!=null)
+			size-=old.size;
+		softModels.remove(key);
+		size+=entry.size;
+		evict();
+		return (MD3Model)model.clone();
+	}
+	
+	//evict least recently used models until the cache fits in its maximum size
+	private void evict() {
+		Iterator<Map.Entry<String, CacheEntry>> it=models.entrySet().iterator();
+		while (size>maxSize && it.hasNext()) {
+			Map.Entry<String, CacheEntry> e=it.next();
+			CacheEntry entry=e.getValue();
+			it.remove();
+			size-=entry.size;
+			softModels.put(e.getKey(), new SoftReference<CacheEntry>(entry));
+			evictionCount++;
+		}
+		
+		//forget about cleared soft references
+		Iterator<SoftReference<CacheEntry>> refs=softModels.values().iterator();
+		while (refs.hasNext())
+			if (refs.next().get()==null)
+				refs.remove();
+	}
+	
+	/**
+	 * <p>Return an estimate of the memory used by the geometry and textures of the given
+	 * model, in bytes. Frames that are decoded on demand are counted as decoded. The
+	 * cached model keeps its textures in use, so the decoded data they hold at this time
+	 * is counted as well, data shared by several textures only once.
+	 */
+	protected long estimateSize(MD3Model model) {
+		long res=model.boneFrameNum * (56L + model.tagNum * 112L);
+		Set<byte[]> textureData=new HashSet<byte[]>(); //arrays are compared by identity
+		for (int i=0;i<model.meshNum;i++) {
+			MD3Mesh mesh=model.meshes[i];
+			res+=mesh.triangleNum * 12L + mesh.vertexNum * 8L;
+			res+=(long)mesh.meshFrameNum * mesh.vertexNum * (mesh.isQuantized() ? 8 : 14);
+			for (int j=0;mesh.textures!=null && j<mesh.textures.length;j++) {
+				byte[] data=mesh.textures[j]==null ? null : mesh.textures[j].data;
+				if (data!=null && textureData.add(data))
+					res+=data.length;
+			}
+		}
+		return res;
+	}
+	
+	//return the canonical form of the given model name
+	private static String getCanonicalName(String name) {
+		if (name.toLowerCase().startsWith("pak://"))
+			return "pak://" + name.substring(6).replace('\\', '/').toLowerCase();
+		
+		try {
+			return new File(name).getCanonicalPath();
+		} catch (IOException e) {
+			return new File(name).getAbsolutePath();
+		}
+	}
+	
+	//load a model from the given data, or from the named file if data is null, using
+	//the disk cache if possible: problems with the disk cache are ignored, the model
+	//is simply loaded from its source
+	private MD3Model load(String name, String canonicalName, ByteBuffer data, long size, long time, long crc) throws IOException {
+		MD3ModelCache disk=getDiskCache();
+		if (disk!=null) try {
+			MD3Model model=disk.get(canonicalName, size, time, crc);
+			if (model!=null) {
+				synchronized (this) {
+					diskHitCount++;
+				}
+				model.loadFilename=name.trim();
+				return model;
+			}
+		} catch (IOException e) {
+		} catch (SecurityException e) {
+		}
+		
+		MD3Model model=data==null ? factory.makeMD3Model(name) : factory.makeMD3Model(name, data.duplicate());
+		if (disk!=null)
+			store(disk, model, canonicalName, size, time, crc);
+		return model;
+	}
+	
+	//store a model in the disk cache in the background, problems are ignored
+	private static void store(final MD3ModelCache disk, final MD3Model model, final String canonicalName,
+	                          final long size, final long time, final long crc) {
+		try {
+			diskWriter.execute(new Runnable() {
+				public void run() {
+					try {
+						disk.put(model, canonicalName, size, time, crc);
+					} catch (IOException e) {
+					} catch (SecurityException e) {
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+		}
+	}
+	
+	public MD3Model makeMD3Model(String filename) throws IOException {
+		File f=new File(filename);
+		long size=f.length(), time=f.lastModified();
+		String canonicalName=getCanonicalName(filename);
+		String key=canonicalName + "|" + size + "|" + time;
+		MD3Model res=get(key);
+		if (res==null)
+			res=put(key, load(filename, canonicalName, null, size, time, 0));
+		return res;
+	}
+	
+	/**
+	 * <p>Loads an MD3 model from the specified input stream, the stream is read
+	 * completely to identify the model.
+	 */
+	public MD3Model makeMD3Model(String name, InputStream in) throws IOException {
+		ByteArrayOutputStream bout=new ByteArrayOutputStream();
+		byte[] buf=new byte[8192];
+		int len;
+		while ((len=in.read(buf))!=-1)
+			bout.write(buf, 0, len);
+		return makeMD3Model(name, ByteBuffer.wrap(bout.toByteArray()));
+	}
+	
+	public MD3Model makeMD3Model(String name, InputStream in, MD3LoadListener listener) throws IOException {
+		return factory.makeMD3Model(name, in, listener);
+	}
+	
+	/**
+	 * <p>Loads an MD3 model from the given buffer. Nothing is known about the source
+	 * of the data, so the CRC of the data is computed to identify it. Use
+	 * makeMD3Model(String, ByteBuffer, long, long) when the modification time and
+	 * CRC of the source are known.
+	 */
+	public MD3Model makeMD3Model(String name, ByteBuffer data) throws IOException {
+		CRC32 crc=new CRC32();
+		crc.update(data.duplicate());
+		return makeMD3Model(name, data, 0, crc.getValue());
+	}
+	
+	/**
+	 * <p>Loads an MD3 model from the given buffer, identifying the data by its name,
+	 * size and the given modification time and CRC of its source, like the time and
+	 * CRC recorded for an entry in the central directory of a pak file. The data
+	 * itself is not examined when the model is found in the cache.
+	 *
+	 * @param name Name of the model.
+	 * @param data Buffer containing the model data, starting at its current position.
+	 * @param time Modification time of the source of the data.
+	 * @param crc CRC of the source of the data, or -1 if unknown.
+	 * @return An MD3Model object containing the read information.
+	 */
+	public MD3Model makeMD3Model(String name, ByteBuffer data, long time, long crc) throws IOException {
+		String canonicalName=getCanonicalName(name);
+		String key=canonicalName + "|" + data.remaining() + "|" + time + "|" + Long.toHexString(crc);
+		MD3Model res=get(key);
+		if (res==null)
+			res=put(key, load(name, canonicalName, data, data.remaining(), time, crc));
+		else
+			res.loadFilename=name.trim(); //the same data might have been loaded under another name
+		return res;
+	}
+	
+	//delegate all other requests to the decorated factory
+	
+	public void setLazyFrameDecoding(boolean b) {
+		factory.setLazyFrameDecoding(b);
+	}
+	
+	public boolean isLazyFrameDecoding() {
+		return factory.isLazyFrameDecoding();
+	}
+	
+	public void setQuantizedFrames(boolean b) {
+		factory.setQuantizedFrames(b);
+	}
+	
+	public boolean isQuantizedFrames() {
+		return factory.isQuantizedFrames();
+	}
+	
+	public void setParallelDecoding(boolean b) {
+		factory.setParallelDecoding(b);
+	}
+	
+	public boolean isParallelDecoding() {
+		return factory.isParallelDecoding();
+	}
+	
+	public void setMemoryMappedLoading(boolean b) {
+		factory.setMemoryMappedLoading(b);
+	}
+	
+	public boolean isMemoryMappedLoading() {
+		return factory.isMemoryMappedLoading();
+	}
+	
+	public void setMipMapPrebuilding(boolean b) {
+		factory.setMipMapPrebuilding(b);
+	}
+	
+	public boolean isMipMapPrebuilding() {
+		return factory.isMipMapPrebuilding();
+	}
+	
+	public MD3Model makeCachedMD3Model(ByteBuffer data) throws IOException {
+		return factory.makeCachedMD3Model(data);
+	}
+	
+	public MD3ModelInfo probeMD3Model(String filename) throws IOException {
+		return factory.probeMD3Model(filename);
+	}
+	
+	public MD3ModelInfo probeMD3Model(String name, ByteBuffer data) throws IOException {
+		return factory.probeMD3Model(name, data);
+	}
+	
+	public MD3Model makeMD3Model() {
+		return factory.makeMD3Model();
+	}
+	
+	public MD3BoneFrame makeMD3BoneFrame(int tagNum, DataInput din) throws IOException {
+		return factory.makeMD3BoneFrame(tagNum, din);
+	}
+	
+	public MD3BoneFrame makeMD3BoneFrame(int tagNum, ByteBuffer buf) throws IOException {
+		return factory.makeMD3BoneFrame(tagNum, buf);
+	}
+	
+	public MD3BoneFrame makeMD3BoneFrame(int tagNum) {
+		return factory.makeMD3BoneFrame(tagNum);
+	}
+	
+	public MD3Tag makeMD3Tag(DataInput din) throws IOException {
+		return factory.makeMD3Tag(din);
+	}
+	
+	public MD3Tag makeMD3Tag(ByteBuffer buf) throws IOException {
+		return factory.makeMD3Tag(buf);
+	}
+	
+	public MD3Tag makeMD3Tag() {
+		return factory.makeMD3Tag();
+	}
+	
+	public MD3Mesh makeMD3Mesh(DataInput din) throws IOException {
+		return factory.makeMD3Mesh(din);
+	}
+	
+	public MD3Mesh makeMD3Mesh(DataInput din, boolean deferFrames) throws IOException {
+		return factory.makeMD3Mesh(din, deferFrames);
+	}
+	
+	public MD3Mesh makeMD3Mesh(ByteBuffer buf) throws IOException {
+		return factory.makeMD3Mesh(buf);
+	}
+	
+	public MD3Mesh makeMD3Mesh() {
+		return factory.makeMD3Mesh();
+	}
+	
+	public MD3Texture makeMD3Texture(String name, String loadFilename) throws IOException {
+		return factory.makeMD3Texture(name, loadFilename);
+	}
+	
+	public MD3Texture makeMD3Texture(String name, String loadFilename, InputStream in) throws IOException {
+		return factory.makeMD3Texture(name, loadFilename, in);
+	}
+	
+	public MD3Texture makeMD3Texture() {
+		return factory.makeMD3Texture();
+	}
+	
+	public InputStream openTextureData(String loadFilename) throws IOException {
+		return factory.openTextureData(loadFilename);
+	}
+	
+	public MD3Animation makeMD3Animation(String line) throws IOException {
+		return factory.makeMD3Animation(line);
+	}
+	
+	public MD3Animation makeMD3Animation() {
+		return factory.makeMD3Animation();
+	}
+	
+	public AnimationCfg makeAnimationCfg(String filename) throws IOException {
+		return factory.makeAnimationCfg(filename);
+	}
+	
+	public AnimationCfg makeAnimationCfg(InputStream in) throws IOException {
+		return factory.makeAnimationCfg(in);
+	}
+	
+	public AnimationCfg makeAnimationCfg() {
+		return factory.makeAnimationCfg();
+	}
+	
+	public MD3Skin makeMD3Skin(String filename) throws IOException {
+		return factory.makeMD3Skin(filename);
+	}
+	
+	public MD3Skin makeMD3Skin(InputStream in) throws IOException {
+		return factory.makeMD3Skin(in);
+	}
+	
+	public MD3Skin makeMD3Skin() {
+		return factory.makeMD3Skin();
+	}
+	
+	/**
+	 * <p>A cached model with its estimated size.
+	 */
+	private static class CacheEntry {
+		MD3Model model;
+		long size;
+		
+		CacheEntry(MD3Model model, long size) {
+			this.model=model;
+			this.size=size;
+		}
+	}
+}
@@ -20,6 +20,9 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 package md3.md3model;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.*;
 
 import cio.LittleEndianDataInputStream;
 
@@ -32,7 +35,8 @@ import md3.util.*;
  */
 class MD3IO {
 	
-	private static int totalSizeOfMeshes;
+  //minimum amount of mesh data (in bytes) that makes parallel decoding worthwhile
+  private static final int PARALLEL_DECODING_THRESHOLD=64 * 1024;
 	
   private MD3IO() {} //cannot instantiate
   
@@ -53,10 +57,50 @@ class MD3IO {
     return res.toString();    
   }
   
+  //reads cnt bytes, representing a '\0' terminated string, from the current
+  //position of the buffer and returns them as a String object
+  private static String readName(ByteBuffer buf, int cnt) {
+    int start=buf.position();
+    int len=0;
+    while (len<cnt && buf.get(start+len)!=0)
+      len++; //end of string data not yet reached
+    
+    char[] res=new char[len];
+    for (int i=0;i<len;i++)
+      res[i]=(char)buf.get(start+i);
+    
+    buf.position(start+cnt);
+    return new String(res);
+  }
+  
+  /**
+   * <p>Map the specified file into memory. The returned buffer is read only
+   * and stays valid after the underlying file has been closed.
+   */
+  static ByteBuffer mapFile(String filename) throws IOException {
+    FileInputStream fin=new FileInputStream(filename);
+    try {
+      FileChannel channel=fin.getChannel();
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      fin.close();
+    }
+  }
+  
   /**
    * <p>Load a .md3 file from the given input stream into an MD3Model object.
    */ 
   static void loadModel(MD3Model newModel, InputStream fin) throws IOException {
+    loadModel(newModel, fin, null);
+  }
+  
+  /**
+   * <p>Load a .md3 file from the given input stream into an MD3Model object,
+   * notifying the given listener (if not null) as soon as each part of the model
+   * has been read. Meshes are entered in the model as soon as they are read and
+   * their vertex frames are read one by one.
+   */ 
+  static void loadModel(MD3Model newModel, InputStream fin, MD3LoadListener listener) throws IOException {
     LittleEndianDataInputStream dfin=new LittleEndianDataInputStream(new BufferedInputStream(fin));
     
     int byteCount=0; //number of bytes read
@@ -89,6 +133,9 @@ class MD3IO {
            ( newModel.fileSize > newModel.tagStart ) &&
            ( newModel.fileSize >= newModel.meshStart )
          ) {
+        
+        if (listener!=null)
+          listener.headerLoaded(newModel);
 
         //mark parts with no data as read
         boneFrames = newModel.boneFrameNum==0;
@@ -101,21 +148,29 @@ class MD3IO {
 	        	readBoneFrames(newModel, dfin);
 	        	byteCount+=56 * newModel.boneFrameNum;
 	        	boneFrames=true;
+	        	if (listener!=null)
+	        	  listener.boneFramesLoaded(newModel);
 	        }
 	        else if (byteCount==newModel.tagStart && !tags) {
 	        	readTags(newModel, dfin);
 	        	byteCount+=112 * newModel.boneFrameNum * newModel.tagNum;
 	        	tags=true;
+	        	if (listener!=null)
+	        	  listener.tagsLoaded(newModel);
 	        }
 	        else if (byteCount==newModel.meshStart && !meshes) {
-	        	totalSizeOfMeshes=0;
-	        	readMeshes(newModel, dfin);
-	        	byteCount+=totalSizeOfMeshes;
+	        	if (listener!=null)
+	        	  byteCount+=readMeshes(newModel, dfin, listener);
+	        	else
+	        	  byteCount+=readMeshes(newModel, dfin);
 	        	meshes=true;
 	        }
 	        else
 		        throw new IOException("corrupt md3 file data");
-        }                
+        }
+        
+        if (listener!=null)
+          listener.modelLoaded(newModel);
       }
       else
         throw new IOException("corrupt md3 file header");
@@ -124,6 +179,210 @@ class MD3IO {
       throw new IOException("not a IDP3 type md3 file");
   }
   
+  /**
+   * <p>Load a .md3 file from the given buffer into an MD3Model object. The model
+   * data should start at the current position of the buffer.
+   *
+   * <p>Unlike the stream based loader, the different parts of the model are
+   * located directly using the offsets in the model header, so no intermediate
+   * stream objects or copies of the data are needed. This makes it well suited to
+   * load memory mapped files (see mapFile()). On return, the position of the
+   * buffer will be just past the model data.
+   *
+   * <p>The meshes are located using the meshSize in their headers and, if the
+   * factory allows it, decoded concurrently on the common fork/join pool, together
+   * with the bone frames and tags.
+   *
+   * @see md3.md3model.MD3ModelFactory#setParallelDecoding(boolean)
+   */
+  static void loadModel(MD3Model newModel, ByteBuffer data) throws IOException {
+    ByteBuffer buf=data.slice().order(ByteOrder.LITTLE_ENDIAN);
+    
+    try {
+      //read id of file, always "IDP3"
+      newModel.id=readName(buf, 4);
+      if (!newModel.id.equals("IDP3"))
+        throw new IOException("not a IDP3 type md3 file");
+      
+      //read header
+      newModel.version = buf.getInt();
+      newModel.filename = readName(buf, 68);
+      newModel.boneFrameNum = buf.getInt();
+      newModel.tagNum = buf.getInt();
+      newModel.meshNum = buf.getInt();
+      newModel.maxTextureNum = buf.getInt();
+      newModel.boneFrameStart = buf.getInt();
+      newModel.tagStart = buf.getInt();
+      newModel.meshStart = buf.getInt();
+      newModel.fileSize = buf.getInt();
+      
+      if ( ( newModel.version != 15 ) ||
+           ( newModel.fileSize <= newModel.tagStart ) ||
+           ( newModel.fileSize < newModel.meshStart ) ||
+           ( newModel.fileSize > buf.limit() ) ||
+           ( newModel.boneFrameNum < 0 ) ||
+           ( newModel.tagNum < 0 ) ||
+           ( newModel.meshNum < 0 ) ||
+           !fits(newModel.meshStart, 108L * newModel.meshNum, newModel.fileSize) ||
+           !fits(newModel.boneFrameStart, 56L * newModel.boneFrameNum, newModel.fileSize) ||
+           !fits(newModel.tagStart, 112L * newModel.boneFrameNum * newModel.tagNum, newModel.fileSize)
+         )
+        throw new IOException("corrupt md3 file header");
+      
+      //locate all meshes, every mesh header has the size of the mesh
+      int[] meshOffsets=new int[newModel.meshNum];
+      int offset=newModel.meshStart;
+      for (int i=0;i<newModel.meshNum;i++) {
+        meshOffsets[i]=offset;
+        if (!fits(offset, 108, newModel.fileSize))
+          throw new IOException("corrupt mesh header");
+        int meshSize=buf.getInt(offset + 104);
+        if (meshSize<=0 || meshSize>newModel.fileSize-offset)
+          throw new IOException("corrupt mesh header");
+        offset+=meshSize;
+      }
+      
+      //read different parts of model, straight from their offsets
+      newModel.meshes=new MD3Mesh[newModel.meshNum];
+      ModelPartTask[] tasks=new ModelPartTask[newModel.meshNum + 1];
+      tasks[0]=new ModelPartTask(newModel, buf, -1, 0);
+      for (int i=0;i<newModel.meshNum;i++)
+        tasks[i+1]=new ModelPartTask(newModel, buf, i, meshOffsets[i]);
+      
+      if (MD3ModelFactory.getFactory().isParallelDecoding() &&
+          ForkJoinPool.getCommonPoolParallelism()>1 &&
+          offset-newModel.meshStart>=PARALLEL_DECODING_THRESHOLD)
+        ForkJoinPool.commonPool().invoke(new ModelPartsTask(tasks));
+      else
+        for (int i=0;i<tasks.length;i++)
+          tasks[i].invoke();
+      
+      for (int i=0;i<tasks.length;i++)
+        if (tasks[i].error!=null)
+          throw tasks[i].error;
+    }
+    catch (BufferUnderflowException e) {
+      throw new IOException("corrupt md3 file data");
+    }
+    catch (IndexOutOfBoundsException e) {
+      throw new IOException("corrupt md3 file data");
+    }
+    catch (IllegalArgumentException e) {
+      throw new IOException("corrupt md3 file data");
+    }
+    catch (NegativeArraySizeException e) {
+      throw new IOException("corrupt md3 file data");
+    }
+    
+    data.position(data.position() + newModel.fileSize);
+  }
+  
+  /**
+   * <p>Read the model header, the tag names and the mesh headers of the .md3 data
+   * in the given buffer into an MD3ModelInfo object. The model data should start at
+   * the current position of the buffer, which is left unchanged.
+   */
+  static void probeModel(MD3ModelInfo info, ByteBuffer data) throws IOException {
+    ByteBuffer buf=data.slice().order(ByteOrder.LITTLE_ENDIAN);
+    
+    try {
+      if (!readName(buf, 4).equals("IDP3"))
+        throw new IOException("not a IDP3 type md3 file");
+      
+      int version = buf.getInt();
+      info.filename = readName(buf, 68);
+      info.boneFrameNum = buf.getInt();
+      info.tagNum = buf.getInt();
+      info.meshNum = buf.getInt();
+      buf.getInt(); //maxTextureNum
+      buf.getInt(); //boneFrameStart
+      int tagStart = buf.getInt();
+      int meshStart = buf.getInt();
+      info.fileSize = buf.getInt();
+      
+      if ( ( version != 15 ) ||
+           ( info.fileSize <= tagStart ) ||
+           ( info.fileSize < meshStart ) ||
+           ( info.fileSize > buf.limit() ) ||
+           ( info.boneFrameNum < 0 ) ||
+           ( info.tagNum < 0 ) ||
+           ( info.meshNum < 0 ) ||
+           !fits(tagStart, 112L * info.tagNum, info.fileSize) ||
+           !fits(meshStart, 108L * info.meshNum, info.fileSize)
+         )
+        throw new IOException("corrupt md3 file header");
+      
+      //tag names of the first frame, every tag is 112 bytes and starts with its name
+      info.tagNames=new String[info.tagNum];
+      for (int i=0;i<info.tagNum;i++) {
+        buf.position(tagStart + 112 * i);
+        info.tagNames[i]=readName(buf, 64);
+      }
+      
+      //walk the mesh headers, using the size of every mesh to find the next one
+      info.meshNames=new String[info.meshNum];
+      info.meshVertexNums=new int[info.meshNum];
+      info.meshTriangleNums=new int[info.meshNum];
+      info.meshShaderNames=new String[info.meshNum][];
+      info.vertexNum=0;
+      info.triangleNum=0;
+      int offset=meshStart;
+      for (int i=0;i<info.meshNum;i++) {
+        if (!fits(offset, 108, info.fileSize))
+          throw new IOException("corrupt mesh header");
+        buf.position(offset);
+        if (!readName(buf, 4).equals("IDP3"))
+          throw new IOException("not a IDP3 mesh");
+        info.meshNames[i]=readName(buf, 68);
+        buf.getInt(); //meshFrameNum
+        int textureNum = buf.getInt();
+        info.meshVertexNums[i] = buf.getInt();
+        info.meshTriangleNums[i] = buf.getInt();
+        buf.getInt(); //triangleStart
+        int textureStart = buf.getInt();
+        buf.getInt(); //texVecStart
+        buf.getInt(); //vertexStart
+        int meshSize = buf.getInt();
+        if ( ( meshSize <= 0 ) ||
+             ( meshSize > info.fileSize - offset ) ||
+             ( textureNum < 0 ) ||
+             ( info.meshVertexNums[i] < 0 ) ||
+             ( info.meshTriangleNums[i] < 0 ) ||
+             !fits(textureStart, 68L * textureNum, meshSize)
+           )
+          throw new IOException("corrupt mesh header");
+        
+        //shader names, 68 bytes each
+        info.meshShaderNames[i]=new String[textureNum];
+        buf.position(offset + textureStart);
+        for (int j=0;j<textureNum;j++)
+          info.meshShaderNames[i][j]=readName(buf, 68);
+        
+        info.vertexNum+=info.meshVertexNums[i];
+        info.triangleNum+=info.meshTriangleNums[i];
+        offset+=meshSize;
+      }
+    }
+    catch (BufferUnderflowException e) {
+      throw new IOException("corrupt md3 file data");
+    }
+    catch (IndexOutOfBoundsException e) {
+      throw new IOException("corrupt md3 file data");
+    }
+    catch (IllegalArgumentException e) {
+      throw new IOException("corrupt md3 file data");
+    }
+    catch (NegativeArraySizeException e) {
+      throw new IOException("corrupt md3 file data");
+    }
+  }
+  
+  //is the part of size bytes starting at the given offset completely inside the
+  //first limit bytes of the data?
+  private static boolean fits(int offset, long size, int limit) {
+    return size==0 || (offset>=0 && size>0 && offset + size <= limit);
+  }
+  
   //read MD3BoneFrames
   private static void readBoneFrames(MD3Model newModel, DataInput dfin) throws IOException {
     newModel.boneFrames = new MD3BoneFrame[newModel.boneFrameNum];
@@ -138,11 +397,130 @@ class MD3IO {
         newModel.boneFrames[i].tags[j]=MD3ModelFactory.getFactory().makeMD3Tag(dfin);
   }
   
-  //read MD3Meshes
-  private static void readMeshes(MD3Model newModel, DataInput dfin) throws IOException {
+  //read MD3Meshes, returns the total size of the meshes
+  private static int readMeshes(MD3Model newModel, DataInput dfin) throws IOException {
+    int size=0;
 	  newModel.meshes=new MD3Mesh[newModel.meshNum];
-	  for (int i=0;i<newModel.meshNum;i++)
+	  for (int i=0;i<newModel.meshNum;i++) {
 	    newModel.meshes[i]=MD3ModelFactory.getFactory().makeMD3Mesh(dfin);
+	    size+=newModel.meshes[i].meshSize;
+	  }
+	  return size;
+  }
+  
+  //read MD3Meshes, entering them in the model and notifying the listener as soon as
+  //they are available, returns the total size of the meshes
+  private static int readMeshes(MD3Model newModel, DataInput dfin, MD3LoadListener listener) throws IOException {
+    int size=0;
+	  newModel.meshes=new MD3Mesh[newModel.meshNum];
+	  for (int i=0;i<newModel.meshNum;i++) {
+	    MD3Mesh mesh=MD3ModelFactory.getFactory().makeMD3Mesh(dfin, true);
+	    newModel.meshes[i]=mesh;
+	    size+=mesh.meshSize;
+	    listener.meshLoaded(newModel, i);
+	    
+	    if (mesh.meshFrameNum>0 && !mesh.isFrameAvailable(0)) {
+	      //the vertex frames were left for us, read them one at a time
+	      short[] frame=new short[mesh.vertexNum*4];
+	      for (int j=0;j<mesh.meshFrameNum;j++) {
+	        readShorts(dfin, frame);
+	        setVertexFrame(mesh, j, frame);
+	        listener.meshFrameLoaded(newModel, i, j);
+	      }
+	    }
+	    else
+	      for (int j=0;j<mesh.meshFrameNum;j++)
+	        listener.meshFrameLoaded(newModel, i, j);
+	  }
+	  return size;
+  }
+  
+  //read MD3BoneFrames from a buffer
+  private static void readBoneFrames(MD3Model newModel, ByteBuffer buf) throws IOException {
+    newModel.boneFrames = new MD3BoneFrame[newModel.boneFrameNum];
+    for (int i=0;i<newModel.boneFrameNum;i++)
+      newModel.boneFrames[i]=MD3ModelFactory.getFactory().makeMD3BoneFrame(newModel.tagNum, buf);
+  }
+  
+  //read MD3Tags for every bone frame from a buffer
+  private static void readTags(MD3Model newModel, ByteBuffer buf) throws IOException {
+    if (newModel.boneFrames==null)
+      throw new IOException("corrupt md3 file data");
+    
+    for (int i=0;i<newModel.boneFrameNum;i++)
+      for (int j=0;j<newModel.tagNum;j++)
+        newModel.boneFrames[i].tags[j]=MD3ModelFactory.getFactory().makeMD3Tag(buf);
+  }
+  
+  /**
+   * <p>Fork/join task decoding one independent part of a model from a buffer: either
+   * the bone frames together with their tags, or a single mesh. Every task
+   * works on its own view of the buffer. Problems are recorded in the task, to be
+   * rethrown by the thread that requested the load.
+   */
+  private static class ModelPartTask extends RecursiveAction {
+    private static final long serialVersionUID=1L;
+    
+    private MD3ModelFactory factory; //factory of the loading thread
+    private MD3Model model;
+    private ByteBuffer buf;
+    private int mesh; //index of mesh to decode, -1 for bone frames and tags
+    private int offset;
+    IOException error;
+    
+    ModelPartTask(MD3Model model, ByteBuffer buf, int mesh, int offset) {
+      this.model=model;
+      this.factory=MD3ModelFactory.getFactory();
+      this.buf=buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      this.mesh=mesh;
+      this.offset=offset;
+    }
+    
+    protected void compute() {
+      MD3ModelFactory previous=MD3ModelFactory.setThreadFactory(factory);
+      try {
+        if (mesh<0) {
+          if (model.boneFrameNum>0) {
+            buf.position(model.boneFrameStart);
+            readBoneFrames(model, buf);
+          }
+          
+          if (model.tagNum>0) {
+            buf.position(model.tagStart);
+            readTags(model, buf);
+          }
+        }
+        else {
+          buf.position(offset);
+          model.meshes[mesh]=MD3ModelFactory.getFactory().makeMD3Mesh(buf);
+        }
+      }
+      catch (IOException e) {
+        error=e;
+      }
+      catch (RuntimeException e) {
+        //e.g. a factory that could not handle the data
+        error=new IOException("unable to decode " + (mesh<0 ? "bone frames" : "mesh " + mesh) + ": " + e, e);
+      }
+      finally {
+        MD3ModelFactory.setThreadFactory(previous);
+      }
+    }
+  }
+  
+  //runs all given model part tasks in parallel
+  private static class ModelPartsTask extends RecursiveAction {
+    private static final long serialVersionUID=1L;
+    
+    private ModelPartTask[] tasks;
+    
+    ModelPartsTask(ModelPartTask[] tasks) {
+      this.tasks=tasks;
+    }
+    
+    protected void compute() {
+      invokeAll(tasks);
+    }
   }
   
   static void loadBoneFrame(MD3BoneFrame newBoneFrame, DataInput din) throws IOException {
@@ -160,6 +538,21 @@ class MD3IO {
     newBoneFrame.creator=readName(din, 16);
   }
   
+  static void loadBoneFrame(MD3BoneFrame newBoneFrame, ByteBuffer buf) {
+    newBoneFrame.mins.x = buf.getFloat();
+    newBoneFrame.mins.y = buf.getFloat();
+    newBoneFrame.mins.z = buf.getFloat();
+    newBoneFrame.maxs.x = buf.getFloat();
+    newBoneFrame.maxs.y = buf.getFloat();
+    newBoneFrame.maxs.z = buf.getFloat();
+    newBoneFrame.position.x = buf.getFloat();
+    newBoneFrame.position.y = buf.getFloat();
+    newBoneFrame.position.z = buf.getFloat();
+    newBoneFrame.scale = buf.getFloat();
+    
+    newBoneFrame.creator=readName(buf, 16);
+  }
+  
   static void loadTag(MD3Tag newTag, DataInput din) throws IOException {
     newTag.name=readName(din, 64);
 
@@ -177,7 +570,29 @@ class MD3IO {
     newTag.matrix[2][2] = din.readFloat();
   }
   
-  static void loadMesh(MD3Mesh newMesh, DataInput din) throws IOException {
+  static void loadTag(MD3Tag newTag, ByteBuffer buf) {
+    newTag.name=readName(buf, 64);
+
+    newTag.position.x = buf.getFloat();
+    newTag.position.y = buf.getFloat();
+    newTag.position.z = buf.getFloat();
+    newTag.matrix[0][0] = buf.getFloat();
+    newTag.matrix[1][0] = buf.getFloat();
+    newTag.matrix[2][0] = buf.getFloat();
+    newTag.matrix[0][1] = buf.getFloat();
+    newTag.matrix[1][1] = buf.getFloat();
+    newTag.matrix[2][1] = buf.getFloat();
+    newTag.matrix[0][2] = buf.getFloat();
+    newTag.matrix[1][2] = buf.getFloat();
+    newTag.matrix[2][2] = buf.getFloat();
+  }
+  
+  /**
+   * <p>Load a mesh from the given input stream. When deferFrames is set and the
+   * vertex frames are the last part of the mesh, they are not read: the frames
+   * are allocated and left in the stream for a streaming load.
+   */
+  static void loadMesh(MD3Mesh newMesh, DataInput din, boolean deferFrames) throws IOException {
   	int byteCount=0; //number of bytes in mesh read so far
   	boolean triangles, texVecs, vertices, textures; //parts of mesh that have been read
   	
@@ -227,6 +642,13 @@ class MD3IO {
 	        	byteCount+=8 * newMesh.vertexNum;
 	        	texVecs=true;
 	        }
+	        else if (byteCount==newMesh.vertexStart && !vertices &&
+	                 triangles && texVecs && textures && deferFrames) {
+	        	//streaming load: leave the frames, which are the last part of the mesh, in the stream
+	        	initFrames(newMesh);
+	        	byteCount+=8 * newMesh.meshFrameNum * newMesh.vertexNum;
+	        	vertices=true;
+	        }
 	        else if (byteCount==newMesh.vertexStart && !vertices) {
 	        	readVertices(newMesh, din);
 	        	byteCount+=8 * newMesh.meshFrameNum * newMesh.vertexNum;
@@ -241,18 +663,12 @@ class MD3IO {
     }
     else 
       throw new IOException("not a IDP3 mesh");
-      
-    totalSizeOfMeshes+=byteCount;
   }
   
   //read triangles of a mesh
   private static void readTriangles(MD3Mesh newMesh, DataInput din) throws IOException {
-	  newMesh.triangles = new int[newMesh.triangleNum][3];
-	  for (int i=0;i<newMesh.triangleNum;i++) {
-	    newMesh.triangles[i][0] = din.readInt();
-	    newMesh.triangles[i][1] = din.readInt();
-	    newMesh.triangles[i][2] = din.readInt();
-	  }
+	  newMesh.triangleIndices = new int[newMesh.triangleNum*3];
+    readInts(din, newMesh.triangleIndices);
 	}
   
   //read texture names (and associated texture data) of a mesh
@@ -266,27 +682,265 @@ class MD3IO {
 
   //read texture coord of a mesh
   private static void readTexVecs(MD3Mesh newMesh, DataInput din) throws IOException {
-    newMesh.textureCoord = new float[newMesh.vertexNum][2];
-    for (int i=0;i<newMesh.vertexNum;i++) {
-      newMesh.textureCoord[i][0] = din.readFloat();
-      newMesh.textureCoord[i][1] = din.readFloat();
-    }
+    newMesh.texCoords = new float[newMesh.vertexNum*2];
+    readFloats(din, newMesh.texCoords);
   }
   
   //read mesh vertex frames  
+  //every vertex is 4 little endian shorts: x, y, z and the 2 normal bytes
   private static void readVertices(MD3Mesh newMesh, DataInput din) throws IOException {
-    newMesh.meshFrames = new Vec3[newMesh.meshFrameNum][newMesh.vertexNum];
-    newMesh.meshVertexNormals = new int[newMesh.meshFrameNum][newMesh.vertexNum][2];
+    if (MD3ModelFactory.getFactory().isLazyFrameDecoding()) {
+      //only keep the raw frame data, frames are decoded on demand
+      byte[] data=new byte[8 * newMesh.meshFrameNum * newMesh.vertexNum];
+      din.readFully(data);
+      setFrameData(newMesh, ByteBuffer.wrap(data));
+      return;
+    }
+    
+    short[] frame=new short[newMesh.vertexNum*4];
+    
+    initFrames(newMesh);
     for (int i=0;i<newMesh.meshFrameNum;i++) {
+      readShorts(din, frame); //read entire frame in one go
+      setVertexFrame(newMesh, i, frame);
+    }
+  }  
+  
+  //set a vertex frame of a mesh from the 4 shorts per vertex read from the file
+  private static void setVertexFrame(MD3Mesh newMesh, int i, short[] frame) {
+    short[] quantized=null;
+    float[] pos=null;
+    if (newMesh.quantizedPositions!=null) {
+      quantized=new short[newMesh.vertexNum*3];
       for (int j=0;j<newMesh.vertexNum;j++) {
-        newMesh.meshFrames[i][j]=new Vec3();            
-        newMesh.meshFrames[i][j].x = (float)din.readShort() / 64.0f;
-        newMesh.meshFrames[i][j].y = (float)din.readShort() / 64.0f;
-        newMesh.meshFrames[i][j].z = (float)din.readShort() / 64.0f;
-        
-        newMesh.meshVertexNormals[i][j][0] = din.readUnsignedByte();
-        newMesh.meshVertexNormals[i][j][1] = din.readUnsignedByte();
+        quantized[j*3] = frame[j*4];
+        quantized[j*3 + 1] = frame[j*4 + 1];
+        quantized[j*3 + 2] = frame[j*4 + 2];
       }
     }
-  }  
+    else {
+      pos=new float[newMesh.vertexNum*3];
+      for (int j=0;j<newMesh.vertexNum;j++) {
+        pos[j*3] = (float)frame[j*4] / 64.0f;
+        pos[j*3 + 1] = (float)frame[j*4 + 1] / 64.0f;
+        pos[j*3 + 2] = (float)frame[j*4 + 2] / 64.0f;
+      }
+    }
+    
+    byte[] normals=new byte[newMesh.vertexNum*2];
+    for (int j=0;j<newMesh.vertexNum;j++) {
+      normals[j*2] = (byte)frame[j*4 + 3];
+      normals[j*2 + 1] = (byte)(frame[j*4 + 3] >> 8);
+    }
+    
+    //publish the complete frame to threads drawing the mesh
+    synchronized (newMesh.frames) {
+      if (quantized!=null)
+        newMesh.quantizedPositions[i]=quantized;
+      else
+        newMesh.framePositions[i]=pos;
+      newMesh.frameNormals[i]=normals;
+    }
+  }
+  
+  //fill the given array with little endian ints, in bulk if possible
+  private static void readInts(DataInput din, int[] v) throws IOException {
+    if (din instanceof LittleEndianDataInputStream)
+      ((LittleEndianDataInputStream)din).readInts(v, 0, v.length);
+    else
+      for (int i=0;i<v.length;i++)
+        v[i]=din.readInt();
+  }
+  
+  //fill the given array with little endian floats, in bulk if possible
+  private static void readFloats(DataInput din, float[] v) throws IOException {
+    if (din instanceof LittleEndianDataInputStream)
+      ((LittleEndianDataInputStream)din).readFloats(v, 0, v.length);
+    else
+      for (int i=0;i<v.length;i++)
+        v[i]=din.readFloat();
+  }
+  
+  //fill the given array with little endian shorts, in bulk if possible
+  private static void readShorts(DataInput din, short[] v) throws IOException {
+    if (din instanceof LittleEndianDataInputStream)
+      ((LittleEndianDataInputStream)din).readShorts(v, 0, v.length);
+    else
+      for (int i=0;i<v.length;i++)
+        v[i]=din.readShort();
+  }
+  
+  /**
+   * <p>Load a mesh from the given little endian buffer. The mesh data should start
+   * at the current position of the buffer. The parts of the mesh are read
+   * directly from the offsets in the mesh header. On return, the position of
+   * the buffer will be just past the mesh data (meshSize bytes further).
+   */
+  static void loadMesh(MD3Mesh newMesh, ByteBuffer data) throws IOException {
+    ByteBuffer buf=data.slice().order(ByteOrder.LITTLE_ENDIAN);
+    
+    newMesh.id=readName(buf, 4);
+    if (!newMesh.id.equals("IDP3"))
+      throw new IOException("not a IDP3 mesh");
+    
+    newMesh.name=readName(buf, 68); // 65 chars, 32bit aligned == 68 chars
+    
+    newMesh.meshFrameNum = buf.getInt();
+    newMesh.textureNum = buf.getInt();
+    newMesh.vertexNum = buf.getInt();
+    newMesh.triangleNum = buf.getInt();
+    newMesh.triangleStart = buf.getInt();
+    newMesh.textureStart = buf.getInt();
+    newMesh.texVecStart = buf.getInt();
+    newMesh.vertexStart = buf.getInt();
+    newMesh.meshSize = buf.getInt();
+    
+    if ( ( newMesh.meshSize <= newMesh.triangleStart ) ||
+         ( newMesh.meshSize <= newMesh.texVecStart ) ||
+         ( newMesh.meshSize <= newMesh.vertexStart ) ||
+         ( newMesh.meshSize > buf.limit() ) ||
+         ( newMesh.meshFrameNum < 0 ) ||
+         ( newMesh.textureNum < 0 ) ||
+         ( newMesh.vertexNum < 0 ) ||
+         ( newMesh.triangleNum < 0 ) ||
+         !fits(newMesh.triangleStart, 12L * newMesh.triangleNum, newMesh.meshSize) ||
+         !fits(newMesh.textureStart, 68L * newMesh.textureNum, newMesh.meshSize) ||
+         !fits(newMesh.texVecStart, 8L * newMesh.vertexNum, newMesh.meshSize) ||
+         !fits(newMesh.vertexStart, 8L * newMesh.meshFrameNum * newMesh.vertexNum, newMesh.meshSize)
+       )
+      throw new IOException("corrupt mesh header");
+    
+    //read different parts of mesh, straight from their offsets
+    if (newMesh.triangleNum>0) {
+      buf.position(newMesh.triangleStart);
+      readTriangles(newMesh, buf);
+    }
+    if (newMesh.textureNum>0) {
+      buf.position(newMesh.textureStart);
+      readTextures(newMesh, buf);
+    }
+    if (newMesh.vertexNum>0) {
+      buf.position(newMesh.texVecStart);
+      readTexVecs(newMesh, buf);
+    }
+    if (newMesh.meshFrameNum>0) {
+      buf.position(newMesh.vertexStart);
+      //don't keep a view on a memory mapped source file: it might be overwritten
+      //or truncated later on, and the mapping keeps it locked on some platforms
+      readVertices(newMesh, buf, buf.isDirect());
+    }
+    
+    data.position(data.position() + newMesh.meshSize);
+  }
+  
+  //read triangles of a mesh from a buffer
+  private static void readTriangles(MD3Mesh newMesh, ByteBuffer buf) {
+	  newMesh.triangleIndices = new int[newMesh.triangleNum*3];
+    buf.asIntBuffer().get(newMesh.triangleIndices);
+	}
+  
+  //read texture names (and associated texture data) of a mesh from a buffer
+  private static void readTextures(MD3Mesh newMesh, ByteBuffer buf) throws IOException {
+    newMesh.textures = new MD3Texture[newMesh.textureNum];        
+    for (int i=0;i<newMesh.textureNum;i++) {
+      String strTexName=readName(buf, 68); // 65 chars, 32bit aligned == 68 chars
+      newMesh.textures[i]=MD3ModelFactory.getFactory().makeMD3Texture(strTexName, strTexName);
+    }
+  }
+
+  //read texture coord of a mesh from a buffer
+  private static void readTexVecs(MD3Mesh newMesh, ByteBuffer buf) {
+    newMesh.texCoords = new float[newMesh.vertexNum*2];
+    buf.asFloatBuffer().get(newMesh.texCoords);
+  }
+  
+  /**
+   * <p>Set up the vertex frames of a mesh from the raw frame data at the current
+   * position of the given buffer. With lazy frame decoding, the mesh keeps a view
+   * on the data and decodes frames when they are accessed, otherwise all frames are
+   * decoded right away. The position of the buffer is not changed.
+   */
+  static void readVertices(MD3Mesh newMesh, ByteBuffer buf) {
+    readVertices(newMesh, buf, false);
+  }
+  
+  /**
+   * <p>Set up the vertex frames of a mesh from the raw frame data at the current
+   * position of the given buffer, like readVertices(MD3Mesh, ByteBuffer). When copy
+   * is true, a mesh decoding its frames lazily keeps a copy of the raw frame data in
+   * the heap instead of a view on the buffer.
+   */
+  static void readVertices(MD3Mesh newMesh, ByteBuffer buf, boolean copy) {
+    ByteBuffer data=buf.slice();
+    data.limit(8 * newMesh.meshFrameNum * newMesh.vertexNum);
+    if (copy && MD3ModelFactory.getFactory().isLazyFrameDecoding()) {
+      byte[] frames=new byte[data.remaining()];
+      data.get(frames);
+      data=ByteBuffer.wrap(frames);
+    }
+    //frames are decoded from the raw frame data
+    setFrameData(newMesh, data);
+    
+    if (!MD3ModelFactory.getFactory().isLazyFrameDecoding()) {
+      //decode all frames right now and drop the raw data
+      for (int i=0;i<newMesh.meshFrameNum;i++)
+        decodeVertexFrame(newMesh, i);
+      newMesh.frameData=null;
+    }
+  }
+  
+  //prepare a mesh for decoding of the given raw vertex frame data
+  private static void setFrameData(MD3Mesh newMesh, ByteBuffer data) {
+    newMesh.frameData=data.order(ByteOrder.LITTLE_ENDIAN);
+    initFrames(newMesh);
+  }
+  
+  //allocate the frame arrays of a mesh, individual frames are filled in when decoded
+  private static void initFrames(MD3Mesh newMesh) {
+    if (MD3ModelFactory.getFactory().isQuantizedFrames())
+      newMesh.quantizedPositions = new short[newMesh.meshFrameNum][];
+    else
+      newMesh.framePositions = new float[newMesh.meshFrameNum][];
+    newMesh.frameNormals = new byte[newMesh.meshFrameNum][];
+  }
+  
+  /**
+   * <p>Decode a single vertex frame of a mesh from the raw frame data of the mesh.
+   * Quantized meshes only get their normals split off, the positions are
+   * kept as they are. The caller should hold the lock of the frame store of the
+   * mesh once the mesh is accessible to other threads.
+   */
+  static void decodeVertexFrame(MD3Mesh mesh, int frame) {
+    ByteBuffer data=mesh.frameData;
+    if (data==null)
+      throw new IllegalStateException("no frame data available for frame " + frame + " of mesh " + mesh.name);
+    
+    int start=8 * mesh.vertexNum * frame;
+    
+    if (mesh.quantizedPositions!=null) {
+      short[] vertices=new short[mesh.vertexNum*3];
+      for (int j=0, pos=start;j<mesh.vertexNum;j++, pos+=8) {
+        vertices[j*3] = data.getShort(pos);
+        vertices[j*3 + 1] = data.getShort(pos + 2);
+        vertices[j*3 + 2] = data.getShort(pos + 4);
+      }
+      mesh.quantizedPositions[frame]=vertices;
+    }
+    else {
+      float[] vertices=new float[mesh.vertexNum*3];
+      for (int j=0, pos=start;j<mesh.vertexNum;j++, pos+=8) {
+        vertices[j*3] = (float)data.getShort(pos) / 64.0f;
+        vertices[j*3 + 1] = (float)data.getShort(pos + 2) / 64.0f;
+        vertices[j*3 + 2] = (float)data.getShort(pos + 4) / 64.0f;
+      }
+      mesh.framePositions[frame]=vertices;
+    }
+    
+    byte[] normals=new byte[mesh.vertexNum*2];
+    for (int j=0, pos=start;j<mesh.vertexNum;j++, pos+=8) {
+      normals[j*2] = data.get(pos + 6);
+      normals[j*2 + 1] = data.get(pos + 7);
+    }
+    mesh.frameNormals[frame]=normals;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3model;
+
+/**
+ * <p>An abstract adapter class for receiving streaming load events. The methods
+ * in this class are empty, extend it and override the methods for the events
+ * of interest.
+ *
+ * @see md3.md3model.MD3LoadListener
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+public abstract class MD3LoadAdapter implements MD3LoadListener {
+	
+	public void headerLoaded(MD3Model model) {
+	}
+	
+	public void boneFramesLoaded(MD3Model model) {
+	}
+	
+	public void tagsLoaded(MD3Model model) {
+	}
+	
+	public void meshLoaded(MD3Model model, int meshIndex) {
+	}
+	
+	public void meshFrameLoaded(MD3Model model, int meshIndex, int frame) {
+	}
+	
+	public void modelLoaded(MD3Model model) {
+	}
+}
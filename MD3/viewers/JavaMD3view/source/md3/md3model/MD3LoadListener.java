@@ -0,0 +1,73 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3model;
+
+/**
+ * <p>Listener interface for streaming MD3 model loads. The listener is notified
+ * as soon as each part of the model has been read from the stream, so that
+ * the model can allready be used (e.g. drawn) while the rest of it is still
+ * loading.
+ *
+ * <p>Parts that have not been read yet are null or not available in the model:
+ * check MD3Mesh.isFrameAvailable() before using a vertex frame. All methods are
+ * called from the thread doing the load. The vertex frames are published under
+ * the lock of their mesh, so they can be checked and used from any thread, but
+ * the listener has to hand the model and its meshes to other threads itself,
+ * using proper synchronization.
+ *
+ * @see md3.md3model.MD3ModelFactory#makeMD3Model(String, java.io.InputStream, MD3LoadListener)
+ * @see md3.md3model.MD3LoadAdapter
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+public interface MD3LoadListener {
+	
+	/**
+	 * <p>The model header has been read: the counts and offsets of the model are known.
+	 */
+	public void headerLoaded(MD3Model model);
+	
+	/**
+	 * <p>The bone frames of the model have been read, their tags are not available yet.
+	 */
+	public void boneFramesLoaded(MD3Model model);
+	
+	/**
+	 * <p>The tags of all bone frames have been read.
+	 */
+	public void tagsLoaded(MD3Model model);
+	
+	/**
+	 * <p>The mesh with given index has been read, except for its vertex frames: its
+	 * triangles, textures and texture coordinates are available.
+	 */
+	public void meshLoaded(MD3Model model, int meshIndex);
+	
+	/**
+	 * <p>A vertex frame of the mesh with given index has been read and is available.
+	 * The frames of a mesh are reported in order, starting with frame 0.
+	 */
+	public void meshFrameLoaded(MD3Model model, int meshIndex, int frame);
+	
+	/**
+	 * <p>The model has been read completely.
+	 */
+	public void modelLoaded(MD3Model model);
+}
@@ -20,6 +20,7 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 package md3.md3model;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import md3.util.*;
 
@@ -29,11 +30,24 @@ import md3.util.*;
  *
  * <p>If the containing MD3 model has bone animation frames, a version of
  * the mesh for each of those animation key frames is provided.
+ *
+ * <p>The mesh data is kept in flat arrays (triangleIndices, texCoords and one
+ * array per frame for the positions and normals). The accessors returning
+ * the older array of arrays or Vec3 forms (getMeshFrame(), getVertexNormals(),
+ * getTriangles() and getTextureCoord()) build a new copy of the data on every
+ * call. They are only meant for code that is not performance critical, like
+ * the exporters; drawing code should use the flat arrays.
  *  
  * @author Erwin Vervaet (klr8@fragland.net)
  */
-public class MD3Mesh implements java.io.Serializable {
+public class MD3Mesh implements java.io.Serializable, Cloneable {
 	
+  /**
+   * <p>Scale factor to convert the int16 vertex coordinates stored in .md3 files
+   * to model space coordinates.
+   */
+  public static final float QUANTIZATION_SCALE=1.0f / 64.0f;
+  
   public String id;
   public String name;
   
@@ -58,33 +72,90 @@ public class MD3Mesh implements java.io.Serializable {
   public MD3Texture[] textures;
   
   /**
-   * <p>Indices into meshFrames and textureCoord arrays of the triangle vertices. Size triangleNum * 3.
+   * <p>Indices into the vertex arrays of the triangle vertices, 3 consecutive
+   * indices per triangle. Size triangleNum * 3.
    */
-  public int[][] triangles;
+  public int[] triangleIndices;
 
   /**
-   * <p>U/V texture coordinates of vertices. Size vertexNum * 2.
+   * <p>U/V texture coordinates of vertices, 2 consecutive floats per vertex.
+   * Size vertexNum * 2.
    */
-  public float[][] textureCoord;
-
+  public float[] texCoords;
+  
+  /**
+   * <p>Vertex positions of each animation frame. Every frame is a flat array
+   * of size vertexNum * 3 holding the x, y and z coordinate of each vertex.
+   * When the mesh was loaded with lazy frame decoding, frames that have not been
+   * decoded yet are null. Use getFramePositions() to access the frames. This is
+   * null for quantized meshes.
+   *
+   * <p>The frame arrays are shared by this mesh and all its copies (see clone()), so
+   * a frame is decoded only once for all of them. Frames can be decoded by any thread,
+   * so once the mesh has been loaded the frame arrays are only accessed while holding
+   * the lock of the shared frame store.
+   */
+  protected float[][] framePositions;
+  
   /**
-   * <p>2d array of size meshFrameNum * vertexNum that stores mesh frame triangle vertices.
+   * <p>Quantized vertex positions of each animation frame, only used for quantized
+   * meshes. Every frame is a flat array of size vertexNum * 3 holding the x, y and z
+   * coordinate of each vertex exactly as they are stored in the .md3 file. Multiply
+   * them with QUANTIZATION_SCALE to get the actual coordinates. Frames that have not
+   * been decoded yet are null. Use getQuantizedPositions() to access the frames.
    */
-  public Vec3[][] meshFrames;
+  protected short[][] quantizedPositions;
   
   /**
-   * <p>3d array of size meshFrameNum * vertexNum * 2 with spherical coordinates giving the
-   * direction of the vertex normal. They are both unsigned byte values. The first one is
-   * the inclination, and the second the rotation in the horizontal plane. Both actually
-   * run 0..255 for full rotation.
+   * <p>Vertex normals of each animation frame. Every frame is a flat array of size
+   * vertexNum * 2 with spherical coordinates giving the direction of the vertex
+   * normal. They are both unsigned byte values. The first one is the inclination,
+   * and the second the rotation in the horizontal plane. Both actually run 0..255
+   * for full rotation. Like the positions, frames that have not been decoded yet are
+   * null. Use getFrameNormals() to access the normals.
    */
-  public int[][][] meshVertexNormals;
+  protected byte[][] frameNormals;
+  
+  /**
+   * <p>Raw, undecoded vertex frame data as found in the .md3 file (8 little endian bytes
+   * per vertex per frame). This is only set when the mesh was loaded with lazy frame
+   * decoding. Frames are copied out of memory mapped files, so a mesh never keeps a
+   * view on a mapped file.
+   */
+  transient ByteBuffer frameData;
+  
+  /**
+   * <p>State shared by this mesh and all its copies: its lock guards the frame arrays,
+   * and it counts how many of the meshes retain each frame.
+   */
+  final FrameStore frames=new FrameStore();
+  
+  //the animation frames retained by this mesh, see retainFrames()
+  private int retainFirst, retainNum;
   
   /**
    * <p>Create a mesh object with data coming from the specified input stream.
    */
   protected MD3Mesh(DataInput din) throws IOException {
-  	MD3IO.loadMesh(this, din);
+  	MD3IO.loadMesh(this, din, false);
+  } 
+  
+  /**
+   * <p>Create a mesh object with data coming from the specified input stream. When
+   * deferFrames is set and the vertex frames are the last part of the mesh, they are
+   * left in the stream: the frames are allocated but not available until a streaming
+   * loader reads them.
+   */
+  protected MD3Mesh(DataInput din, boolean deferFrames) throws IOException {
+  	MD3IO.loadMesh(this, din, deferFrames);
+  } 
+  
+  /**
+   * <p>Create a mesh object with data coming from the specified buffer, starting at
+   * its current position.
+   */
+  protected MD3Mesh(ByteBuffer buf) throws IOException {
+  	MD3IO.loadMesh(this, buf);
   } 
   
   /**
@@ -92,4 +163,233 @@ public class MD3Mesh implements java.io.Serializable {
    */
   protected MD3Mesh() {
   } 
+  
+  //make sure all frames are available before the mesh is serialized: the
+  //raw frame data itself is not serializable
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    synchronized (frames) {
+      decodeFrames(0, meshFrameNum);
+      out.defaultWriteObject();
+    }
+  }
+  
+  /**
+   * <p>Return the vertex positions of the specified animation frame of this mesh,
+   * a flat array of size vertexNum * 3. The frame is decoded first if that did not
+   * happen yet. For unquantized meshes, the returned array is the actual mesh data,
+   * don't modify it. For quantized meshes, a new array is allocated on every call.
+   */
+  public float[] getFramePositions(int frame) {
+    if (isQuantized()) {
+      //dequantize into a new array
+      short[] q=getQuantizedPositions(frame);
+      float[] res=new float[q.length];
+      for (int i=0;i<q.length;i++)
+        res[i]=q[i] * QUANTIZATION_SCALE;
+      return res;
+    }
+    
+    synchronized (frames) {
+      if (framePositions[frame]==null)
+        MD3IO.decodeVertexFrame(this, frame);
+      return framePositions[frame];
+    }
+  }
+  
+  /**
+   * <p>Return the quantized vertex positions of the specified animation frame of
+   * this quantized mesh, a flat array of size vertexNum * 3. The frame is decoded first
+   * if that did not happen yet. The returned array is the actual mesh data, don't
+   * modify it.
+   *
+   * @exception IllegalStateException When this mesh is not quantized.
+   * @see #isQuantized()
+   */
+  public short[] getQuantizedPositions(int frame) {
+    if (quantizedPositions==null)
+      throw new IllegalStateException("mesh " + name + " is not quantized");
+    synchronized (frames) {
+      if (quantizedPositions[frame]==null)
+        MD3IO.decodeVertexFrame(this, frame);
+      return quantizedPositions[frame];
+    }
+  }
+  
+  /**
+   * <p>Does this mesh keep its vertex positions in the compact quantized form
+   * of the .md3 file? If so, getFramePositions() has to dequantize the positions
+   * on every call and getQuantizedPositions() should be used instead in performance
+   * critical code.
+   */
+  public boolean isQuantized() {
+    return quantizedPositions!=null;
+  }
+  
+  /**
+   * <p>Return the vertex normals of the specified animation frame of this mesh, a
+   * flat array of size vertexNum * 2. The frame is decoded first if that did not
+   * happen yet. The returned array is the actual mesh data, don't modify it.
+   *
+   * @see #frameNormals
+   */
+  public byte[] getFrameNormals(int frame) {
+    synchronized (frames) {
+      if (frameNormals[frame]==null)
+        MD3IO.decodeVertexFrame(this, frame);
+      return frameNormals[frame];
+    }
+  }
+  
+  /**
+   * <p>Return the vertices of the specified animation frame of this mesh as an
+   * array of Vec3 objects of size vertexNum. This is a convenience method
+   * that creates a new array on every call, use getFramePositions() in
+   * performance critical code.
+   */
+  public Vec3[] getMeshFrame(int frame) {
+    float[] pos=getFramePositions(frame);
+    Vec3[] res=new Vec3[vertexNum];
+    for (int i=0;i<vertexNum;i++)
+      res[i]=new Vec3(pos[i*3], pos[i*3 + 1], pos[i*3 + 2]);
+    return res;
+  }
+  
+  /**
+   * <p>Return the vertex normals of the specified animation frame of this mesh
+   * as an array of size vertexNum * 2 holding values in 0..255. This is a
+   * convenience method that creates a new array on every call, use
+   * getFrameNormals() in performance critical code.
+   */
+  public int[][] getVertexNormals(int frame) {
+    byte[] normals=getFrameNormals(frame);
+    int[][] res=new int[vertexNum][2];
+    for (int i=0;i<vertexNum;i++) {
+      res[i][0]=normals[i*2] & 0xff;
+      res[i][1]=normals[i*2 + 1] & 0xff;
+    }
+    return res;
+  }
+  
+  /**
+   * <p>Return the triangle vertex indices of this mesh as an array of size
+   * triangleNum * 3. This is a convenience method that creates a new array on
+   * every call, use triangleIndices in performance critical code.
+   */
+  public int[][] getTriangles() {
+    int[][] res=new int[triangleNum][3];
+    for (int i=0;i<triangleNum;i++)
+      System.arraycopy(triangleIndices, i*3, res[i], 0, 3);
+    return res;
+  }
+  
+  /**
+   * <p>Return the U/V texture coordinates of the vertices of this mesh as an
+   * array of size vertexNum * 2. This is a convenience method that creates a
+   * new array on every call, use texCoords in performance critical code.
+   */
+  public float[][] getTextureCoord() {
+    int num=texCoords.length/2;
+    float[][] res=new float[num][2];
+    for (int i=0;i<num;i++)
+      System.arraycopy(texCoords, i*2, res[i], 0, 2);
+    return res;
+  }
+  
+  /**
+   * <p>Has the specified animation frame allready been decoded?
+   */
+  public boolean isFrameDecoded(int frame) {
+    synchronized (frames) {
+      return frameNormals[frame]!=null;
+    }
+  }
+  
+  /**
+   * <p>Is the specified animation frame available, i.e. allready decoded or ready to
+   * be decoded on demand? Frames of a mesh that is still being loaded by a streaming
+   * load only become available once they have been read.
+   *
+   * @see md3.md3model.MD3LoadListener
+   */
+  public boolean isFrameAvailable(int frame) {
+    synchronized (frames) {
+      return frameNormals!=null && frame<meshFrameNum && (frameNormals[frame]!=null || frameData!=null);
+    }
+  }
+  
+  /**
+   * <p>Create a copy of this mesh that shares the triangles, texture coordinates
+   * and vertex frames of this mesh, which are never modified. The textures array is
+   * copied. A frame decoded by the copy is also available to this mesh and vice versa,
+   * only the frames retained with retainFrames() are tracked per mesh. The copy starts
+   * out retaining no frames.
+   */
+  public Object clone() {
+    MD3Mesh res;
+    try {
+      res=(MD3Mesh)super.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new InternalError(e.getMessage()); //we are Cloneable
+    }
+    
+    if (textures!=null)
+      res.textures=textures.clone();
+    res.retainFirst=0;
+    res.retainNum=0;
+    return res;
+  }
+  
+  /**
+   * <p>Decode num animation frames, starting at the given frame.
+   */
+  public void decodeFrames(int first, int num) {
+    synchronized (frames) {
+      for (int i=first;i<first+num && i<meshFrameNum;i++)
+        if (frameNormals[i]==null)
+          MD3IO.decodeVertexFrame(this, i);
+    }
+  }
+  
+  /**
+   * <p>Make sure the num animation frames starting at the given frame are decoded,
+   * and throw away the decoded data of all other frames that are not retained by a
+   * copy of this mesh either. This replaces the frames previously retained by this
+   * mesh, so retainFrames(0, 0) releases them. Frames that were thrown away will be
+   * decoded again when they are accessed. This has no effect on meshes that were not
+   * loaded with lazy frame decoding, since their frames cannot be redecoded.
+   */
+  public void retainFrames(int first, int num) {
+    synchronized (frames) {
+      decodeFrames(first, num);
+      
+      if (frames.retained==null)
+        frames.retained=new int[meshFrameNum];
+      for (int i=retainFirst;i<retainFirst+retainNum && i<meshFrameNum;i++)
+        frames.retained[i]--;
+      for (int i=Math.max(first, 0);i<first+num && i<meshFrameNum;i++)
+        frames.retained[i]++;
+      retainFirst=Math.max(first, 0);
+      retainNum=first+num-retainFirst;
+      
+      if (frameData!=null)
+        for (int i=0;i<meshFrameNum;i++)
+          if (frames.retained[i]==0) {
+            if (framePositions!=null)
+              framePositions[i]=null;
+            if (quantizedPositions!=null)
+              quantizedPositions[i]=null;
+            frameNormals[i]=null;
+          }
+    }
+  }
+  
+  /**
+   * <p>The vertex frame state shared by a mesh and its copies.
+   */
+  static final class FrameStore implements java.io.Serializable {
+    private static final long serialVersionUID=1L;
+    
+    //number of meshes retaining each frame, null until frames are retained
+    int[] retained;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3model;
+
+/**
+ * <p>A complete OpenGL mip-map chain for the data of a texture, built in Java so it
+ * can be prepared by the thread loading the texture, instead of by gluBuild2DMipmaps()
+ * on the rendering thread.
+ *
+ * <p>Like gluBuild2DMipmaps(), the texture data is first scaled to the nearest power
+ * of two sizes not larger than the maximum size. Every next level is half the size of
+ * the previous one and is built from it with a 2x2 box filter, until a 1x1 level is
+ * reached. Large levels are filtered in parallel, in bands of rows.
+ *
+ * @see md3.md3model.MD3Texture#getMipMaps()
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+public class MD3MipMaps {
+	
+	private static volatile int maximumSize=1024;
+	
+	/**
+	 * <p>Width and height of the first (biggest) level.
+	 */
+	public int width, height;
+	
+	/**
+	 * <p>RGBA data of all levels, from width x height down to 1x1.
+	 */
+	public byte[][] levels;
+	
+	/**
+	 * <p>Set the maximum width and height of the first level of the mip-maps that
+	 * will be built, e.g. the GL_MAX_TEXTURE_SIZE of the OpenGL implementation used.
+	 * This should be a power of two. Allready built mip-maps are not affected.
+	 */
+	public static void setMaximumSize(int size) {
+		maximumSize=size;
+	}
+	
+	/**
+	 * <p>Return the maximum width and height of the first level of built mip-maps.
+	 */
+	public static int getMaximumSize() {
+		return maximumSize;
+	}
+	
+	/**
+	 * <p>Return the width of the given level.
+	 */
+	public int getLevelWidth(int level) {
+		return Math.max(1, width >> level);
+	}
+	
+	/**
+	 * <p>Return the height of the given level.
+	 */
+	public int getLevelHeight(int level) {
+		return Math.max(1, height >> level);
+	}
+	
+	/**
+	 * <p>Return the number of bytes used by all levels.
+	 */
+	public int getByteSize() {
+		int res=0;
+		for (int i=0;i<levels.length;i++)
+			res+=levels[i].length;
+		return res;
+	}
+	
+	/**
+	 * <p>Build the mip-map chain for the given RGBA data. If the data allready has power
+	 * of two sizes, the given array is used as the first level, otherwise it is scaled.
+	 *
+	 * @param rgba RGBA texture data.
+	 * @param width Width of the texture data.
+	 * @param height Height of the texture data.
+	 */
+	public static MD3MipMaps build(byte[] rgba, int width, int height) {
+		MD3MipMaps res=new MD3MipMaps();
+		int max=maximumSize;
+		res.width=Math.min(ImageScaler.nearestPowerOfTwo(width), max);
+		res.height=Math.min(ImageScaler.nearestPowerOfTwo(height), max);
+		
+		int levelNum=1;
+		while ((res.width >> levelNum) > 0 || (res.height >> levelNum) > 0)
+			levelNum++;
+		res.levels=new byte[levelNum][];
+		
+		if (res.width==width && res.height==height)
+			res.levels[0]=rgba;
+		else
+			res.levels[0]=ImageScaler.scale(rgba, width, height, res.width, res.height);
+		
+		for (int i=1;i<levelNum;i++)
+			res.levels[i]=halve(res.levels[i-1], res.getLevelWidth(i-1), res.getLevelHeight(i-1));
+		
+		return res;
+	}
+	
+	//build the next level from the given level by averaging 2x2 texels, a dimension of 1
+	//texel stays 1 texel
+	private static byte[] halve(final byte[] src, final int srcWidth, final int srcHeight) {
+		final int width=Math.max(1, srcWidth >> 1);
+		final int height=Math.max(1, srcHeight >> 1);
+		final byte[] dst=new byte[width * height * 4];
+		
+		ImageScaler.processRows(new ImageScaler.RowOperation() {
+			void processRows(int lo, int hi) {
+				int nextTexel=srcWidth > 1 ? 4 : 0;
+				int nextRow=srcHeight > 1 ? srcWidth * 4 : 0;
+				for (int y=lo;y<hi;y++) {
+					int srcPtr=(srcHeight > 1 ? y * 2 : y) * srcWidth * 4;
+					int dstPtr=y * width * 4;
+					for (int x=0;x<width;x++) {
+						for (int c=0;c<4;c++, srcPtr++)
+							dst[dstPtr++]=(byte)(((src[srcPtr] & 0xFF) + (src[srcPtr+nextTexel] & 0xFF) +
+							                      (src[srcPtr+nextRow] & 0xFF) + (src[srcPtr+nextRow+nextTexel] & 0xFF) + 2) >> 2);
+						srcPtr+=nextTexel;
+					}
+				}
+			}
+		}, height, width * height);
+		
+		return dst;
+	}
+}
@@ -20,6 +20,7 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 package md3.md3model;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -39,7 +40,7 @@ import java.util.*;
  *
  * @author Erwin Vervaet (klr8@fragland.net)
  */
-public class MD3Model implements Serializable {
+public class MD3Model implements Serializable, Cloneable {
 
 	public String id;
   public int version;
@@ -105,13 +106,25 @@ public class MD3Model implements Serializable {
 
   /**
    * <p>Constructor for use in subclasses that reads an MD3 model from a file.
+   * The file is memory mapped and decoded directly from the mapped data if the
+   * current factory asks for that, otherwise it is read as a stream.
+   *
+   * @see md3.md3model.MD3ModelFactory#setMemoryMappedLoading(boolean)
    */
   protected MD3Model(String filename) throws IOException {
   	filename=filename.trim();
-  	FileInputStream fin=new FileInputStream(filename);
-    MD3IO.loadModel(this, fin);
+  	MD3ModelFactory factory=MD3ModelFactory.getFactory();
+  	if (factory!=null && factory.isMemoryMappedLoading())
+      MD3IO.loadModel(this, MD3IO.mapFile(filename));
+    else {
+    	FileInputStream fin=new FileInputStream(filename);
+    	try {
+        MD3IO.loadModel(this, fin);
+    	} finally {
+    		fin.close();
+    	}
+    }
     this.loadFilename=filename;
-    fin.close();
   }
   
   /**
@@ -123,6 +136,27 @@ public class MD3Model implements Serializable {
   	this.loadFilename=loadFilename.trim();
   }
   
+  /**
+   * <p>Constructor for use in subclasses that reads an MD3 model from the specified
+   * input stream, notifying the given listener as soon as each part of the model has
+   * been read. The given loadFilename is stored in the corresponding data member
+   * before loading starts.
+   */
+  protected MD3Model(String loadFilename, InputStream in, MD3LoadListener listener) throws IOException {
+  	this.loadFilename=loadFilename.trim();
+  	MD3IO.loadModel(this, in, listener);
+  }
+  
+  /**
+   * <p>Constructor for use in subclasses that reads an MD3 model from the specified
+   * buffer, starting at its current position. The given loadFilename is stored in the
+   * corresponding data member.
+   */
+  protected MD3Model(String loadFilename, ByteBuffer data) throws IOException {
+  	MD3IO.loadModel(this, data);
+  	this.loadFilename=loadFilename.trim();
+  }
+  
   /**
    * <p>Constructor for use in subclasses that creates a new, uninitialized MD3Model object.
    */
@@ -205,6 +239,69 @@ public class MD3Model implements Serializable {
     v.visit(this);
   }
   
+  /**
+   * <p>Make sure the num animation frames starting at the given frame are decoded in
+   * all meshes of this model and release the decoded data of all other frames. Use
+   * this to limit the memory used by models loaded with lazy frame decoding to the
+   * frames of the animation that is actually played. Linked models are not affected.
+   *
+   * @see md3.md3model.MD3Mesh#retainFrames(int, int)
+   */
+  public void retainFrames(int first, int num) {
+    for (int i=0;i<meshNum;i++)
+      meshes[i].retainFrames(first, num);
+  }
+  
+  /**
+   * <p>Create a copy of this model that shares all geometry data with this model.
+   * The meshes are copied as well, so that the textures of the copy can be changed
+   * independently, but their triangles, texture coordinates and vertex frames are
+   * shared. The copy has no parent and no linked models.
+   *
+   * @see md3.md3model.MD3Mesh#clone()
+   */
+  public Object clone() {
+  	MD3Model res;
+  	try {
+  		res=(MD3Model)super.clone();
+  	} catch (CloneNotSupportedException e) {
+  		throw new InternalError(e.getMessage()); //we are Cloneable
+  	}
+  	
+  	res.linkedModels=new TreeMap<Integer, MD3Model>();
+  	res.parentTagIndex=-1;
+  	res.parent=null;
+  	if (meshes!=null) {
+  		res.meshes=new MD3Mesh[meshes.length];
+  		for (int i=0;i<meshes.length;i++)
+  			res.meshes[i]=(MD3Mesh)meshes[i].clone();
+  	}
+  	return res;
+  }
+  
+  /**
+   * <p>Create a new instance of the model structure rooted at this model: a copy
+   * of this model with copies of all models linked to it, linked at the same tags.
+   * All instances share the geometry of the original models, so any number of them
+   * can be created for the cost of a copy of the model and mesh objects each. Every
+   * instance has its own animation state, linked models and textures (skin), so it can
+   * be animated, assembled and skinned independently. The new instance has no parent.
+   *
+   * <p>All instances share the decoded vertex frames, so a frame is decoded only once.
+   * Every instance retains its own frames with retainFrames(): a frame is only released
+   * when none of the instances retains it.
+   *
+   * @see #clone()
+   */
+  public MD3Model newInstance() {
+  	MD3Model res=(MD3Model)clone();
+  	for (Object o : linkedModels.entrySet()) {
+  		Map.Entry<?, ?> e=(Map.Entry<?, ?>)o;
+  		res.addLinkedModel(((Integer)e.getKey()).intValue(), ((MD3Model)e.getValue()).newInstance());
+  	}
+  	return res;
+  }
+  
   /**
    * <p>Return wether or not this model contains animation data.
    */
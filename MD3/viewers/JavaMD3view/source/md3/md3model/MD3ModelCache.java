@@ -0,0 +1,275 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3model;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * <p>A persistent cache of decoded models. Models are stored in a versioned binary
+ * format that is read with a single bulk read. The model is rebuilt with bulk copies
+ * of its headers, triangles and texture coordinates, and the vertex frames are used
+ * straight from the data read, so reopening a model costs hardly more than reading
+ * the file. Cache files are not memory mapped, so they can be replaced or deleted
+ * while models read from them are still in use. A cached model includes all models
+ * linked to it and the names of its textures, the texture data itself is not cached.
+ *
+ * <p>Cache entries are keyed by the path of the source of the model and are only
+ * used if the size, modification time and CRC of that source are still the same as
+ * when the entry was stored. Files are identified by their size and modification
+ * time only, the CRC is meant for sources that have one at hand, like the entries
+ * of a pak file. Outdated entries are simply overwritten.
+ *
+ * <p>The total size of the cache files is limited: when it grows beyond the
+ * maximum size, the least recently used entries are deleted.
+ *
+ * <p>Cached models are created with the current factory.
+ *
+ * @see md3.md3model.MD3ModelFactory
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+public class MD3ModelCache {
+	
+	/**
+	 * <p>Extension of cache files.
+	 */
+	public static final String CACHE_FILE_EXTENSION=".md3c";
+	
+	/**
+	 * <p>Default maximum size, in bytes, of all cache files together.
+	 */
+	public static final long DEFAULT_MAX_SIZE=64L * 1024 * 1024;
+	
+	private File directory;
+	private volatile long maxSize;
+	
+	/**
+	 * <p>Create a cache that stores its files in the given directory, using at most
+	 * DEFAULT_MAX_SIZE bytes. The directory will be created when the first model is
+	 * stored.
+	 */
+	public MD3ModelCache(String directory) {
+		this(directory, DEFAULT_MAX_SIZE);
+	}
+	
+	/**
+	 * <p>Create a cache that stores at most maxSize bytes of cache files in the given
+	 * directory. The directory will be created when the first model is stored.
+	 */
+	public MD3ModelCache(String directory, long maxSize) {
+		this.directory=new File(directory);
+		this.maxSize=maxSize;
+	}
+	
+	/**
+	 * <p>Set the maximum size, in bytes, of all cache files together. The limit is
+	 * enforced when the next model is stored.
+	 */
+	public void setMaxSize(long maxSize) {
+		this.maxSize=maxSize;
+	}
+	
+	public long getMaxSize() {
+		return maxSize;
+	}
+	
+	/**
+	 * <p>Return the cached model for the given .md3 file, or null if there is no
+	 * valid cache entry for the current size and modification time of the file.
+	 */
+	public MD3Model get(String filename) throws IOException {
+		File f=new File(filename);
+		return get(f.getAbsolutePath(), f.length(), f.lastModified(), 0);
+	}
+	
+	/**
+	 * <p>Return the cached model for the source with the given path, or null if there
+	 * is no cache entry for that source with the specified size, modification time
+	 * and CRC.
+	 */
+	public MD3Model get(String sourcePath, long size, long time, long crc) throws IOException {
+		File f=getCacheFile(sourcePath);
+		if (!f.isFile())
+			return null;
+		
+		ByteBuffer data=readFile(f);
+		if (!MD3CacheIO.matches(data, sourcePath, size, time, crc))
+			return null;
+		f.setLastModified(System.currentTimeMillis()); //mark as recently used
+		return MD3ModelFactory.getFactory().makeCachedMD3Model(data);
+	}
+	
+	/**
+	 * <p>Store the given model, and all models linked to it, as the cache entry for
+	 * the given .md3 file.
+	 */
+	public void put(MD3Model model, String filename) throws IOException {
+		File f=new File(filename);
+		put(model, f.getAbsolutePath(), f.length(), f.lastModified(), 0);
+	}
+	
+	/**
+	 * <p>Store the given model, and all models linked to it, as the cache entry for
+	 * the source with the given path, size, modification time and CRC.
+	 */
+	public void put(MD3Model model, String sourcePath, long size, long time, long crc) throws IOException {
+		directory.mkdirs();
+		File f=getCacheFile(sourcePath);
+		//write to a temporary file first so readers never see a partial entry
+		File tmp=new File(f.getPath() + ".tmp");
+		OutputStream out=new BufferedOutputStream(new FileOutputStream(tmp));
+		try {
+			MD3CacheIO.writeModel(model, out, sourcePath, size, time, crc);
+		}
+		finally {
+			out.close();
+		}
+		try {
+			try {
+				Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			throw new IOException("could not create cache file " + f.getPath() + ": " + e);
+		}
+		
+		trim(f);
+	}
+	
+	//delete the least recently used cache files, except the given one, until the
+	//cache fits in its maximum size
+	private synchronized void trim(File keep) throws IOException {
+		File[] files=directory.listFiles();
+		if (files==null)
+			return;
+		
+		long size=0;
+		for (int i=0;i<files.length;i++)
+			size+=files[i].length();
+		if (size<=maxSize)
+			return;
+		
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File f1, File f2) {
+				long t1=f1.lastModified(), t2=f2.lastModified();
+				return t1<t2 ? -1 : (t1==t2 ? 0 : 1);
+			}
+		});
+		int failed=0;
+		for (int i=0;i<files.length && size>maxSize;i++)
+			if (files[i].getName().endsWith(CACHE_FILE_EXTENSION) && !files[i].equals(keep)) {
+				long len=files[i].length();
+				if (files[i].delete())
+					size-=len;
+				else
+					failed++;
+			}
+		if (size>maxSize)
+			throw new IOException("could not trim model cache to " + maxSize + " bytes" +
+			                      (failed>0 ? ", " + failed + " files could not be deleted" : ""));
+	}
+	
+	/**
+	 * <p>Remove the cache entry of the source with the given path, if any.
+	 *
+	 * @return False if the entry exists but could not be removed.
+	 */
+	public boolean remove(String sourcePath) {
+		File f=getCacheFile(sourcePath);
+		return f.delete() || !f.exists();
+	}
+	
+	/**
+	 * <p>Return the cache file used for the source with the given path. Different
+	 * paths can map to the same file, the path stored in the file decides.
+	 */
+	protected File getCacheFile(String sourcePath) {
+		CRC32 crc=new CRC32();
+		byte[] b=sourcePath.getBytes();
+		crc.update(b, 0, b.length);
+		return new File(directory, Long.toHexString(crc.getValue()) + "_" + Integer.toHexString(sourcePath.hashCode()) + CACHE_FILE_EXTENSION);
+	}
+	
+	/**
+	 * <p>Write the given model, and all models linked to it, to the specified cache
+	 * file. The file is not associated with a source, use readCacheFile() to read it.
+	 */
+	public static void writeCacheFile(MD3Model model, String filename) throws IOException {
+		OutputStream out=new BufferedOutputStream(new FileOutputStream(filename));
+		try {
+			MD3CacheIO.writeModel(model, out, "", 0, 0, 0);
+		}
+		finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * <p>Read the model structure stored in the specified cache file, without checking
+	 * its source.
+	 */
+	public static MD3Model readCacheFile(String filename) throws IOException {
+		return MD3ModelFactory.getFactory().makeCachedMD3Model(readFile(new File(filename)));
+	}
+	
+	//read the complete given file into a heap buffer
+	private static ByteBuffer readFile(File f) throws IOException {
+		FileInputStream fin=new FileInputStream(f);
+		try {
+			FileChannel fc=fin.getChannel();
+			if (fc.size() > Integer.MAX_VALUE)
+				throw new IOException("corrupt model cache file");
+			ByteBuffer res=ByteBuffer.allocate((int)fc.size());
+			while (res.hasRemaining())
+				if (fc.read(res)<0)
+					throw new EOFException("truncated model cache file " + f.getPath());
+			res.flip();
+			return res;
+		}
+		finally {
+			fin.close();
+		}
+	}
+	
+	/**
+	 * <p>Compute the CRC32 checksum of the contents of the specified file.
+	 */
+	public static long computeCRC(String filename) throws IOException {
+		FileInputStream fin=new FileInputStream(filename);
+		try {
+			CRC32 crc=new CRC32();
+			byte[] buf=new byte[8192];
+			int len;
+			while ((len=fin.read(buf))!=-1)
+				crc.update(buf, 0, len);
+			return crc.getValue();
+		}
+		finally {
+			fin.close();
+		}
+	}
+}
@@ -20,6 +20,7 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 package md3.md3model;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * <p>This is a factory class that follows the Abstract Factory pattern. The
@@ -35,11 +36,23 @@ import java.io.*;
  * <p>The factory methods that return empty objects can be used when creating your
  * own models.
  *
+ * <p>The factory used can be set globally, or for a single thread only (which
+ * takes precedence). The default factory methods can safely be called from
+ * several threads at the same time; subclasses used for concurrent loading
+ * (see MD3ModelLoader) should be thread safe as well.
+ *
  * @author Erwin Vervaet (klr8@fragland.net)
  */
 public class MD3ModelFactory {
 	
-	private static MD3ModelFactory currentFactory=null;
+	private static volatile MD3ModelFactory currentFactory=null;
+	private static ThreadLocal<MD3ModelFactory> threadFactory=new ThreadLocal<MD3ModelFactory>();
+	
+	private volatile boolean lazyFrameDecoding=false;
+	private volatile boolean quantizedFrames=false;
+	private volatile boolean parallelDecoding=true;
+	private volatile boolean mipMapPrebuilding=false;
+	private volatile boolean memoryMappedLoading=false;
 	
 	/**
 	 * <p>Set the factory that will be used during the MD3Model object creation
@@ -53,15 +66,127 @@ public class MD3ModelFactory {
 	 * <p>Return the currently used factory, null if none.
 	 */
 	public static MD3ModelFactory getFactory() {
-		return currentFactory;
+		MD3ModelFactory factory=threadFactory.get();
+		return factory!=null ? factory : currentFactory;
+	}
+	
+	/**
+	 * <p>Set the factory that will be used during the MD3Model object creation
+	 * process in the calling thread only, overriding the global factory. Pass null
+	 * to use the global factory again.
+	 *
+	 * @return The factory previously set for the calling thread, null if none.
+	 */
+	public static MD3ModelFactory setThreadFactory(MD3ModelFactory factory) {
+		MD3ModelFactory previous=threadFactory.get();
+		if (factory==null)
+			threadFactory.remove();
+		else
+			threadFactory.set(factory);
+		return previous;
+	}
+	
+	/**
+	 * <p>Should models created by this factory decode the vertex data of their
+	 * animation frames on demand, when a frame is first accessed? When this is
+	 * off (the default), all frames are decoded while the model is loaded.
+	 *
+	 * @see md3.md3model.MD3Mesh#getMeshFrame(int)
+	 * @see md3.md3model.MD3Model#retainFrames(int, int)
+	 */
+	public void setLazyFrameDecoding(boolean b) {
+		this.lazyFrameDecoding=b;
+	}
+	
+	/**
+	 * <p>Do models created by this factory decode their animation frames on demand?
+	 */
+	public boolean isLazyFrameDecoding() {
+		return lazyFrameDecoding;
+	}
+	
+	/**
+	 * <p>Should meshes of models created by this factory keep their vertex positions
+	 * quantized, as the int16 values found in the .md3 file? This reduces the memory
+	 * needed for the animation frames of a model to the size they have on disk, at the
+	 * cost of dequantizing the positions when they are used. When this is off (the
+	 * default), positions are converted to floats while the model is loaded.
+	 *
+	 * @see md3.md3model.MD3Mesh#getQuantizedPositions(int)
+	 */
+	public void setQuantizedFrames(boolean b) {
+		this.quantizedFrames=b;
+	}
+	
+	/**
+	 * <p>Do meshes of models created by this factory keep their positions quantized?
+	 */
+	public boolean isQuantizedFrames() {
+		return quantizedFrames;
+	}
+	
+	/**
+	 * <p>Should the meshes of a model loaded from a buffer or memory mapped file be
+	 * decoded concurrently (the default)? When this is on, the mesh, bone frame, tag and
+	 * texture factory methods can be called from several threads at the same
+	 * time while a single model is loaded, so subclasses overriding them should
+	 * be thread safe.
+	 */
+	public void setParallelDecoding(boolean b) {
+		this.parallelDecoding=b;
+	}
+	
+	/**
+	 * <p>Are the meshes of models loaded from a buffer decoded concurrently?
+	 */
+	public boolean isParallelDecoding() {
+		return parallelDecoding;
+	}
+	
+	/**
+	 * <p>Should models loaded from a file by makeMD3Model(String) be read from a memory
+	 * mapping of the file and decoded straight from the mapped data? This avoids the
+	 * stream decoding overhead, which helps when processing many models in a batch.
+	 * When this is off (the default), the file is read as a stream.
+	 */
+	public void setMemoryMappedLoading(boolean b) {
+		this.memoryMappedLoading=b;
+	}
+	
+	/**
+	 * <p>Are models loaded from a file read from a memory mapping of the file?
+	 */
+	public boolean isMemoryMappedLoading() {
+		return memoryMappedLoading;
+	}
+	
+	/**
+	 * <p>Should the mip-maps of textures be built while they are loaded? This moves
+	 * the work of building them to the thread loading a model or skin, so a renderer
+	 * using mip-mapping only has to upload the prepared levels. When this is off (the
+	 * default), mip-maps are built when they are first asked for.
+	 *
+	 * @see md3.md3model.MD3Texture#getMipMaps()
+	 */
+	public void setMipMapPrebuilding(boolean b) {
+		this.mipMapPrebuilding=b;
+	}
+	
+	/**
+	 * <p>Are the mip-maps of textures built while they are loaded?
+	 */
+	public boolean isMipMapPrebuilding() {
+		return mipMapPrebuilding;
 	}
 	
   /**
    * <p>Factory method that loads an MD3 model from a file and sets up an
-   * MD3Model object with the read information.
+   * MD3Model object with the read information. The file is read as a stream,
+   * or memory mapped when memory mapped loading is switched on.
    *
    * @param filename Name of file to load.
    * @return An MD3Model object containing the read information.
+   * @see #setMemoryMappedLoading(boolean)
    */
 	public MD3Model makeMD3Model(String filename) throws IOException {
 		return new MD3Model(filename);		
@@ -80,6 +205,82 @@ public class MD3ModelFactory {
 		return new MD3Model(name, in);
 	}
 	
+  /**
+   * <p>Factory method that loads an MD3 model from the specified input stream,
+   * notifying the given listener as soon as each part of the model (header, bone
+   * frames, tags, every mesh and every vertex frame of a mesh) has been read. This
+   * allows parts of a big model to be used while the rest is still loading, e.g.
+   * when it is read from a compressed pak file. The listener is called from the
+   * thread doing the load. Lazy frame decoding does not apply to streaming loads.
+   *
+   * <p>The meshes are created with makeMD3Mesh(DataInput, boolean), leaving their
+   * vertex frames in the stream. Subclasses that create their own mesh objects should
+   * override that method as well.
+   *
+   * @param name Name of the model.
+   * @param in Stream to read data from.
+   * @param listener Listener to notify of the load progress.
+   * @return An MD3Model object containing the read information.
+   */
+	public MD3Model makeMD3Model(String name, InputStream in, MD3LoadListener listener) throws IOException {
+		return new MD3Model(name, in, listener);
+	}
+	
+  /**
+   * <p>Factory method that loads an MD3 model from the specified buffer, starting
+   * at its current position, and sets up an MD3Model object with the read information.
+   * The given name will be stored as the model's loadFilename.
+   *
+   * <p>This avoids the stream decoding overhead and is the preferred way to load
+   * models from memory mapped files or data that has allready been read into memory.
+   *
+   * @param name Name of the model.
+   * @param data Buffer containing the .md3 file data.
+   * @return An MD3Model object containing the read information.
+   */
+	public MD3Model makeMD3Model(String name, ByteBuffer data) throws IOException {
+		return new MD3Model(name, data);
+	}
+	
+  /**
+   * <p>Factory method that rebuilds a model structure, a model and all models linked
+   * to it, from data in the model cache format, starting at the current position of
+   * the given buffer. The objects of the structure are created with the other factory
+   * methods of this factory.
+   *
+   * @param data Buffer containing the cache file data.
+   * @return The root model of the structure.
+   * @see md3.md3model.MD3ModelCache
+   */
+	public MD3Model makeCachedMD3Model(ByteBuffer data) throws IOException {
+		return MD3CacheIO.loadModel(data);
+	}
+	
+  /**
+   * <p>Factory method that reads only the model and mesh headers of the specified
+   * .md3 file and returns summary information about the model, without decoding its
+   * geometry.
+   *
+   * @param filename Name of the .md3 file to probe.
+   * @return An MD3ModelInfo object containing the read information.
+   */
+	public MD3ModelInfo probeMD3Model(String filename) throws IOException {
+		return new MD3ModelInfo(filename);
+	}
+	
+  /**
+   * <p>Factory method that reads only the model and mesh headers of the .md3 data
+   * in the specified buffer, starting at its current position, and returns summary
+   * information about the model. The position of the buffer is not changed.
+   *
+   * @param name Name of the model.
+   * @param data Buffer containing the .md3 file data.
+   * @return An MD3ModelInfo object containing the read information.
+   */
+	public MD3ModelInfo probeMD3Model(String name, ByteBuffer data) throws IOException {
+		return new MD3ModelInfo(name, data);
+	}
+	
 	/**
 	 * <p>Create a new, uninitialized MD3Model object.
 	 */
@@ -96,6 +297,15 @@ public class MD3ModelFactory {
 		return new MD3BoneFrame(tagNum, din);
 	}
 	
+	/**
+	 * <p>Read a bone frame object with the specified amount of tag positions from
+	 * the current position of the given little endian buffer. Note that the tag
+	 * information itself will NOT be initialized. This has to be done separately!
+	 */
+	public MD3BoneFrame makeMD3BoneFrame(int tagNum, ByteBuffer buf) throws IOException {
+		return new MD3BoneFrame(tagNum, buf);
+	}
+	
 	/**
 	 * <p>Create an empty bone frame with the specified amount of tag positions.
 	 */
@@ -110,6 +320,13 @@ public class MD3ModelFactory {
 		return new MD3Tag(din);
 	}
 	
+	/**
+	 * <p>Read a MD3Tag object from the current position of the given little endian buffer.
+	 */
+	public MD3Tag makeMD3Tag(ByteBuffer buf) throws IOException {
+		return new MD3Tag(buf);
+	}
+	
 	/**
 	 * <p>Create a new, uninitialized MD3Tag object.
 	 */
@@ -125,6 +342,25 @@ public class MD3ModelFactory {
 		return new MD3Mesh(din);
 	}
 	
+	/**
+	 * <p>Create a new MD3Mesh object and initialize it with data read from
+	 * the specified input stream, leaving the vertex frames in the stream if
+	 * deferFrames is set. This is used by streaming loads.
+	 *
+	 * @see #makeMD3Model(String, InputStream, MD3LoadListener)
+	 */
+	public MD3Mesh makeMD3Mesh(DataInput din, boolean deferFrames) throws IOException {
+		return new MD3Mesh(din, deferFrames);
+	}
+	
+	/**
+	 * <p>Create a new MD3Mesh object and initialize it with data read from
+	 * the specified buffer, starting at its current position.
+	 */
+	public MD3Mesh makeMD3Mesh(ByteBuffer buf) throws IOException {
+		return new MD3Mesh(buf);
+	}
+	
 	/**
 	 * <p>Creates an empty, uninitialized MD3Mesh object.
 	 */
@@ -162,6 +398,17 @@ public class MD3ModelFactory {
 		return new MD3Texture();
 	}
 	
+	/**
+	 * <p>Open the encoded data of the texture that was loaded from the given file,
+	 * to reload texture data that was released.
+	 *
+	 * @param loadFilename The loadFilename of the texture.
+	 * @see md3.md3model.MD3Texture#getData()
+	 */
+	public InputStream openTextureData(String loadFilename) throws IOException {
+		return new FileInputStream(loadFilename);
+	}
+	
 	/**
 	 * <p>Factory method that creates a new MD3Animation object and initialize it with
 	 * the data in the specified string. Note that the name and type of the animation
@@ -0,0 +1,119 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3model;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Summary information about an MD3 model, obtained by only reading the
+ * headers of the model and its meshes. No geometry is decoded, so probing a
+ * model is a lot cheaper than loading it. Use this when only statistics about
+ * a model are needed.
+ *
+ * @see md3.md3model.MD3ModelFactory#probeMD3Model(String)
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+public class MD3ModelInfo implements Serializable {
+	
+  private static final long serialVersionUID=1L;
+  
+  public String filename; // filename as stored in the model header
+  public String loadFilename; // name of the file or data the info was read from
+  public int boneFrameNum; // number of animation frames
+  public int tagNum; // number of tags per frame
+  public int meshNum; // number of meshes
+  public int fileSize;
+  
+  /**
+   * <p>Total number of vertices in all meshes of the model.
+   */
+  public int vertexNum;
+  
+  /**
+   * <p>Total number of triangles in all meshes of the model.
+   */
+  public int triangleNum;
+  
+  /**
+   * <p>Names of the tags of the model, as found in the first frame. Size tagNum.
+   */
+  public String[] tagNames;
+  
+  /**
+   * <p>Names of the meshes of the model. Size meshNum.
+   */
+  public String[] meshNames;
+  
+  /**
+   * <p>Number of vertices of each mesh. Size meshNum.
+   */
+  public int[] meshVertexNums;
+  
+  /**
+   * <p>Number of triangles of each mesh. Size meshNum.
+   */
+  public int[] meshTriangleNums;
+  
+  /**
+   * <p>Names of the shaders (textures) used by each mesh. Size meshNum * textureNum of
+   * the mesh.
+   */
+  public String[][] meshShaderNames;
+  
+  /**
+   * <p>Constructor for use in subclasses that probes the specified .md3 file.
+   * Only the pages of the file containing header data are actually read.
+   */
+  protected MD3ModelInfo(String filename) throws IOException {
+  	filename=filename.trim();
+  	MD3IO.probeModel(this, MD3IO.mapFile(filename));
+  	this.loadFilename=filename;
+  }
+  
+  /**
+   * <p>Constructor for use in subclasses that probes the .md3 data in the specified
+   * buffer, starting at its current position. The position of the buffer is not
+   * changed. The given loadFilename is stored in the corresponding data member.
+   */
+  protected MD3ModelInfo(String loadFilename, ByteBuffer data) throws IOException {
+  	MD3IO.probeModel(this, data);
+  	this.loadFilename=loadFilename.trim();
+  }
+  
+  /**
+   * <p>Return the names of all shaders used by the meshes of the model, without
+   * duplicates, in the order they are first used.
+   */
+  public String[] getShaderNames() {
+    java.util.List<String> res=new java.util.ArrayList<String>();
+    for (int i=0;i<meshNum;i++)
+      for (int j=0;j<meshShaderNames[i].length;j++)
+        if (!res.contains(meshShaderNames[i][j]))
+          res.add(meshShaderNames[i][j]);
+    return res.toArray(new String[res.size()]);
+  }
+  
+  public String toString() {
+    return loadFilename + ": " + boneFrameNum + " frames, " + tagNum + " tags, " + meshNum + " meshes, " +
+      vertexNum + " vertices, " + triangleNum + " triangles";
+  }
+}
@@ -0,0 +1,146 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3model;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.*;
+
+/**
+ * <p>A loading service that loads MD3 models concurrently. Any number of load
+ * requests can be submitted at once, they will be executed by an executor
+ * and their results are delivered through CompletableFuture objects.
+ *
+ * <p>A loader always uses the factory it was created with, regardless of the
+ * global factory that is set while the loads are running. That factory should
+ * be thread safe.
+ *
+ * @see md3.md3model.MD3ModelFactory
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+public class MD3ModelLoader {
+	
+	private MD3ModelFactory factory;
+	private Executor executor;
+	private ExecutorService ownExecutor; //executor created by this loader, if any
+	
+	/**
+	 * <p>Create a new loader that uses the current factory and a bounded pool with
+	 * one thread for every available processor.
+	 */
+	public MD3ModelLoader() {
+		this(MD3ModelFactory.getFactory(), Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * <p>Create a new loader that uses the given factory and a bounded pool with the
+	 * specified number of threads. The threads of the pool are daemon threads.
+	 */
+	public MD3ModelLoader(MD3ModelFactory factory, int threadNum) {
+		this.factory=factory;
+		this.ownExecutor=Executors.newFixedThreadPool(threadNum, new ThreadFactory() {
+			private int count=0;
+			
+			public synchronized Thread newThread(Runnable r) {
+				Thread t=new Thread(r, "MD3ModelLoader-" + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.executor=ownExecutor;
+	}
+	
+	/**
+	 * <p>Create a new loader that uses the given factory and runs the loads on the
+	 * given executor, e.g. an executor creating a virtual thread per task. The executor
+	 * is not shut down by this loader.
+	 */
+	public MD3ModelLoader(MD3ModelFactory factory, Executor executor) {
+		this.factory=factory;
+		this.executor=executor;
+	}
+	
+	/**
+	 * <p>Load the specified .md3 file. The returned future completes with the
+	 * loaded model, or exceptionally with the IOException that caused the load to
+	 * fail.
+	 */
+	public CompletableFuture<MD3Model> load(final String filename) {
+		return submit(new Callable<MD3Model>() {
+			public MD3Model call() throws IOException {
+				return factory.makeMD3Model(filename);
+			}
+		});
+	}
+	
+	/**
+	 * <p>Load a model from the data in the given buffer, starting at its current
+	 * position. The buffer is not modified, so the same buffer can be used for
+	 * several loads at once.
+	 *
+	 * @see #load(String)
+	 */
+	public CompletableFuture<MD3Model> load(final String name, ByteBuffer data) {
+		final ByteBuffer buf=data.duplicate();
+		return submit(new Callable<MD3Model>() {
+			public MD3Model call() throws IOException {
+				return factory.makeMD3Model(name, buf);
+			}
+		});
+	}
+	
+	/**
+	 * <p>Shut down the thread pool created by this loader. Loads that have allready
+	 * been submitted still complete. This has no effect if the loader was
+	 * created with an executor of its own.
+	 */
+	public void shutdown() {
+		if (ownExecutor!=null)
+			ownExecutor.shutdown();
+	}
+	
+	//run given load with our factory as the factory of the executing thread
+	private CompletableFuture<MD3Model> submit(final Callable<MD3Model> load) {
+		final CompletableFuture<MD3Model> res=new CompletableFuture<MD3Model>();
+		
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					MD3ModelFactory previous=MD3ModelFactory.setThreadFactory(factory);
+					try {
+						res.complete(load.call());
+					}
+					catch (Throwable e) {
+						res.completeExceptionally(e);
+					}
+					finally {
+						MD3ModelFactory.setThreadFactory(previous);
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			res.completeExceptionally(e);
+		}
+		
+		return res;
+	}
+}
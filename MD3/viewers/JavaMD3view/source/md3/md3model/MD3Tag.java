@@ -20,6 +20,7 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 package md3.md3model;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import md3.util.*;
 
@@ -56,6 +57,14 @@ public class MD3Tag implements java.io.Serializable {
   	MD3IO.loadTag(this, din);
   }
   
+  /**
+   * <p>Constructor that creates a new tag object and initializes
+   * it with the data at the current position of the little endian buffer.
+   */
+  protected MD3Tag(ByteBuffer buf) {
+  	MD3IO.loadTag(this, buf);
+  }
+  
   /**
    * <p>Constructor that creates a new empty tag object.
    */
@@ -20,7 +20,6 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 package md3.md3model;
 
 import java.io.*;
-import java.awt.*;
 
 import md3.util.*;
 
@@ -47,7 +46,29 @@ public class MD3Texture implements Serializable {
    */
   public byte[] data;
   public int width, height; // size of texture data
+  
+  //reference used by the texture cache to track the users of the shared data
+  transient java.lang.ref.WeakReference<MD3Texture> cacheReference;
+  
+  //mip-map chain built from the data, shared through the texture cache, it can
+  //be built by a loading thread and read by the rendering thread
+  transient volatile MD3MipMaps mipMaps;
+  
+  //key of the content of the data in the texture cache, kept when the data is released
+  transient String contentKey;
     
+  /**
+   * <p>Use the given RGBA data as the data member of this MD3Texture object.
+   * The array is not copied.
+   */
+  protected void setTextureData(byte[] rgba, int width, int height) {
+    this.width=width;
+    this.height=height;
+    this.data=rgba;
+    this.mipMaps=null;
+    this.contentKey=null;
+  }
+  
   /**
    * <p>Copy the source data into the data member of this MD3Texture object.
    *
@@ -59,6 +80,8 @@ public class MD3Texture implements Serializable {
     width=sourceWidth;
     height=sourceHeight;
     data=new byte[width*height*4];    
+    mipMaps=null;
+    contentKey=null;
     
     //copy data
     int dataPtr=0;
@@ -79,31 +102,103 @@ public class MD3Texture implements Serializable {
   	
   /**
    * <p>Load the texture data from the given input stream and put it in
-   * the data array.
+   * the data array. The decoded data is shared with all other textures
+   * loaded from the same encoded data, so it should not be modified.
    *
    * <p>TGA or JPG input is selected depending on the loadFilename, so
    * make sure it is set before calling this method!
+   *
+   * @see md3.md3model.MD3TextureCache
    */
   protected void loadTextureData(InputStream in) throws IOException {
-  	if (loadFilename.toLowerCase().endsWith(".jpg")) {
-			//read image data into byte array
-			ByteArrayOutputStream bout=new ByteArrayOutputStream(in.available());  		
-	    byte[] buf=new byte[1024];
-	    int len=0;
-	    while((len=in.read(buf)) > 0 )
-	    	bout.write(buf, 0, len);  		
-			byte[] imgData=bout.toByteArray();
-	
-	    // load texture bitmap data
-      MediaTracker tracker=new MediaTracker(new Canvas()); //use dummy component
-      Image img=Toolkit.getDefaultToolkit().createImage(imgData);
-      tracker.addImage(img, 1);
-      try { tracker.waitForID(1); } catch (InterruptedException e) {}
-	
-	 		ImageIO.loadImage(this, img);
-	  }
+  	MD3TextureCache.loadTextureData(this, in);
+  }
+  
+  /**
+   * <p>Return the data of this texture, reloading it if it was released. The
+   * data is reloaded from the stream returned by the openTextureData() method
+   * of the current factory, so it is only decoded again if no other texture
+   * shares it anymore.
+   *
+   * @return The RGBA data, or null if this texture has no data to reload.
+   * @see md3.md3model.MD3ModelFactory#openTextureData(String)
+   */
+  public byte[] getData() throws IOException {
+  	byte[] res=data;
+  	if (res==null && loadFilename!=null) {
+  		InputStream in=MD3ModelFactory.getFactory().openTextureData(loadFilename);
+  		try {
+  			loadTextureData(in);
+  		} finally {
+  			in.close();
+  		}
+  		res=data;
+  	}
+  	return res;
+  }
+  
+  /**
+   * <p>Release the texture data of this texture. The data is thrown away once no
+   * other texture shares it. It can be reloaded using getData().
+   */
+  public void releaseData() {
+  	MD3TextureCache.release(this);
+  	data=null;
+  	mipMaps=null;
+  }
+  
+  /**
+   * <p>Return a key identifying the content of this texture's data: textures with
+   * equal keys have equal data. The key is kept when the data is released, so it
+   * still identifies the data that will be reloaded.
+   *
+   * @return The key, or null if the data was not loaded through the texture cache.
+   */
+  public String getContentKey() {
+  	return contentKey;
+  }
+  
+  /**
+   * <p>Return the OpenGL mip-map chain for the data of this texture, building it
+   * if that wasn't done yet. The chain is shared with all other textures using
+   * the same data, so it should not be modified.
+   *
+   * @return The mip-maps or null if this texture has no data.
+   * @see md3.md3model.MD3ModelFactory#setMipMapPrebuilding(boolean)
+   */
+  public MD3MipMaps getMipMaps() {
+  	MD3MipMaps res=mipMaps;
+  	if (res==null && data!=null)
+  		mipMaps=res=MD3TextureCache.getMipMaps(this);
+  	return res;
+  }
+  
+  /**
+   * <p>Return the data of this texture scaled to the given size. Scaled data is
+   * kept with the decoded data in the texture cache, so scaling to the same size
+   * again is free. It is shared with all other textures using the same data, so it
+   * should not be modified.
+   *
+   * @param width Width of the scaled data.
+   * @param height Height of the scaled data.
+   * @param filter The filter to use: ImageScaler.BOX or ImageScaler.BILINEAR.
+   * @return The scaled RGBA data, the data member itself when the size is unchanged,
+   *         or null if this texture has no data.
+   * @see md3.md3model.ImageScaler
+   */
+  public byte[] getScaledData(int width, int height, int filter) {
+  	if (data==null || (width==this.width && height==this.height))
+  		return data;
+  	return MD3TextureCache.getScaledData(this, width, height, filter);
+  }
+  
+  //actually decode the texture data from the given encoded file data
+  void decodeTextureData(byte[] encoded) throws IOException {
+  	if (loadFilename.toLowerCase().endsWith(".jpg"))
+  		//decode with javax.imageio, this also works in headless environments
+	 		ImageIO.loadImage(this, encoded);
 	  else if (loadFilename.toLowerCase().endsWith(".tga"))
-     	TGAIO.loadTGA(this, in);
+     	TGAIO.loadTGA(this, encoded);
   }
 
   /**
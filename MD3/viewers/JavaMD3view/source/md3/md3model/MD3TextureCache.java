@@ -0,0 +1,330 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3model;
+
+import java.io.*;
+import java.lang.ref.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * <p>Process wide cache of decoded texture data. Textures are identified by the
+ * SHA-1 digest and length of their encoded (.tga or .jpg) data, so a texture that is used by
+ * several meshes, skins or models, even under different names, is only decoded once
+ * and all MD3Texture objects for it share the same RGBA data array.
+ *
+ * <p>The cache counts the MD3Texture objects using every decoded image. An image is
+ * released when its last user calls MD3Texture.releaseData() or is garbage collected,
+ * i.e. when the last model or skin using it lets go.
+ *
+ * <p>The mip-map chains built for the images and scaled versions of them are also
+ * shared, so they are only built once.
+ *
+ * <p>All textures loaded through MD3Texture.loadTextureData() use this cache.
+ * 
+ * @see md3.md3model.MD3Texture
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+public class MD3TextureCache {
+	
+	private static Map<String, CacheEntry> entries=new HashMap<String, CacheEntry>(); //content keys to CacheEntry objects
+	private static Map<Reference<MD3Texture>, CacheEntry> users=new HashMap<Reference<MD3Texture>, CacheEntry>();
+		//WeakReferences to textures to their CacheEntry
+	private static ReferenceQueue<MD3Texture> collectedUsers=new ReferenceQueue<MD3Texture>();
+	
+	private static long byteSize=0;
+	private static int hitCount=0, missCount=0;
+	
+	private MD3TextureCache() {
+		//Booch utility class: no instances
+	}
+	
+	/**
+	 * <p>Load the data of the given texture from the given input stream. If the encoded
+	 * data was decoded before, the decoded data is shared, otherwise it is decoded
+	 * and entered in the cache. Any data the texture had before is released.
+	 */
+	static void loadTextureData(MD3Texture tex, InputStream in) throws IOException {
+		//read and identify the encoded data
+		ByteArrayOutputStream bout=new ByteArrayOutputStream(Math.max(in.available(), 1024));
+		byte[] buf=new byte[8192];
+		int len;
+		while ((len=in.read(buf))!=-1)
+			bout.write(buf, 0, len);
+		byte[] encoded=bout.toByteArray();
+		String key=getContentKey(encoded);
+		
+		release(tex);
+		
+		synchronized (MD3TextureCache.class) {
+			expungeCollectedUsers();
+			CacheEntry entry=entries.get(key);
+			if (entry!=null) {
+				hitCount++;
+				attach(tex, entry);
+			}
+			else
+				missCount++;
+		}
+		if (tex.cacheReference!=null) {
+			//allready decoded
+			prebuildMipMaps(tex);
+			return;
+		}
+		
+		//decode outside the lock so textures can be decoded concurrently, straight
+		//from the encoded data that was hashed
+		tex.decodeTextureData(encoded);
+		if (tex.data==null)
+			return; //unknown image type
+		
+		synchronized (MD3TextureCache.class) {
+			CacheEntry entry=entries.get(key);
+			if (entry==null) {
+				//first one to decode this data
+				entry=new CacheEntry(key, tex.data, tex.width, tex.height);
+				entries.put(key, entry);
+				byteSize+=entry.data.length;
+			}
+			attach(tex, entry);
+		}
+		prebuildMipMaps(tex);
+	}
+	
+	//identify encoded data by its SHA-1 digest, a checksum is not good enough since the key
+	//is also used to share uploaded OpenGL textures
+	private static String getContentKey(byte[] encoded) throws IOException {
+		MessageDigest digest;
+		try {
+			digest=MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException("unable to identify texture data: " + e.getMessage());
+		}
+		byte[] hash=digest.digest(encoded);
+		StringBuffer res=new StringBuffer(hash.length * 2 + 12);
+		for (int i=0;i<hash.length;i++) {
+			res.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+			res.append(Character.forDigit(hash[i] & 0xF, 16));
+		}
+		return res.append(':').append(encoded.length).toString();
+	}
+	
+	//build the mip-maps of a freshly loaded texture if the factory asks for it, this
+	//happens on the loading thread so rendering doesn't have to wait for it, without
+	//a factory nothing is prebuilt
+	private static void prebuildMipMaps(MD3Texture tex) {
+		MD3ModelFactory factory=MD3ModelFactory.getFactory();
+		if (factory!=null && factory.isMipMapPrebuilding())
+			tex.getMipMaps();
+	}
+	
+	/**
+	 * <p>Return the mip-maps for the data of the given texture, building them if
+	 * no texture using the same data did that before.
+	 */
+	static MD3MipMaps getMipMaps(MD3Texture tex) {
+		byte[] data;
+		int width, height;
+		CacheEntry entry;
+		synchronized (MD3TextureCache.class) {
+			entry=tex.cacheReference==null ? null : users.get(tex.cacheReference);
+			if (entry!=null && entry.mipMaps!=null)
+				return entry.mipMaps;
+			data=tex.data;
+			width=tex.width;
+			height=tex.height;
+		}
+		if (data==null)
+			return null;
+		
+		//build outside the lock, so mip-maps of different textures can be built concurrently
+		MD3MipMaps res=MD3MipMaps.build(data, width, height);
+		
+		if (entry!=null)
+			synchronized (MD3TextureCache.class) {
+				if (entry.mipMaps!=null)
+					res=entry.mipMaps; //somebody else was faster
+				else if (entries.get(entry.key)==entry) {
+					entry.mipMaps=res;
+					byteSize+=mipMapByteSize(res, entry.data);
+				}
+			}
+		return res;
+	}
+	
+	/**
+	 * <p>Return the data of the given texture scaled to the given size with the given
+	 * filter, scaling it if no texture using the same data did that before. Data of
+	 * textures that are not in the cache is scaled every time.
+	 */
+	static byte[] getScaledData(MD3Texture tex, int width, int height, int filter) {
+		String key=width + "x" + height + ":" + filter;
+		byte[] data;
+		int srcWidth, srcHeight;
+		CacheEntry entry;
+		synchronized (MD3TextureCache.class) {
+			entry=tex.cacheReference==null ? null : users.get(tex.cacheReference);
+			if (entry!=null && entry.scaledData.containsKey(key))
+				return entry.scaledData.get(key);
+			data=tex.data;
+			srcWidth=tex.width;
+			srcHeight=tex.height;
+		}
+		if (data==null)
+			return null;
+		
+		byte[] res=ImageScaler.scale(data, srcWidth, srcHeight, width, height, filter);
+		
+		if (entry!=null)
+			synchronized (MD3TextureCache.class) {
+				if (entry.scaledData.containsKey(key))
+					res=entry.scaledData.get(key);
+				else if (entries.get(entry.key)==entry) {
+					entry.scaledData.put(key, res);
+					byteSize+=res.length;
+				}
+			}
+		return res;
+	}
+	
+	//number of bytes used by the given mip-maps that are not shared with the image data
+	private static int mipMapByteSize(MD3MipMaps mipMaps, byte[] data) {
+		int res=mipMaps.getByteSize();
+		if (mipMaps.levels[0]==data)
+			res-=data.length;
+		return res;
+	}
+	
+	/**
+	 * <p>Release the data of the given texture, if it is held by the cache.
+	 */
+	static synchronized void release(MD3Texture tex) {
+		if (tex.cacheReference!=null) {
+			CacheEntry entry=users.remove(tex.cacheReference);
+			tex.cacheReference.clear();
+			tex.cacheReference=null;
+			if (entry!=null)
+				releaseEntry(entry);
+		}
+	}
+	
+	//let the given texture use the data of the given entry
+	private static void attach(MD3Texture tex, CacheEntry entry) {
+		tex.data=entry.data;
+		tex.width=entry.width;
+		tex.height=entry.height;
+		tex.mipMaps=entry.mipMaps;
+		tex.contentKey=entry.key;
+		tex.cacheReference=new WeakReference<MD3Texture>(tex, collectedUsers);
+		users.put(tex.cacheReference, entry);
+		entry.refCount++;
+	}
+	
+	//drop a reference to the given entry
+	private static void releaseEntry(CacheEntry entry) {
+		if (--entry.refCount==0) {
+			entries.remove(entry.key);
+			byteSize-=entry.data.length;
+			if (entry.mipMaps!=null)
+				byteSize-=mipMapByteSize(entry.mipMaps, entry.data);
+			for (byte[] scaled : entry.scaledData.values())
+				byteSize-=scaled.length;
+		}
+	}
+	
+	//release the entries used by textures that have been garbage collected
+	private static void expungeCollectedUsers() {
+		Reference<? extends MD3Texture> ref;
+		while ((ref=collectedUsers.poll())!=null) {
+			CacheEntry entry=users.remove(ref);
+			if (entry!=null)
+				releaseEntry(entry);
+		}
+	}
+	
+	/**
+	 * <p>Return the number of bytes of decoded, scaled and mip-mapped texture data held
+	 * by the cache.
+	 */
+	public static synchronized long getByteSize() {
+		expungeCollectedUsers();
+		return byteSize;
+	}
+	
+	/**
+	 * <p>Return the number of distinct images held by the cache.
+	 */
+	public static synchronized int getTextureCount() {
+		expungeCollectedUsers();
+		return entries.size();
+	}
+	
+	/**
+	 * <p>Return the number of textures that are using data from the cache.
+	 */
+	public static synchronized int getReferenceCount() {
+		expungeCollectedUsers();
+		return users.size();
+	}
+	
+	/**
+	 * <p>Return the number of texture loads that could use allready decoded data.
+	 */
+	public static synchronized int getHitCount() {
+		return hitCount;
+	}
+	
+	/**
+	 * <p>Return the number of texture loads that had to decode their data.
+	 */
+	public static synchronized int getMissCount() {
+		return missCount;
+	}
+	
+	/**
+	 * <p>Return a short description of the state of the cache.
+	 */
+	public static synchronized String getStatistics() {
+		expungeCollectedUsers();
+		return "texture cache: " + entries.size() + " images, " + byteSize + " bytes, " +
+		       users.size() + " references, " + hitCount + " hits, " + missCount + " misses";
+	}
+	
+	/**
+	 * <p>Decoded image data shared by all textures with the same encoded data.
+	 */
+	private static class CacheEntry {
+		String key;
+		byte[] data;
+		int width, height;
+		MD3MipMaps mipMaps;
+		Map<String, byte[]> scaledData=new HashMap<String, byte[]>(); //size and filter keys to scaled RGBA data
+		int refCount=0;
+		
+		CacheEntry(String key, byte[] data, int width, int height) {
+			this.key=key;
+			this.data=data;
+			this.width=width;
+			this.height=height;
+		}
+	}
+}
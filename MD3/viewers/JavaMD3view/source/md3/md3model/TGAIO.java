@@ -44,15 +44,22 @@ given or implied.
 package md3.md3model;
 
 import java.io.*;
-
-import md3.util.*;
-
-import cio.LittleEndianDataInputStream;
+import java.util.concurrent.*;
 
 /**
  * <p>The TGAIO class provides a method you can use to load TGA image data
  * into an MD3Texture object.
  *
+ * <p>Color mapped, true color and gray scale images are supported, both
+ * uncompressed and RLE compressed, in all four orientations. The image data
+ * is read in one go and decoded row by row straight into the RGBA data of the
+ * texture, RLE packets are expanded with array copies.
+ *
+ * <p>Big images are decoded in parallel, unless parallel decoding was disabled
+ * in the factory or no factory is set: the rows are split over the common fork/join pool. For RLE
+ * compressed images, a quick sequential scan first records where the packet
+ * data of every row starts.
+ *
  * <p>This class was based on JavaZine's ZImageLoaderTGA class by Marcel Schoen,
  *
  * @see md3.md3model.MD3Texture
@@ -61,310 +68,314 @@ import cio.LittleEndianDataInputStream;
  * @author Erwin Vervaet (klr8@fragland.net)
  */
 class TGAIO {
-	
-	private static int DEFAULTALPHA=0x00000000;
-	
-  private LittleEndianDataInputStream dfin;
   
-  // TGA-specific variables
+  private static final byte DEFAULTALPHA=0x00;
+  
+  //minimum amount of pixels that makes parallel decoding worthwhile
+  private static final int PARALLEL_DECODING_THRESHOLD=512 * 512;
+  
+  //number of rows decoded by a single task when decoding in parallel
+  private static final int ROWS_PER_TASK=32;
+  
+  // TGA header fields
   private int
-    zl, 
-    orientation = 0,
-    imgType = 0,
-    IDlength = 0,
-    cMapFirst = 0,
-    xOrigin,
-    yOrigin,
-    description,
-    depth = 0,
-    pixels = 0,
-    cMapType = 0,
-    cMapLength = 0,
-    cMapEntrySize = 0,
-    framePtr = 0,
-    cachePtr = 0,
-    red = 0,
-    green = 0,
-    blue = 0,
-    col = 0,
-    cacheStep = 0,
-    stepFrameCol = 0,
-    stepFrameRow = 0,
-    pixelCt = 0,
-    pixel = 0,
-    alpha = DEFAULTALPHA,
-    fileLength = 0,
-    RLEtype,
-    RLElength,
-    RLEcounter,
-    RLEpause = 0,
+    IDlength,
+    cMapType,
+    imgType,
+    cMapFirst,
+    cMapLength,
+    cMapEntrySize,
     xRes,
     yRes,
-    value;
-  private boolean
-    loaded = false,
-    RLEencoded = false;
-  private int[] frameBuffer;
-  private int[] cache = null;
-  private int[] palette = null;
+    depth,
+    description;
+  
+  private boolean RLEencoded;
+  private boolean rightToLeft, topToBottom; //orientation
+  private int bytesPerPixel; //bytes per pixel in the image data
+  
+  private byte[] src; //the entire file
+  private int dataStart; //offset of the image data in src
+  private byte[] palette; //color map converted to RGBA, 4 bytes per entry
+  private byte[] rgba; //decoded image
   
   //private constructor
-  private TGAIO(InputStream in) throws IOException {
-    dfin=new LittleEndianDataInputStream(new BufferedInputStream(in));
+  private TGAIO(byte[] src) {
+    this.src=src;
   }
-
+  
+  //read an unsigned little endian short from the file data
+  private int readUnsignedShort(int pos) {
+    return (src[pos] & 0xFF) | ((src[pos + 1] & 0xFF) << 8);
+  }
+  
   // load the TGA header in order to prepare the framebuffer
   private void readHeader() throws IOException {
-    IDlength = dfin.readUnsignedByte(); // read one single byte
-    cMapType = dfin.readUnsignedByte();
-    imgType = dfin.readUnsignedByte();
-    cMapFirst = dfin.readUnsignedShort(); // read 16 bits
-    cMapLength = dfin.readUnsignedShort();
-    cMapEntrySize = dfin.readUnsignedByte();
-    xOrigin = dfin.readUnsignedShort();
-    yOrigin = dfin.readUnsignedShort();
-    xRes = dfin.readUnsignedShort();  // read width of image in pixels
-    yRes = dfin.readUnsignedShort();  // read height of image in pixels
-    depth = dfin.readUnsignedByte();  // read image depth in bits per pixel
-    description = dfin.readUnsignedByte(); // read description bits
-
-    frameBuffer = new int[xRes * yRes];
+    if (src.length<18)
+      throw new IOException("corrupt TGA file");
+    
+    IDlength = src[0] & 0xFF;
+    cMapType = src[1] & 0xFF;
+    imgType = src[2] & 0xFF;
+    cMapFirst = readUnsignedShort(3);
+    cMapLength = readUnsignedShort(5);
+    cMapEntrySize = src[7] & 0xFF;
+    // x and y origin (offsets 8 and 10) are not used
+    xRes = readUnsignedShort(12);  // width of image in pixels
+    yRes = readUnsignedShort(14);  // height of image in pixels
+    depth = src[16] & 0xFF;        // image depth in bits per pixel
+    description = src[17] & 0xFF;  // description bits
+    
+    RLEencoded = imgType == 9 || imgType == 10 || imgType == 11;
+    // bit 4 set: right to left, bit 5 set: top to bottom
+    rightToLeft = (description & 0x10) != 0;
+    topToBottom = (description & 0x20) != 0;
+    bytesPerPixel = (depth + 7) / 8;
+    
+    if (imgType != 1 && imgType != 9 && imgType != 2 && imgType != 10 && imgType != 3 && imgType != 11)
+      throw new IOException("TGA image type " + imgType + " not supported");
   }
-
-  // load the TGA file
-  private void loadPicture() throws IOException {
-    // calculate orientation (top-down, left-right, etc.)
-    orientation = (description & 0xF0) >> 4;
-
-    // prepare variables for the RLE decoding process
-    RLEpause = 0;
-    RLEcounter = 0;
-    RLElength = 1;
-
-    if (imgType == 9 | imgType == 10 | imgType == 11) {
-      RLEencoded = true; // it's a compressed image
-    }
-
-    dfin.skip(IDlength); // skip ID field
-
+  
+  // read the color map, converting it to RGBA
+  private void readPalette() throws IOException {
+    int pos = 18 + IDlength;
     if (cMapType == 1) { // there's a color map
       if (cMapEntrySize == 16)
         throw new IOException("16 bit color maps not supported");
-
-      palette = new int[cMapLength * (cMapEntrySize / 8)];
-      value = 0;
-
-      for (zl = 0; zl < cMapLength; zl++)
-        if (cMapEntrySize == 24) {
-          palette[value++] = dfin.readUnsignedByte();
-          palette[value++] = dfin.readUnsignedByte();
-          palette[value++] = dfin.readUnsignedByte();
+      
+      int entrySize = (cMapEntrySize + 7) / 8;
+      if (cMapEntrySize == 24 || cMapEntrySize == 32) {
+        palette = new byte[cMapLength * 4];
+        for (int i = 0; i < cMapLength; i++) {
+          int p = pos + i * entrySize;
+          palette[i * 4] = src[p + 2];
+          palette[i * 4 + 1] = src[p + 1];
+          palette[i * 4 + 2] = src[p];
+          palette[i * 4 + 3] = cMapEntrySize == 32 ? src[p + 3] : DEFAULTALPHA;
         }
+      }
+      pos += cMapLength * entrySize;
     }
-
-    // reading image data
-    pixels = xRes * yRes; // total number of pixels
-
-    if (!RLEencoded) { // picture is not RLE-compressed?
-      // read raw image data into cache array
-      cache = new int[pixels * (depth / 8)];
-      for (int i=0; i<cache.length;i++)
-        cache[i]=dfin.readUnsignedByte();
-    }
-
-    // convert the image data from the cache array into the framebuffer
-    stepFrameCol = 1; // default - left to right, bottom to top
-    stepFrameRow = - (2 * xRes);
-    framePtr = (yRes - 1) * xRes;
-    pixelCt = 0; // counter for pixels
-
-    if (orientation == 0x10) { // right to left, bottom to top
-      stepFrameCol = -1;
-      stepFrameRow = 0;
-      framePtr = pixels - 1;
-    }
-    else if (orientation == 0x20) { // left to right, top to bottom
-      stepFrameCol = 1;
-      stepFrameRow = 0;
-      framePtr = 0;
-    } else if (orientation == 0x30) { // right to left, top to bottom
-      stepFrameCol = -1;
-      stepFrameRow = 2 * xRes;
-      framePtr = xRes - 1;
+    dataStart = pos;
+  }
+  
+  // load the TGA image data
+  private void loadPicture() throws IOException {
+    rgba = new byte[xRes * yRes * 4];
+    
+    if (!RLEencoded && dataStart + xRes * bytesPerPixel * yRes > src.length)
+      throw new IOException("corrupt TGA file");
+    
+    //without a factory, e.g. when textures are loaded directly, decode sequentially
+    MD3ModelFactory factory = MD3ModelFactory.getFactory();
+    if (factory != null && factory.isParallelDecoding() &&
+        ForkJoinPool.getCommonPoolParallelism() > 1 &&
+        xRes * yRes >= PARALLEL_DECODING_THRESHOLD) {
+      int[] rowStates = RLEencoded ? scanRLERows() : null;
+      ForkJoinPool.commonPool().invoke(new RowsTask(0, yRes, rowStates));
     }
-
-    if (imgType == 1 | imgType == 9)
-      decodeCMAP(); // decode a colormapped image
-    else if (imgType == 2 | imgType == 10)
-      decodeTC(); // decode a true color image
-    else if (imgType == 3 | imgType == 11)
-      decodeGray(); // decode a grayscale image
     else
-      throw new IOException("TGA image type " + imgType + " not supported");
-    
-    dfin.close();
-    cache=null;
+      decodeRows(0, yRes, null);
   }
-
-  // decode a colormapped image
-  private void decodeCMAP() throws IOException {
-    if (depth == 16) {
-      //nothing yet...
+  
+  // decode the rows lo (inclusive) to hi (exclusive), rowStates holds the RLE state
+  // at the start of every row, if null RLE decoding should start at the first row
+  private void decodeRows(int lo, int hi, int[] rowStates) {
+    if (!RLEencoded) {
+      int rowBytes = xRes * bytesPerPixel;
+      for (int y = lo; y < hi; y++)
+        decodeRow(src, dataStart + y * rowBytes, y);
     }
-    else if (depth == 8) {
-      while(pixelCt < pixels) {
-        if (RLEencoded) {
-          if (RLEpause == 0) decodeRLE();
-
-           pixel = dfin.readUnsignedByte() * 3;
-        }
-        else
-          pixel = cache[cachePtr++] * 3;
-
-        red = palette[pixel + 2];
-        green = palette[pixel + 1];
-        blue = palette[pixel];
-         
-        value = getRGBAValue(red, green, blue);
-
-        for(RLEcounter = 0; RLEcounter < RLElength; RLEcounter++) {
-          frameBuffer[framePtr] = value;
-          framePtr += stepFrameCol;
-          col++;
-
-          if (col == xRes) {
-            framePtr += stepFrameRow;
-            col = 0;
-          }
-
-          pixelCt++;
-        }
-
-        if (RLEpause > 0) RLEpause--;
+    else {
+      byte[] row = new byte[xRes * bytesPerPixel];
+      int[] state = { dataStart, 0, 0 };
+      if (rowStates != null)
+        System.arraycopy(rowStates, lo * 3, state, 0, 3);
+      for (int y = lo; y < hi; y++) {
+        expandRLERow(state, row);
+        decodeRow(row, 0, y);
       }
     }
   }
-
-  // decode a gray scale image
-  private void decodeGray() throws IOException {
-    while(pixelCt < pixels) {
-      if (RLEencoded) {
-        if (RLEpause == 0) decodeRLE();
-
-        pixel = dfin.readUnsignedByte();
-      }
-      else
-        pixel = cache[cachePtr++];
-
-      value = getRGBAValue(pixel, pixel, pixel);
-
-      for(RLEcounter = 0; RLEcounter < RLElength; RLEcounter++) {
-        frameBuffer[framePtr] = value;
-        framePtr += stepFrameCol;
-        col++;
-
-        if (col == xRes) {
-          framePtr += stepFrameRow;
-          col = 0;
+  
+  // walk the RLE packets without expanding them and record the RLE state (see
+  // expandRLERow()) at the start of every row, 3 ints per row
+  private int[] scanRLERows() {
+    int[] res = new int[yRes * 3];
+    int pos = dataStart, left = 0;
+    boolean run = false;
+    int bpp = bytesPerPixel;
+    
+    for (int y = 0; y < yRes; y++) {
+      res[y * 3] = pos;
+      res[y * 3 + 1] = left;
+      res[y * 3 + 2] = run ? 1 : 0;
+      
+      int n = 0;
+      while (n < xRes) {
+        if (left == 0) { // read packet header
+          int v = src[pos++] & 0xFF;
+          run = (v & 0x80) != 0;
+          left = (v & 0x7F) + 1;
         }
-
-        pixelCt++;
+        int count = Math.min(left, xRes - n);
+        left -= count;
+        if (!run)
+          pos += count * bpp;
+        else if (left == 0)
+          pos += bpp;
+        n += count;
       }
-
-      if (RLEpause > 0) RLEpause--;
     }
+    if (pos > src.length)
+      throw new IndexOutOfBoundsException();
+    return res;
   }
-
-  // 24-bit and 32-bit TrueColor images
-  private final void decodeTC() throws IOException {
-    if (depth == 24) {
-      while(pixelCt < pixels) {
-        if (RLEencoded) {
-          if (RLEpause == 0) decodeRLE();
-
-          blue = dfin.readUnsignedByte();
-          green = dfin.readUnsignedByte();
-          red = dfin.readUnsignedByte();
-        }
-        else {
-          blue = cache[cachePtr++];
-          green = cache[cachePtr++];
-          red = cache[cachePtr++];
-        }
-
-        value = getRGBAValue(red, green, blue);
-
-        for (RLEcounter = 0; RLEcounter < RLElength; RLEcounter++) {
-          frameBuffer[framePtr] = value;
-          framePtr += stepFrameCol;
-          col++;
-
-          if (col == xRes) {
-            framePtr += stepFrameRow;
-            col = 0;
-          }
-
-          pixelCt++;
-        }
-
-        if (RLEpause > 0) RLEpause--;
+  
+  // expand the RLE packets of the next row into the given row buffer; state holds
+  // the position in the file data, the number of pixels left in the current packet
+  // and whether or not that packet is a run-length packet (packets can span rows)
+  private void expandRLERow(int[] state, byte[] row) {
+    int pos = state[0], left = state[1];
+    boolean run = state[2] != 0;
+    int bpp = bytesPerPixel;
+    
+    int n = 0;
+    while (n < xRes) {
+      if (left == 0) { // read packet header
+        int v = src[pos++] & 0xFF;
+        run = (v & 0x80) != 0;
+        left = (v & 0x7F) + 1;
       }
-    }
-    else if (depth == 32) {
-      while(pixelCt < pixels) {
-        if (RLEencoded) {
-          if (RLEpause == 0) decodeRLE();
-
-          blue = dfin.readUnsignedByte();
-          green = dfin.readUnsignedByte();
-          red = dfin.readUnsignedByte();
-          alpha = dfin.readUnsignedByte();
-        }
-        else {
-          blue = cache[cachePtr++];
-          green = cache[cachePtr++];
-          red = cache[cachePtr++];
-          alpha = cache[cachePtr++];
-        }
-
-        value = getRGBAValue(red, green, blue, alpha);
-
-        for(RLEcounter = 0; RLEcounter < RLElength; RLEcounter++) {
-          frameBuffer[framePtr] = value;
-          framePtr += stepFrameCol;
-          col++;
-          if (col == xRes) {
-            framePtr += stepFrameRow;
-            col = 0;
-          }
-          pixelCt++;
-        }
-
-        if (RLEpause>0) RLEpause--;
+      
+      int count = Math.min(left, xRes - n);
+      if (run) {
+        // copy the pixel once, then keep doubling the copied part
+        int dst = n * bpp, total = count * bpp;
+        System.arraycopy(src, pos, row, dst, bpp);
+        for (int filled = bpp; filled < total; filled *= 2)
+          System.arraycopy(row, dst, row, dst + filled, Math.min(filled, total - filled));
+        left -= count;
+        if (left == 0)
+          pos += bpp;
+      }
+      else {
+        System.arraycopy(src, pos, row, n * bpp, count * bpp);
+        pos += count * bpp;
+        left -= count;
       }
+      n += count;
     }
+    
+    state[0] = pos;
+    state[1] = left;
+    state[2] = run ? 1 : 0;
   }
-
-  // decode a RLE compression byte
-  private final void decodeRLE() throws IOException {
-    int v = dfin.readUnsignedByte();
-    RLEtype = (v & 0x80);
-    RLElength = (v & 0x7F) + 1;
-
-    if (RLEtype == 0) {
-      RLEpause = RLElength;
-      RLElength = 1;
+  
+  // decode a row of pixels, stored in file order starting at src[pos], to RGBA
+  // and store it at the correct position in the output
+  private void decodeRow(byte[] src, int pos, int fileRow) {
+    int y = topToBottom ? fileRow : yRes - 1 - fileRow;
+    int dst = y * xRes * 4;
+    int step = 4;
+    if (rightToLeft) {
+      dst += (xRes - 1) * 4;
+      step = -4;
     }
+    
+    if (imgType == 1 || imgType == 9)
+      decodeCMAP(src, pos, dst, step); // decode a colormapped image
+    else if (imgType == 2 || imgType == 10)
+      decodeTC(src, pos, dst, step); // decode a true color image
+    else
+      decodeGray(src, pos, dst, step); // decode a grayscale image
   }
- 
-  //create RGBA value 
-  private int getRGBAValue(int red, int green, int blue, int alpha) {
-    return (red << 24) + (green << 16) + (blue << 8) + alpha;
+  
+  // decode a row of a colormapped image
+  private void decodeCMAP(byte[] src, int pos, int dst, int step) {
+    if (depth == 8 && palette != null)
+      for (int i = 0; i < xRes; i++, dst += step) {
+        int p = ((src[pos++] & 0xFF) - cMapFirst) * 4;
+        if (p >= 0 && p < palette.length) {
+          rgba[dst] = palette[p];
+          rgba[dst + 1] = palette[p + 1];
+          rgba[dst + 2] = palette[p + 2];
+          rgba[dst + 3] = palette[p + 3];
+        }
+      }
   }
   
-  //create RGBA value with default alpha
-  private int getRGBAValue(int red, int green, int blue) {
-		return (red << 24) + (green << 16) + (blue << 8) + DEFAULTALPHA;
+  // decode a row of a gray scale image
+  private void decodeGray(byte[] src, int pos, int dst, int step) {
+    if (depth == 8)
+      for (int i = 0; i < xRes; i++, dst += step) {
+        byte g = src[pos++];
+        rgba[dst] = g;
+        rgba[dst + 1] = g;
+        rgba[dst + 2] = g;
+        rgba[dst + 3] = DEFAULTALPHA;
+      }
+    else if (depth == 16) // gray and alpha
+      for (int i = 0; i < xRes; i++, dst += step) {
+        byte g = src[pos++];
+        rgba[dst] = g;
+        rgba[dst + 1] = g;
+        rgba[dst + 2] = g;
+        rgba[dst + 3] = src[pos++];
+      }
+  }
+  
+  // decode a row of a 24-bit or 32-bit TrueColor image, pixels are stored BGR(A)
+  private void decodeTC(byte[] src, int pos, int dst, int step) {
+    if (depth == 24)
+      for (int i = 0; i < xRes; i++, dst += step, pos += 3) {
+        rgba[dst] = src[pos + 2];
+        rgba[dst + 1] = src[pos + 1];
+        rgba[dst + 2] = src[pos];
+        rgba[dst + 3] = DEFAULTALPHA;
+      }
+    else if (depth == 32)
+      for (int i = 0; i < xRes; i++, dst += step, pos += 4) {
+        rgba[dst] = src[pos + 2];
+        rgba[dst + 1] = src[pos + 1];
+        rgba[dst + 2] = src[pos];
+        rgba[dst + 3] = src[pos + 3];
+      }
+  }
+  
+  /**
+   * <p>Fork/join task decoding a range of rows, splitting it when it is too big.
+   */
+  private class RowsTask extends RecursiveAction {
+    private static final long serialVersionUID=1L;
+    
+    private int lo, hi;
+    private int[] rowStates;
+    
+    RowsTask(int lo, int hi, int[] rowStates) {
+      this.lo = lo;
+      this.hi = hi;
+      this.rowStates = rowStates;
+    }
+    
+    protected void compute() {
+      if (hi - lo <= ROWS_PER_TASK)
+        decodeRows(lo, hi, rowStates);
+      else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new RowsTask(lo, mid, rowStates), new RowsTask(mid, hi, rowStates));
+      }
+    }
+  }
+  
+  // read the entire stream into a byte array
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream(Math.max(in.available(), 1024));
+    byte[] buf = new byte[8192];
+    int len;
+    while ((len = in.read(buf)) != -1)
+      bout.write(buf, 0, len);
+    return bout.toByteArray();
   }
   
   /**
@@ -376,10 +387,27 @@ class TGAIO {
    * @param in Stream from which to read TGA data.
    */
   static void loadTGA(MD3Texture tex, InputStream in) throws IOException {
-    TGAIO tgaIO=new TGAIO(in);    
-    tgaIO.readHeader();
-    tgaIO.loadPicture();
+    loadTGA(tex, readFully(in));
+  }
+  
+  /**
+   * <p>Load OpenGL compatible TGA texture data from the given TGA file data into
+   * an MD3Texture object, like loadTGA(MD3Texture, InputStream). The array is
+   * decoded in place, it is not copied and should not be modified while loading.
+   *
+   * @param tex MD3Texture object that should hold the read data.
+   * @param encoded The entire TGA file.
+   */
+  static void loadTGA(MD3Texture tex, byte[] encoded) throws IOException {
+    TGAIO tgaIO = new TGAIO(encoded);
+    try {
+      tgaIO.readHeader();
+      tgaIO.readPalette();
+      tgaIO.loadPicture();
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("corrupt TGA file");
+    }
     
-    tex.setTextureData(tgaIO.frameBuffer, tgaIO.xRes, tgaIO.yRes, false);  
+    tex.setTextureData(tgaIO.rgba, tgaIO.xRes, tgaIO.yRes);
   }
-}
\ No newline at end of file
+}
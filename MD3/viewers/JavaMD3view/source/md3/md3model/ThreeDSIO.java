@@ -193,19 +193,13 @@ public class ThreeDSIO
 			numBytesRead += 2;
 
 			// allocate memory
-			currMesh.meshFrames = new Vec3[currMesh.meshFrameNum][currMesh.vertexNum];
-			currMesh.meshVertexNormals = new int[currMesh.meshFrameNum][currMesh.vertexNum][2];
-			currMesh.textureCoord = new float[currMesh.vertexNum][2];
+			currMesh.framePositions = new float[currMesh.meshFrameNum][currMesh.vertexNum*3];
+			currMesh.frameNormals = new byte[currMesh.meshFrameNum][currMesh.vertexNum*2];
+			currMesh.texCoords = new float[currMesh.vertexNum*2];
 
-			// read the vertex data
-			for (int i=0;i<numVertices;i++)
-			{
-				currMesh.meshFrames[0][i]=new Vec3();            
-				currMesh.meshFrames[0][i].x = dfin.readFloat();
-				currMesh.meshFrames[0][i].y = dfin.readFloat();
-				currMesh.meshFrames[0][i].z = dfin.readFloat();
-				numBytesRead += 12;
-			}
+			// read the vertex data in one go, straight into the first frame
+			dfin.readFloats(currMesh.framePositions[0], 0, numVertices*3);
+			numBytesRead += numVertices*12;
 		}
 		catch(Exception e)
 		{
@@ -227,17 +221,18 @@ public class ThreeDSIO
 			numBytesRead += 2;
 
 			// allocate memory
-			currMesh.triangles = new int[currMesh.triangleNum][3];
+			currMesh.triangleIndices = new int[currMesh.triangleNum*3];
 
-			// read the triangle data
+			// read the triangle data in one go
+			short[] indices = new short[numTris*4];
+			dfin.readShorts(indices, 0, indices.length);
 			for (int i=0;i<numTris;i++)
 			{
-				currMesh.triangles[i][0] = dfin.readShort();
-				currMesh.triangles[i][1] = dfin.readShort();
-				currMesh.triangles[i][2] = dfin.readShort();
+				currMesh.triangleIndices[i*3] = indices[i*4];
+				currMesh.triangleIndices[i*3 + 1] = indices[i*4 + 1];
+				currMesh.triangleIndices[i*3 + 2] = indices[i*4 + 2];
 
 				// there's an extra Flags short after the triangle indexes (typically 0x0007)
-				dfin.readShort();
 				numBytesRead += 8;
 			}
 		}
@@ -257,16 +252,12 @@ public class ThreeDSIO
 
 			// read the number of tex coords
 			short numTexVecs = dfin.readShort();
-			currMesh.textureCoord = new float[numTexVecs][2];
+			currMesh.texCoords = new float[numTexVecs*2];
 			numBytesRead += 2;
 
-			// read the texture coordinate data
-			for (int i=0;i<numTexVecs;i++)
-			{
-				currMesh.textureCoord[i][0] = dfin.readFloat();
-				currMesh.textureCoord[i][1] = dfin.readFloat();
-				numBytesRead += 8;
-			}
+			// read the texture coordinate data in one go
+			dfin.readFloats(currMesh.texCoords, 0, currMesh.texCoords.length);
+			numBytesRead += numTexVecs*8;
 		}
 		catch(Exception e)
 		{
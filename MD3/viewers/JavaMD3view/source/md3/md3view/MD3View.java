@@ -23,6 +23,8 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.util.zip.*;
 
@@ -105,6 +107,21 @@ public class MD3View extends Frame {
    */
   private String baseSavePath;
   
+  /**
+   * <p>Maximum estimated size of the models kept in memory by the model factory.
+   */
+  private static final long MODEL_CACHE_SIZE=32 * 1024 * 1024;
+  
+  /**
+   * <p>Cache of decoded models on disk, null if the cache is not available.
+   */
+  private MD3ModelCache modelCache;
+  
+  /**
+   * <p>The caching factory used by the viewer.
+   */
+  private MD3CachingModelFactory modelFactory;
+  
   //gui resources owned by the viewer
   private FileDialog openDialog;
   private FileDialog saveDialog;
@@ -126,8 +143,19 @@ public class MD3View extends Frame {
   private MD3View(int width, int height) {
     super(FRAME_TITLE);
     
-    //initialize and register our own abstract factory
-    MD3ModelFactory.setFactory(new MD3ViewGLModelFactory());
+    //initialize and register our own abstract factory, wrapped in a cache so
+    //that models that are opened again don't have to be reloaded
+    modelFactory=new MD3CachingModelFactory(new MD3ViewGLModelFactory(), MODEL_CACHE_SIZE);
+    MD3ModelFactory.setFactory(modelFactory);
+    MD3ModelFactory.getFactory().setLazyFrameDecoding(MD3ViewOptions.lazyFrameDecoding);
+    
+    //setup model cache in the user's home directory
+    try {
+    	modelCache=new MD3ModelCache(System.getProperty("user.home") + File.separator + ".md3view" + File.separator + "cache");
+    } catch (SecurityException e) {
+    	modelCache=null; //no cache
+    }
+    updateModelCache();
     
     //load icon
     this.setIconImage(Toolkit.getDefaultToolkit().getImage(MD3View.class.getResource("MD3ViewIcon.gif")));
@@ -175,15 +203,19 @@ import3DSItem.setEnabled(false);
     exportMenu.add(exportTexCoordMapItem);    
     fileMenu.add(exportMenu);    
     fileMenu.addSeparator();
-    MenuItem serializeItem=new MenuItem("Serialize Model...");
+    MenuItem serializeItem=new MenuItem("Save Model Cache...");
     fileMenu.add(serializeItem);
-    MenuItem deserializeItem=new MenuItem("Load Serialized Model...");
+    MenuItem deserializeItem=new MenuItem("Load Model Cache...");
     fileMenu.add(deserializeItem);
     fileMenu.addSeparator();
     MenuItem openPakItem=new MenuItem("Open Pak...", new MenuShortcut((int)'p'));
     fileMenu.add(openPakItem);
+    MenuItem openGameDirItem=new MenuItem("Open Game Directory...");
+    fileMenu.add(openGameDirItem);
     MenuItem closePakItem=new MenuItem("Close Pak");
     fileMenu.add(closePakItem);
+    MenuItem checkPakItem=new MenuItem("Check Pak Dependencies");
+    fileMenu.add(checkPakItem);
     fileMenu.addSeparator();
     MenuItem saveScreenshotItem=new MenuItem("Save Screenshot...");
     fileMenu.add(saveScreenshotItem);
@@ -267,9 +299,7 @@ import3DSItem.setEnabled(false);
         String filename=showOpenDialog("*.md3");        
         //open the requested file
         if (filename!=null) try {
-        	InputStream fin=new FileInputStream(filename);
-          openModel(filename, fin);
-          fin.close();
+          openModel(filename, getDataForPath(filename));
         }
         catch (java.io.IOException ex) {
           showExceptionDialog(ex.getMessage());
@@ -437,12 +467,10 @@ import3DSItem.setEnabled(false);
     serializeItem.addActionListener( new ActionListener() {
       public void actionPerformed(ActionEvent e) {
       	if (md3canvas.getModel()!=null) {
-        	String filename=showSaveDialog(FilenameUtils.getShortFilename(md3canvas.getModel().loadFilename) + ".ser");
+        	String filename=showSaveDialog(FilenameUtils.getShortFilename(md3canvas.getModel().loadFilename) + MD3ModelCache.CACHE_FILE_EXTENSION);
         	//save to the specified file
 	        if (filename!=null) try {
-	          ObjectOutputStream out=new ObjectOutputStream(new FileOutputStream(filename));
-	          out.writeObject(md3canvas.getModel());
-	          out.close();
+	          MD3ModelCache.writeCacheFile(md3canvas.getModel(), filename);
 	        } catch (IOException ex) {
 	          showExceptionDialog(ex.getMessage());
 	        }
@@ -454,13 +482,10 @@ import3DSItem.setEnabled(false);
       
     deserializeItem.addActionListener( new ActionListener() {
       public void actionPerformed(ActionEvent e) {        
-        String filename=showOpenDialog("*.ser");
+        String filename=showOpenDialog("*" + MD3ModelCache.CACHE_FILE_EXTENSION);
         //open the requested file
         if (filename!=null) try {
-    			ObjectInputStream in=new ObjectInputStream(new FileInputStream(filename));
-    			MD3Model model=(MD3Model)in.readObject();
-    			setModel(model);
-    			in.close();
+    			setModel(MD3ModelCache.readCacheFile(filename));
         } catch (Exception ex) {
           showExceptionDialog(ex.getMessage());
         }
@@ -483,6 +508,21 @@ import3DSItem.setEnabled(false);
       }
     });
     
+    openGameDirItem.addActionListener( new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        //select any pak file in the game directory
+        String filename=showOpenDialog("*.pk3");
+        //open the directory of the requested file
+        if (filename!=null) try {
+        	openGameDirectory(new File(filename).getParent());
+        } catch (Exception ex) {
+          showExceptionDialog(ex.getMessage());
+        }
+        
+        md3canvas.sDisplay();
+      }
+    });
+    
     closePakItem.addActionListener( new ActionListener() {
       public void actionPerformed(ActionEvent e) {
       	try {
@@ -493,6 +533,51 @@ import3DSItem.setEnabled(false);
       }
     });
 
+    checkPakItem.addActionListener( new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+      	if (pakFileControl.hasOpenPakFile()) {
+      		if (!pakFileControl.isCatalogReady())
+      			new MessageDialog(MD3View.this, "Missing Dependencies", false, null,
+      			                  new String[] { "Pak files are still being cataloged,", "the report will be shown when done." }, true).setVisible(true);
+      		
+      		//waiting for the catalogs can take a while, don't block the event dispatching thread
+      		Thread reporter=new Thread("MD3ViewDependencyReport") {
+      			public void run() {
+      				try {
+      					String[] missing=pakFileControl.findMissingDependencies();
+      					String[] errors=pakFileControl.getCatalogErrors();
+      					final StringBuffer report=new StringBuffer(missing.length + " missing dependencies\n");
+      					if (errors.length > 0)
+      						report.append(errors.length + " catalog errors, the dependencies of these were not checked\n");
+      					report.append('\n');
+      					for (int i=0; i<missing.length; i++)
+      						report.append(missing[i]).append('\n');
+      					if (errors.length > 0) {
+      						report.append("\nCatalog errors:\n\n");
+      						for (int i=0; i<errors.length; i++)
+      							report.append(errors[i]).append('\n');
+      					}
+      					
+      					EventQueue.invokeLater(new Runnable() {
+      						public void run() {
+      							try {
+      								showTextViewer("Missing Dependencies", new ByteArrayInputStream(report.toString().getBytes()));
+      							} catch (IOException ex) {
+      								showExceptionDialog(ex.getMessage());
+      							}
+      						}
+      					});
+      				} catch (IOException ex) {
+      					showExceptionDialog(ex.getMessage());
+      				}
+      			}
+      		};
+      		reporter.setDaemon(true);
+      		reporter.start();
+      	}
+      }
+    });
+
     saveScreenshotItem.addActionListener( new ActionListener() {
       public void actionPerformed(ActionEvent e) {
       	if (md3canvas.getModel()!=null) {
@@ -567,7 +652,7 @@ import3DSItem.setEnabled(false);
           MD3Texture tex=md3canvas.getTexture();
           String[] text={ tex.loadFilename,
                           "     Dimensions: " + tex.width + "x" + tex.height,
-                          "     Size: " + tex.data.length + " bytes" };
+                          "     Size: " + (tex.width * tex.height * 4) + " bytes" };
           new MessageDialog(MD3View.this, "Texture Properties", false, null, text, true).setVisible(true);
         }
       }
@@ -611,6 +696,7 @@ import3DSItem.setEnabled(false);
         	md3canvas.getModel().accept(new MD3GLModelRefreshTextureVisitor());
         	//upload fresh textures to OpenGL
           md3canvas.getModel().accept(new MD3GLModelUploadTextureVisitor(md3canvas));
+          md3canvas.releaseUnusedTextures();
         }
         md3canvas.sDisplay();
       }
@@ -679,6 +765,9 @@ import3DSItem.setEnabled(false);
     //setup OpenGL drawing Canvas
     md3canvas=new MD3ViewGLCanvas(width, height);
     
+    //prepare mip-maps while loading textures, so they are ready when uploaded
+    MD3ModelFactory.getFactory().setMipMapPrebuilding(md3canvas.mipmapping);
+    
     //put everything together
     this.setBackground(new Color(SystemColor.control.getRGB()));
     this.setLayout(new BorderLayout(3,0));
@@ -736,14 +825,14 @@ import3DSItem.setEnabled(false);
       if (name.toLowerCase().startsWith("lower") && (tagIndex=root.getTagIndexByName("tag_torso")) != -1) {
         //load torso
         filename=searchForPath("upper" + FilenameUtils.getLODPostfix(name) + ".md3", false);
-        root=attachModel(root, tagIndex, filename, getInputStreamForPath(filename));
+        root=attachModel(root, tagIndex, filename, getDataForPath(filename));
       }
       
       name=FilenameUtils.getShortFilename(root.loadFilename);    
       if (name.toLowerCase().startsWith("upper") && (tagIndex=root.getTagIndexByName("tag_head")) != -1) {        
         //load head
         filename=searchForPath("head" + FilenameUtils.getLODPostfix(name) + ".md3", false);
-        attachModel(root, tagIndex, filename, getInputStreamForPath(filename));
+        attachModel(root, tagIndex, filename, getDataForPath(filename));
       }
     }
     catch (IOException e) {
@@ -840,7 +929,17 @@ import3DSItem.setEnabled(false);
    *
    * @param msg The error message that should be shown.
    */
-  public void showExceptionDialog(String msg) {
+  public void showExceptionDialog(final String msg) {
+    if (!EventQueue.isDispatchThread()) {
+      //problems found by background threads are shown by the event dispatching thread
+      EventQueue.invokeLater(new Runnable() {
+        public void run() {
+          showExceptionDialog(msg);
+        }
+      });
+      return;
+    }
+    
     MessageDialog exDialog=new MessageDialog(this, "Exception", true, null, new String[] { msg }, true);
     exDialog.setVisible(true);
   }
@@ -906,33 +1005,12 @@ import3DSItem.setEnabled(false);
   	if (pakFileControl.hasOpenPakFile() &&
         (allDataSources || currentDataSource==MD3ViewDataSource.PAK_FILE)) {
 			//search for path in pak file, case insensitive!
-			if (relativePath.toLowerCase().startsWith("pak://"))
+			if (relativePath.regionMatches(true, 0, "pak://", 0, 6))
 				relativePath=relativePath.substring(6);
 			
-			Enumeration e=pakFileControl.getPakEntries();
-			while(e.hasMoreElements()) {
-	  		ZipEntry entry=(ZipEntry)e.nextElement();
-
-	  		if (entry.getName().toUpperCase().endsWith(relativePath.toUpperCase())) {	  		
-		  		String tmpPath=pakFileControl.basePakFileOpenPath;
-
-		  		do {
-			  		if (entry.getName().toUpperCase().equals((tmpPath + relativePath).toUpperCase()))
-			  			res="pak://" + entry.getName();		  			
-			  		else
-	    				//tmpPath is either empty or ends with a '/', at index > 0
-			  			if (tmpPath.length()==0)
-			  				break;
-			  			else {
-			  				int i;
-			  				if ((i=tmpPath.substring(0, tmpPath.lastIndexOf('/')).lastIndexOf('/')) != -1)		  					
-			  				  tmpPath=tmpPath.substring(0, i+1);
-			  				else
-			  					tmpPath="";
-				  		}
-		  		}	while (res==null);
-	  		}
-		  }
+			String entryName=pakFileControl.findPakEntryName(relativePath);
+			if (entryName!=null)
+				res="pak://" + entryName;
   	}
   	
   	if (res==null && (allDataSources || currentDataSource==MD3ViewDataSource.FILE_SYSTEM)) {  	
@@ -985,6 +1063,37 @@ import3DSItem.setEnabled(false);
   	  return new FileInputStream(filename);  	  		
   }
   
+  /**
+   * <p>Get all data of the specified path, like getInputStreamForPath(). Files
+   * are memory mapped instead of being read.
+   *
+   * @param filename File to look for.
+   * @return Buffer containing the data of given file.
+   */
+  public ByteBuffer getDataForPath(String filename) throws IOException {
+  	if (filename.toLowerCase().startsWith("pak://")) {
+  		if (!pakFileControl.hasOpenPakFile())
+  			throw new IOException("can't read " + filename + ": no pak file open");
+  			
+  		ZipEntry entry=pakFileControl.getPakEntry(filename.substring(6));
+  		
+  		if (entry==null)
+  			throw new FileNotFoundException(filename + " not found");
+  		else
+  			return pakFileControl.getData(entry);
+  	}
+  	else {
+  		FileInputStream fin=new FileInputStream(filename);
+  		try {
+  			FileChannel fc=fin.getChannel();
+  			return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+  		}
+  		finally {
+  			fin.close();
+  		}
+  	}
+  }
+  
   /**
    * <p>Factory method that creates an MD3 Model Viewer Frame. It sets up
    * the menu's and the OpenGL Canvas that is used to display the model. By
@@ -1024,6 +1133,17 @@ import3DSItem.setEnabled(false);
   public void openPakFile(String filename) throws IOException {
     pakFileControl.openPakFile(filename);
   }
+  
+  /**
+   * <p>Open all pak (*.pk3) files and loose files of a game directory,
+   * e.g. baseq3. Files in pak files later in alphabetical order take
+   * precedence, like they do in the game.
+   *
+   * @param dirname Name of game directory to open.
+   */
+  public void openGameDirectory(String dirname) throws IOException {
+    pakFileControl.openGameDirectory(dirname);
+  }
     
   /**
    * <p>Loads an MD3 model from the given input stream and displays it
@@ -1044,7 +1164,48 @@ import3DSItem.setEnabled(false);
     if (MD3ViewOptions.autoLoadSkin)
 	    autoLoadSkin(name);
   }
+  
+  /**
+   * <p>Loads an MD3 model from the data in the given buffer and displays it
+   * in the viewer window.
+   *
+   * @param name Name of file from which model is supposedly loaded.
+   * @param data Buffer containing the model data.
+   */     
+  public void openModel(String name, ByteBuffer data) throws IOException {
+    updateCurrentDataSource(name);
+    
+    MD3Model model=makeModel(name, data);
+    this.setModel(model);
+    
+    if (MD3ViewOptions.autoAssemblePlayerModels)
+    	autoAssemblePlayerModel(model);
+    
+    if (MD3ViewOptions.autoLoadSkin)
+	    autoLoadSkin(name);
+  }
  
+  /**
+   * <p>Enable or disable the disk cache of the model factory according to
+   * the current options.
+   */
+  public void updateModelCache() {
+  	modelFactory.setDiskCache(MD3ViewOptions.cacheDecodedModels ? modelCache : null);
+  }
+  
+  /**
+   * <p>Queue the textures of the displayed model or texture for upload to OpenGL again, e.g.
+   * after the texture options changed.
+   */
+  public void updateTextures() {
+  	if (md3canvas.getModel()!=null)
+  		md3canvas.getModel().accept(new MD3GLModelUploadTextureVisitor(md3canvas));
+  	if (md3canvas.getTexture()!=null)
+  		md3canvas.queueTextureUpload(md3canvas.getTexture());
+  	md3canvas.releaseUnusedTextures(); //textures uploaded with the old options
+  	md3canvas.sDisplay();
+  }
+  
   /**
    * <p>Loads a 3DS model from the given input stream and displays it
    * in the viewer window.
@@ -1090,7 +1251,44 @@ import3DSItem.setEnabled(false);
   	updateCurrentDataSource(childName);
   	
     MD3Model child=MD3ModelFactory.getFactory().makeMD3Model(childName, childIn);
-    //link child model to its parent model at correct tag 'position'
+    return attachModel(to, tag, childName, child);
+  }
+  
+  /**
+   * <p>Attach a child model, read from the given buffer, to a parent model at
+   * the specified tag position of the parent model. Returns the attached child.
+   *
+   * @param to Parent model to connect child to.
+   * @param tag Tag position of parent to connect child to.
+   * @param childName Name of file from which model is supposedly loaded.
+   * @param childData Buffer containing the child model data.
+   */
+  public MD3Model attachModel(MD3Model to, int tag, String childName, ByteBuffer childData) throws IOException {
+  	updateCurrentDataSource(childName);
+  	
+    MD3Model child=makeModel(childName, childData);
+    return attachModel(to, tag, childName, child);
+  }
+  
+  //create a model from the data of the file or pak file entry with the given name,
+  //telling the model cache the modification time and CRC of the source so it
+  //doesn't have to compute a checksum of the data
+  private MD3Model makeModel(String name, ByteBuffer data) throws IOException {
+    if (name.toLowerCase().startsWith("pak://")) {
+      ZipEntry entry=pakFileControl.hasOpenPakFile() ? pakFileControl.getPakEntry(name.substring(6)) : null;
+      if (entry!=null && entry.getCrc()!=-1)
+        return modelFactory.makeMD3Model(name, data, entry.getTime(), entry.getCrc());
+    }
+    else {
+      File f=new File(name);
+      if (f.isFile() && f.length()==data.remaining())
+        return modelFactory.makeMD3Model(name, data, f.lastModified(), 0);
+    }
+    return modelFactory.makeMD3Model(name, data);
+  }
+  
+  //link child model to its parent model at correct tag 'position'
+  private MD3Model attachModel(MD3Model to, int tag, String childName, MD3Model child) {
     to.addLinkedModel(tag, child);
 
     prepareModel(md3canvas.getModel());  	  	
@@ -1113,6 +1311,7 @@ import3DSItem.setEnabled(false);
 	  	else {
 	  		parent.removeLinkedModel(model.getParentTagIndex());
 	  		prepareModel(md3canvas.getModel());
+	  		md3canvas.releaseUnusedTextures();
 	  	}
   	}
   }
@@ -1130,6 +1329,7 @@ import3DSItem.setEnabled(false);
    		MD3Skin skin=MD3ModelFactory.getFactory().makeMD3Skin(in);
       md3canvas.getModel().accept(new MD3ModelApplySkinVisitor(skin));
       md3canvas.getModel().accept(new MD3GLModelUploadTextureVisitor(md3canvas));
+      md3canvas.releaseUnusedTextures();
   	}
   }
   
@@ -1147,6 +1347,7 @@ import3DSItem.setEnabled(false);
     	MD3Texture tex=MD3ModelFactory.getFactory().makeMD3Texture(name, loadFilename, in);
       md3canvas.getModel().accept(new MD3ModelApplyTextureVisitor(tex));
       md3canvas.getModel().accept(new MD3GLModelUploadTextureVisitor(md3canvas));
+      md3canvas.releaseUnusedTextures();
   	}
   }
   
@@ -1163,7 +1364,7 @@ import3DSItem.setEnabled(false);
 
     closeModel();
     MD3GLTexture tex=(MD3GLTexture)MD3ModelFactory.getFactory().makeMD3Texture(name, loadFilename, in);
-    MD3GLModelUploadTextureVisitor.uploadTextureData(md3canvas, tex);
+    md3canvas.queueTextureUpload(tex);
     md3canvas.setTexture(tex);
   }
   
@@ -1194,11 +1395,8 @@ import3DSItem.setEnabled(false);
         md3v.baseOpenPath=f.getParent();
         
         String filename = f.getAbsolutePath();
-        if (filename.toLowerCase().endsWith(".md3")) { //MD3 model
-          InputStream fin=new FileInputStream(f);
-          md3v.openModel(filename, fin);
-          fin.close();
-        }
+        if (filename.toLowerCase().endsWith(".md3")) //MD3 model
+          md3v.openModel(filename, md3v.getDataForPath(filename));
         else //pak file
            md3v.openPakFile(filename);
       }
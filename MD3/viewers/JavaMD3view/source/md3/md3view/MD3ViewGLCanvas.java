@@ -54,6 +54,10 @@ public class MD3ViewGLCanvas extends GLAnimCanvas {
   //possible operation modes of the canvas
   private static final int MODEL_MODE = 0; //Model rendering mode. The current MD3 model will be rendered.
   private static final int TEXTURE_MODE = 1; //Texture rendering mode. The current texture will be rendered.
+
+  //per frame budget for uploading queued textures
+  private static final long UPLOAD_TIME_BUDGET = 8; //milliseconds
+  private static final int UPLOAD_BYTE_BUDGET = 4 * 1024 * 1024;
   
   //state data
   private int mode; //operation mode
@@ -75,6 +79,13 @@ public class MD3ViewGLCanvas extends GLAnimCanvas {
   private float xPos, yPos; //pos in x-y plane, pans model
   private float zPos; //pos on Z axis, scales model
   
+  //textures waiting to be uploaded to OpenGL
+  private MD3ViewTextureUploadQueue uploadQueue=new MD3ViewTextureUploadQueue();
+  
+  //textures resident in OpenGL
+  private MD3ViewTextureResidency residency=new MD3ViewTextureResidency();
+  private boolean releaseUnusedTextures=false;
+  
   /**
    * <p>Does the canvas run in OpenGL debug mode?
    */
@@ -207,6 +218,21 @@ public class MD3ViewGLCanvas extends GLAnimCanvas {
   public void display() {  	
     if( glj.gljMakeCurrent(true) ) {
 			this.shallWeRender=true; //make sure we're rendering
+			
+			//free the textures of models that are no longer displayed
+			if (releaseUnusedTextures) {
+				releaseUnusedTextures=false;
+				Set used=new HashSet();
+				if (model!=null)
+					model.accept(new MD3ModelCollectTexturesVisitor(used));
+				if (texture!=null)
+					used.add(texture);
+				residency.releaseUnused(this, used);
+			}
+			
+			//upload some queued textures, come back for the rest in the next frame
+			if (uploadQueue.upload(this, residency, UPLOAD_TIME_BUDGET, UPLOAD_BYTE_BUDGET))
+				repaint();
       
 	    //prepare the canvas for rendering
 	    gl.glClear( GLEnum.GL_COLOR_BUFFER_BIT | GLEnum.GL_DEPTH_BUFFER_BIT );
@@ -263,6 +289,12 @@ public class MD3ViewGLCanvas extends GLAnimCanvas {
     gl.glEnable(GLEnum.GL_DEPTH_TEST);    
 
     gl.glPixelStorei(GLEnum.GL_UNPACK_ALIGNMENT, 1);  
+    
+    //don't build mip-maps bigger than this OpenGL implementation can handle
+    int[] maxTextureSize=new int[1];
+    gl.glGetIntegerv(GLEnum.GL_MAX_TEXTURE_SIZE, maxTextureSize);
+    if (maxTextureSize[0]>0)
+      MD3MipMaps.setMaximumSize(maxTextureSize[0]);
     gl.glEnable(GLEnum.GL_BLEND);    
     gl.glEnable(GLEnum.GL_NORMALIZE);
        
@@ -325,6 +357,7 @@ public class MD3ViewGLCanvas extends GLAnimCanvas {
     this.model=model;
     resetManipulations();
     mode=MODEL_MODE;
+    releaseUnusedTextures();
   }
   
   /**
@@ -353,8 +386,31 @@ public class MD3ViewGLCanvas extends GLAnimCanvas {
   	this.texture=texture;
   	resetManipulations();
   	mode=TEXTURE_MODE;
+  	releaseUnusedTextures();
   }
 
+  /**
+   * <p>Queue the given texture for upload into the OpenGL context of this canvas.
+   * Queued textures are uploaded while rendering, a few per frame, once their data
+   * is available. Until then they are drawn using a placeholder.
+   *
+   * @see md3.md3view.glmodel.MD3GLTexture#getDrawBind()
+   */
+  public void queueTextureUpload(MD3GLTexture texture) {
+  	uploadQueue.add(texture);
+  	repaint();
+  }
+  
+  /**
+   * <p>Free the OpenGL textures that are not used by the current model or texture
+   * anymore, e.g. after the model has been changed. This is done when the canvas
+   * is rendered next.
+   */
+  public void releaseUnusedTextures() {
+  	releaseUnusedTextures=true;
+  	repaint();
+  }
+  
   /**
    * <p>Return the current texture of this canvas.
    */  
@@ -558,6 +614,10 @@ public class MD3ViewGLCanvas extends GLAnimCanvas {
                 "gl4java.GLUFunc native-lib version: " + glu.getNativeVersion() + "\n" +
                 "\n" +
                 "Mipmapping is " + (mipmapping?"active":"not active") + "\n" +
+                "Decoded " + MD3TextureCache.getStatistics() + "\n" +
+                "Textures waiting for upload: " + uploadQueue.size() + "\n" +
+                "Kept " + MD3ViewTextureMemory.getStatistics() + "\n" +
+                "OpenGL " + residency.getStatistics() + "\n" +
                 "\n" +
                 "-------------------------------------------------\n" +
                 "\n" +
@@ -21,6 +21,8 @@ package md3.md3view;
 
 import java.util.*;
 import java.io.*;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.*;
 
 import md3.md3model.*;
 import md3.md3view.glmodel.*;
@@ -28,14 +30,28 @@ import md3.md3view.glmodel.*;
 /**
  * Abstract factory used by the viewer to create its md3 data objects.
  * The class itself has a static texture resource manager that will
- * cache read texture data.
+ * cache read texture data. Textures can be loaded in the background by a
+ * pool of daemon threads.
  *
  * @author Erwin Vervaet (klr8@fragland.net) 
  */
 public class MD3ViewGLModelFactory extends MD3GLModelFactory {
 
   private static transient Map textureRes=new HashMap();
-    //map of texture names to MD3GLTexture objects, stores texture resources
+    //map of texture names to weak references to MD3GLTexture objects, stores texture
+    //resources as long as they are used by a model or skin
+  
+  private static transient Executor textureLoader=Executors.newFixedThreadPool(
+    Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+      private int count=0;
+      
+      public synchronized Thread newThread(Runnable r) {
+        Thread t=new Thread(r, "MD3ViewTextureLoader-" + (++count));
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    //threads loading textures in the background
     
   /**
    * <p>Factory method that loads a texture and enters it in the texture resource manager.
@@ -43,6 +59,10 @@ public class MD3ViewGLModelFactory extends MD3GLModelFactory {
    * <p>It will use the searchForPath() method of MD3View to resolve the loadFilename, so
    * the texture might be loaded from any data source the MD3View instance has.
    *
+   * <p>When the loadTexturesInBackground option is set, only the location of the texture
+   * is resolved before this method returns. Its data is loaded by a background thread,
+   * after which the texture's loading flag is cleared and the canvas is redrawn.
+   *
    * <p>In case of problems, the GUI (MD3View) will be used to notify the user (doesn't
    * throw exceptions!).
    *
@@ -62,10 +82,7 @@ public class MD3ViewGLModelFactory extends MD3GLModelFactory {
           loadFilename+=".tga";
 
         String path=MD3View.instance().searchForPath(loadFilename, false);
-        InputStream in=MD3View.instance().getInputStreamForPath(path);
-        MD3Texture res=makeMD3Texture(name, path, in);
-        in.close();
-        return res;
+        return loadTexture(name, path);
       }
       catch (IOException e) {
         //try other texture file types
@@ -88,10 +105,7 @@ public class MD3ViewGLModelFactory extends MD3GLModelFactory {
                loadFilename=loadFilename.substring(0, i) + ext;
                
               String path=MD3View.instance().searchForPath(loadFilename, false);
-              InputStream in=MD3View.instance().getInputStreamForPath(path);
-              MD3Texture res=makeMD3Texture(name, path, in);
-              in.close();
-              return res;
+              return loadTexture(name, path);
             }
           } 
           catch (IOException ex) {
@@ -107,28 +121,131 @@ public class MD3ViewGLModelFactory extends MD3GLModelFactory {
     return null;
   }
 
+  /**
+   * <p>Open the encoded texture data at the given path, using any data source the
+   * MD3View instance has.
+   */
+  public InputStream openTextureData(String loadFilename) throws IOException {
+    return MD3View.instance().getInputStreamForPath(loadFilename);
+  }
+  
+  //load the texture at the given path, in the background if the options say so
+  private MD3Texture loadTexture(String name, String path) throws IOException {
+    if (MD3ViewOptions.loadTexturesInBackground)
+      return loadTextureInBackground(name, path);
+    
+    InputStream in=MD3View.instance().getInputStreamForPath(path);
+    MD3Texture res=makeMD3Texture(name, path, in);
+    in.close();
+    return res;
+  }
+  
+  //enter a texture without data in the resource manager and load its data in the background
+  private MD3Texture loadTextureInBackground(String name, final String path) {
+    final MD3GLTexture texture;
+    synchronized (textureRes) {
+      MD3GLTexture res=getTextureResource(path);
+      if (res!=null) {
+        res.name=name;
+        return res;
+      }
+      
+      texture=(MD3GLTexture)makeMD3Texture();
+      texture.name=name;
+      texture.loadFilename=path;
+      texture.loading=true;
+      textureRes.put(path, new WeakReference(texture));
+    }
+    
+    textureLoader.execute(new Runnable() {
+      public void run() {
+        try {
+          InputStream in=MD3View.instance().getInputStreamForPath(path);
+          try {
+            texture.loadData(in);
+          } finally {
+            in.close();
+          }
+        } catch (IOException e) {
+          if (MD3ViewOptions.warningOnTexLoad)  
+            MD3View.instance().showExceptionDialog(e.getMessage());
+        } finally {
+          texture.loading=false; //also when the stream could not be opened
+          MD3View.instance().md3canvas.repaint(); //upload and show the texture
+        }
+      }
+    });
+    
+    return texture;
+  }
+
+  /**
+   * <p>Reload the released data of the given texture in the background and queue the
+   * texture for upload into the given canvas when done. The texture's loading flag is
+   * set while its data is being reloaded.
+   *
+   * @see md3.md3model.MD3Texture#getData()
+   */
+  static void reloadTextureInBackground(final MD3ViewGLCanvas md3canvas, final MD3GLTexture texture) {
+    texture.loading=true;
+    textureLoader.execute(new Runnable() {
+      public void run() {
+        try {
+          texture.getData();
+        } catch (IOException e) {
+          if (MD3ViewOptions.warningOnTexLoad)  
+            MD3View.instance().showExceptionDialog(e.getMessage());
+        } finally {
+          texture.loading=false;
+        }
+        
+        //a texture that could not be reloaded stays unbound
+        if (texture.data!=null) {
+          md3canvas.queueTextureUpload(texture);
+          md3canvas.repaint();
+        }
+      }
+    });
+  }
+
   /**
    * <p>Loads a texture from the given input stream and enters it in the resource manager.
    *
    * <p>In case of problems, the GUI (MD3View) will be used to notify the user (doesn't
-   * throw exceptions!).
+   * throw exceptions!). This method can be called by several threads at once, for
+   * instance while the meshes of a model are decoded in parallel.
    */
   public MD3Texture makeMD3Texture(String name, String loadFilename, InputStream in) {
-    MD3Texture texture=null;
+    MD3Texture texture;
     
-    try {
+    //meshes can be loaded concurrently, guard the shared resource manager, but
+    //don't hold the lock while decoding so textures can be loaded in parallel
+    synchronized (textureRes) {
       // see if it has been loaded into the texture resource manager
-      texture = (MD3GLTexture)textureRes.get(loadFilename);
-  
-      if (texture==null) { // if not we must load a new resource
-        texture=super.makeMD3Texture(name, loadFilename, in);
-          
-        // insert texture keyed by file name
-        textureRes.put(loadFilename, texture);
+      texture = getTextureResource(loadFilename);
+      if (texture!=null) {
+        //record new name
+        texture.name=name;
+        return texture;
+      }
+    }
+    
+    try {
+      // if not we must load a new resource
+      MD3Texture loaded=super.makeMD3Texture(name, loadFilename, in);
+      
+      synchronized (textureRes) {
+        //another thread might have loaded the same texture in the mean time
+        texture = getTextureResource(loadFilename);
+        if (texture==null) {
+          // insert texture keyed by file name
+          texture=loaded;
+          textureRes.put(loadFilename, new WeakReference(texture));
+        }
+        
+        //record new name
+        texture.name=name;
       }
-
-      //record new name
-      texture.name=name;
     } catch (IOException e) {
       if (MD3ViewOptions.warningOnTexLoad)  
         MD3View.instance().showExceptionDialog(e.getMessage());
@@ -137,11 +254,24 @@ public class MD3ViewGLModelFactory extends MD3GLModelFactory {
     return texture;    
   }
 
+  //lookup a texture in the resource manager, forgetting textures that are no longer used,
+  //call with the textureRes lock held
+  private static MD3GLTexture getTextureResource(String loadFilename) {
+    WeakReference ref=(WeakReference)textureRes.get(loadFilename);
+    MD3GLTexture res=ref==null ? null : (MD3GLTexture)ref.get();
+    if (ref!=null && res==null)
+      textureRes.remove(loadFilename);
+    return res;
+  }
+  
   /**
    * <p>Reloads cached texture data from source for given texture, if present in cache.
    */
   public static void refreshTexture(String loadFilename) {
-    MD3GLTexture cachedTex=(MD3GLTexture)textureRes.get(loadFilename);
+    MD3GLTexture cachedTex;
+    synchronized (textureRes) {
+      cachedTex=getTextureResource(loadFilename);
+    }
       
     if (cachedTex!=null)
       try {
@@ -40,7 +40,7 @@ public class MD3ViewGLTextureRenderer {
 		float x=tex.width/8f;
 		float z=tex.height/8f;
 		
-		gl.glBindTexture(GLEnum.GL_TEXTURE_2D, tex.bind);
+		gl.glBindTexture(GLEnum.GL_TEXTURE_2D, tex.getDrawBind());
 
 		gl.glBegin(GLEnum.GL_QUADS);
 		gl.glTexCoord2f(0.0f, 0.0f); 
@@ -23,6 +23,8 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 
+import md3.md3model.*;
+
 import widgets.awt.*;
 
 /**
@@ -35,7 +37,11 @@ public class MD3ViewOptions extends Dialog {
 	
 	private Checkbox warningOnTexLoadCheckbox, tryAltTexTypesCheckbox,
 		               autoLoadSkinCheckbox, autoExportTexturesCheckbox,
-		               autoAssemblePlayerModelsCheckbox;
+		               autoAssemblePlayerModelsCheckbox, lazyFrameDecodingCheckbox,
+		               cacheDecodedModelsCheckbox, bilinearTextureScalingCheckbox,
+		               nearestTextureSizeCheckbox, loadTexturesInBackgroundCheckbox,
+		               releaseTextureDataCheckbox;
+	private Choice textureMemoryBudgetChoice;
 	private Button applyButton;
 	
 	/**
@@ -64,6 +70,49 @@ public class MD3ViewOptions extends Dialog {
 	 */
 	public static boolean autoAssemblePlayerModels=true;
 	
+	/**
+	 * <p>Only decode the animation frames of a model when they are needed?
+	 */
+	public static boolean lazyFrameDecoding=true;
+	
+	/**
+	 * <p>Keep decoded models in a cache on disk so they can be reopened quickly?
+	 */
+	public static boolean cacheDecodedModels=true;
+	
+	/**
+	 * <p>Use bilinear instead of box filtering when scaling textures to power of two
+	 * sizes (only used when not mipmapping)?
+	 */
+	public static boolean bilinearTextureScaling=true;
+	
+	/**
+	 * <p>Scale textures to the nearest power of two size instead of the largest power of
+	 * two not bigger than their size (only used when not mipmapping)?
+	 */
+	public static boolean nearestTextureSize=true;
+	
+	/**
+	 * <p>Load the textures of models and skins in the background, showing the models
+	 * without them until they are available?
+	 */
+	public static boolean loadTexturesInBackground=true;
+	
+	/**
+	 * <p>Release the data of textures that have been uploaded to OpenGL when they
+	 * use more than textureMemoryBudget bytes? Released data is reloaded when needed.
+	 */
+	public static boolean releaseTextureData=false;
+	
+	/**
+	 * <p>Number of bytes of uploaded texture data that is kept in memory when
+	 * releaseTextureData is set.
+	 */
+	public static long textureMemoryBudget=32 * 1024 * 1024;
+	
+	//texture memory budgets that can be chosen, in MB
+	private static final int[] TEXTURE_MEMORY_BUDGETS={ 0, 8, 16, 32, 64, 128, 256 };
+	
 	//apply changes to data members
 	private void apply() {
 		warningOnTexLoad=warningOnTexLoadCheckbox.getState();
@@ -71,6 +120,23 @@ public class MD3ViewOptions extends Dialog {
 		autoLoadSkin=autoLoadSkinCheckbox.getState();
 		autoExportTextures=autoExportTexturesCheckbox.getState();
 		autoAssemblePlayerModels=autoAssemblePlayerModelsCheckbox.getState();
+		lazyFrameDecoding=lazyFrameDecodingCheckbox.getState();
+		cacheDecodedModels=cacheDecodedModelsCheckbox.getState();
+		loadTexturesInBackground=loadTexturesInBackgroundCheckbox.getState();
+		releaseTextureData=releaseTextureDataCheckbox.getState();
+		textureMemoryBudget=TEXTURE_MEMORY_BUDGETS[textureMemoryBudgetChoice.getSelectedIndex()] * 1024L * 1024L;
+		if (releaseTextureData)
+			MD3ViewTextureMemory.trim();
+		else
+			MD3ViewTextureMemory.clear();
+		((MD3View)getOwner()).updateModelCache();
+		if (bilinearTextureScaling!=bilinearTextureScalingCheckbox.getState() ||
+		    nearestTextureSize!=nearestTextureSizeCheckbox.getState()) {
+			bilinearTextureScaling=bilinearTextureScalingCheckbox.getState();
+			nearestTextureSize=nearestTextureSizeCheckbox.getState();
+			((MD3View)getOwner()).updateTextures();
+		}
+		MD3ModelFactory.getFactory().setLazyFrameDecoding(lazyFrameDecoding);
 	}
 	
 	/**
@@ -79,7 +145,7 @@ public class MD3ViewOptions extends Dialog {
 	public MD3ViewOptions(MD3View owner) {				
 		super(owner, "Options", true);
 				
-		Panel3D optionsPanel=new Panel3D(new GridLayout(5,1));
+		Panel3D optionsPanel=new Panel3D(new GridLayout(12,1));
 		
 		warningOnTexLoadCheckbox=new Checkbox("Show warning on texture loading problem");
 		optionsPanel.add(warningOnTexLoadCheckbox);
@@ -91,6 +157,25 @@ public class MD3ViewOptions extends Dialog {
 		optionsPanel.add(autoExportTexturesCheckbox);
 		autoAssemblePlayerModelsCheckbox=new Checkbox("Auto assemble player models");
 		optionsPanel.add(autoAssemblePlayerModelsCheckbox);
+		lazyFrameDecodingCheckbox=new Checkbox("Decode animation frames on demand");
+		optionsPanel.add(lazyFrameDecodingCheckbox);
+		cacheDecodedModelsCheckbox=new Checkbox("Cache decoded models on disk");
+		optionsPanel.add(cacheDecodedModelsCheckbox);
+		bilinearTextureScalingCheckbox=new Checkbox("Bilinear texture scaling");
+		optionsPanel.add(bilinearTextureScalingCheckbox);
+		nearestTextureSizeCheckbox=new Checkbox("Scale textures to nearest power of two");
+		optionsPanel.add(nearestTextureSizeCheckbox);
+		loadTexturesInBackgroundCheckbox=new Checkbox("Load textures in background");
+		optionsPanel.add(loadTexturesInBackgroundCheckbox);
+		releaseTextureDataCheckbox=new Checkbox("Release texture data after upload");
+		optionsPanel.add(releaseTextureDataCheckbox);
+		Panel budgetPanel=new Panel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+		budgetPanel.add(new Label("Texture data kept in memory:"));
+		textureMemoryBudgetChoice=new Choice();
+		for (int i=0;i<TEXTURE_MEMORY_BUDGETS.length;i++)
+			textureMemoryBudgetChoice.add(TEXTURE_MEMORY_BUDGETS[i] + " MB");
+		budgetPanel.add(textureMemoryBudgetChoice);
+		optionsPanel.add(budgetPanel);
 		
 		Panel buttonPanel=new Panel(new FlowLayout(FlowLayout.RIGHT));				
 		Button okButton=new Button("OK");
@@ -112,6 +197,13 @@ public class MD3ViewOptions extends Dialog {
     autoLoadSkinCheckbox.addItemListener(enableApplyListener);
     autoExportTexturesCheckbox.addItemListener(enableApplyListener);
     autoAssemblePlayerModelsCheckbox.addItemListener(enableApplyListener);
+    lazyFrameDecodingCheckbox.addItemListener(enableApplyListener);
+    cacheDecodedModelsCheckbox.addItemListener(enableApplyListener);
+    bilinearTextureScalingCheckbox.addItemListener(enableApplyListener);
+    nearestTextureSizeCheckbox.addItemListener(enableApplyListener);
+    loadTexturesInBackgroundCheckbox.addItemListener(enableApplyListener);
+    releaseTextureDataCheckbox.addItemListener(enableApplyListener);
+    textureMemoryBudgetChoice.addItemListener(enableApplyListener);
     
     okButton.addActionListener(new ActionListener() {
     	public void actionPerformed(ActionEvent e) {
@@ -157,6 +249,16 @@ public class MD3ViewOptions extends Dialog {
  	    autoLoadSkinCheckbox.setState(autoLoadSkin);   	
  	    autoExportTexturesCheckbox.setState(autoExportTextures);
  	    autoAssemblePlayerModelsCheckbox.setState(autoAssemblePlayerModels);
+ 	    lazyFrameDecodingCheckbox.setState(lazyFrameDecoding);
+ 	    cacheDecodedModelsCheckbox.setState(cacheDecodedModels);
+ 	    bilinearTextureScalingCheckbox.setState(bilinearTextureScaling);
+ 	    nearestTextureSizeCheckbox.setState(nearestTextureSize);
+ 	    loadTexturesInBackgroundCheckbox.setState(loadTexturesInBackground);
+ 	    releaseTextureDataCheckbox.setState(releaseTextureData);
+ 	    textureMemoryBudgetChoice.select(TEXTURE_MEMORY_BUDGETS.length-1);
+ 	    for (int i=TEXTURE_MEMORY_BUDGETS.length-1;i>=0;i--)
+ 	    	if (TEXTURE_MEMORY_BUDGETS[i] * 1024L * 1024L >= textureMemoryBudget)
+ 	    		textureMemoryBudgetChoice.select(i);
     	
     	//senter in parent coord. space
       this.setLocation(getOwner().getLocation().x + getOwner().getWidth()/2 - this.getWidth()/2,
@@ -0,0 +1,675 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3view;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+import md3.md3model.*;
+
+/**
+ * <p>Catalog of the assets in a pak (*.pk3) file: models with their header
+ * statistics, skins and the textures they reference, shader scripts with the
+ * shaders they define and the textures those use, textures with their size and
+ * format, and animation.cfg files. Only headers are probed, no model or texture
+ * is actually decoded. The entries of a pak file are cataloged in parallel.
+ *
+ * <p>Catalogs can be stored in an index directory, keyed by the path, size,
+ * modification time and central directory CRC of their pak file, so that they
+ * only need to be built again when the pak file changes.
+ *
+ * <p>The main method of this class catalogs the pak files given on the command
+ * line and reports the missing dependencies of their assets.
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+public class MD3ViewPakCatalog implements Serializable {
+	
+	private static final long serialVersionUID=1L;
+	
+	/**
+	 * <p>Extension of catalog index files.
+	 */
+	public static final String INDEX_FILE_EXTENSION=".pkc";
+	
+	private static final int PARALLEL_CATALOG_THRESHOLD=16;
+	private static final int ENTRIES_PER_TASK=8;
+	
+	private static final int MODEL=0, SKIN=1, SHADER=2, TEXTURE=3, ANIMATION_CFG=4;
+	
+	//number of bytes read from the start of a texture to probe its header
+	private static final int HEADER_PROBE_SIZE=4*1024;
+	
+	public String pakFilename;
+	public long pakSize, pakTime, pakCrc; // key of the catalog
+	public int entryNum; // number of entries in the pak file
+	
+	/**
+	 * <p>Header information of all models.
+	 */
+	public MD3ModelInfo[] models;
+	
+	/**
+	 * <p>Names of all skins and the textures referenced by each of them.
+	 */
+	public String[] skinNames;
+	public String[][] skinTextureNames;
+	
+	/**
+	 * <p>Names of all shader scripts, the shaders defined by each of them and the
+	 * textures used by the stages of those shaders.
+	 */
+	public String[] shaderFileNames;
+	public String[][] shaderNames;
+	public String[][] shaderTextureNames;
+	
+	/**
+	 * <p>Names of all textures with their size, bits per pixel and format.
+	 */
+	public String[] textureNames;
+	public int[] textureWidths, textureHeights, textureDepths;
+	public String[] textureFormats;
+	
+	/**
+	 * <p>Names of all animation.cfg files, with the number of animations and the
+	 * sex defined by each of them.
+	 */
+	public String[] animationCfgNames;
+	public int[] animationCfgAnimationNums;
+	public char[] animationCfgSexes;
+	
+	/**
+	 * <p>Entries that could not be cataloged, with the reason. When the pak file
+	 * itself could not be cataloged, this holds that reason and the catalog is
+	 * empty.
+	 */
+	public String[] errors;
+	
+	private MD3ViewPakCatalog() {
+	}
+	
+	/**
+	 * <p>Build the catalog of the specified pak file.
+	 */
+	public static MD3ViewPakCatalog build(String pakFilename) throws IOException {
+		MD3ViewPakReader reader=new MD3ViewPakReader(new File(pakFilename.trim()));
+		try {
+			return build(reader);
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * <p>Return the catalog of the specified pak file. The catalog is read from
+	 * the given index directory if it holds a catalog of the current contents of
+	 * the pak file, otherwise it is built and stored in the index directory.
+	 */
+	public static MD3ViewPakCatalog get(String pakFilename, String indexDirectory) throws IOException {
+		MD3ViewPakReader reader=new MD3ViewPakReader(new File(pakFilename.trim()));
+		try {
+			return get(reader, new File(indexDirectory));
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * <p>Return the catalog of the pak file read by the given reader, using the
+	 * given index directory.
+	 *
+	 * @see #get(String, String)
+	 */
+	static MD3ViewPakCatalog get(MD3ViewPakReader reader, File indexDirectory) throws IOException {
+		File pak=new File(reader.getName()).getAbsoluteFile();
+		File f=getIndexFile(indexDirectory, pak.getPath());
+		
+		if (f.isFile()) try {
+			ObjectInputStream in=new ObjectInputStream(new BufferedInputStream(new FileInputStream(f)));
+			try {
+				MD3ViewPakCatalog res=(MD3ViewPakCatalog)in.readObject();
+				if (res.pakFilename.equals(pak.getPath()) && res.pakSize==pak.length() &&
+				    res.pakTime==pak.lastModified() && res.pakCrc==reader.getCentralDirectoryCrc())
+					return res;
+			}
+			finally {
+				in.close();
+			}
+		} catch (IOException e) {
+		} catch (ClassNotFoundException e) {
+		} catch (ClassCastException e) {
+		}
+		
+		MD3ViewPakCatalog res=build(reader);
+		try {
+			indexDirectory.mkdirs();
+			//write to a temporary file first so readers never see a partial catalog
+			File tmp=new File(f.getPath() + ".tmp");
+			ObjectOutputStream out=new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeObject(res);
+			}
+			finally {
+				out.close();
+			}
+			try {
+				try {
+					Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			} catch (IOException e) {
+				//the catalog is simply built again next time
+				tmp.delete();
+			}
+		} catch (IOException e) {
+		} catch (SecurityException e) {
+		}
+		return res;
+	}
+	
+	/**
+	 * <p>Return an empty catalog for the pak file read by the given reader, recording
+	 * that it could not be cataloged because of the given problem. Such a catalog is
+	 * never stored in an index directory.
+	 */
+	static MD3ViewPakCatalog failed(MD3ViewPakReader reader, IOException problem) {
+		MD3ViewPakCatalog res=new MD3ViewPakCatalog();
+		res.pakFilename=new File(reader.getName()).getAbsolutePath();
+		res.entryNum=reader.size();
+		res.models=new MD3ModelInfo[0];
+		res.skinNames=new String[0];
+		res.skinTextureNames=new String[0][];
+		res.shaderFileNames=new String[0];
+		res.shaderNames=new String[0][];
+		res.shaderTextureNames=new String[0][];
+		res.textureNames=new String[0];
+		res.textureWidths=new int[0];
+		res.textureHeights=new int[0];
+		res.textureDepths=new int[0];
+		res.textureFormats=new String[0];
+		res.animationCfgNames=new String[0];
+		res.animationCfgAnimationNums=new int[0];
+		res.animationCfgSexes=new char[0];
+		res.errors=new String[] { "pak file could not be cataloged: " + problem.getMessage() };
+		return res;
+	}
+	
+	/**
+	 * <p>Build the catalog of the pak file read by the given reader.
+	 */
+	static MD3ViewPakCatalog build(MD3ViewPakReader reader) throws IOException {
+		File pak=new File(reader.getName()).getAbsoluteFile();
+		MD3ViewPakCatalog res=new MD3ViewPakCatalog();
+		res.pakFilename=pak.getPath();
+		res.pakSize=pak.length();
+		res.pakTime=pak.lastModified();
+		res.pakCrc=reader.getCentralDirectoryCrc();
+		res.entryNum=reader.size();
+		
+		//probe all entries
+		MD3ModelFactory factory=MD3ModelFactory.getFactory();
+		EntryInfo[] infos=new EntryInfo[reader.size()];
+		if (factory.isParallelDecoding() &&
+		    ForkJoinPool.getCommonPoolParallelism() > 1 &&
+		    infos.length >= PARALLEL_CATALOG_THRESHOLD)
+			ForkJoinPool.commonPool().invoke(new EntriesTask(reader, factory, infos, 0, infos.length));
+		else
+			probeEntries(reader, factory, infos, 0, infos.length);
+		
+		//collect the results in pak file order
+		List models=new ArrayList(), skins=new ArrayList(), shaders=new ArrayList(),
+		     textures=new ArrayList(), animationCfgs=new ArrayList(), errors=new ArrayList();
+		for (int i=0; i<infos.length; i++)
+			if (infos[i]!=null) {
+				if (infos[i].error!=null)
+					errors.add(reader.getName(i) + ": " + infos[i].error);
+				else if (infos[i].kind==MODEL)
+					models.add(infos[i].model);
+				else if (infos[i].kind==SKIN)
+					skins.add(infos[i]);
+				else if (infos[i].kind==SHADER)
+					shaders.add(infos[i]);
+				else if (infos[i].kind==TEXTURE)
+					textures.add(infos[i]);
+				else
+					animationCfgs.add(infos[i]);
+			}
+		
+		res.models=(MD3ModelInfo[])models.toArray(new MD3ModelInfo[models.size()]);
+		
+		res.skinNames=new String[skins.size()];
+		res.skinTextureNames=new String[skins.size()][];
+		for (int i=0; i<skins.size(); i++) {
+			EntryInfo info=(EntryInfo)skins.get(i);
+			res.skinNames[i]=info.name;
+			res.skinTextureNames[i]=info.references;
+		}
+		
+		res.shaderFileNames=new String[shaders.size()];
+		res.shaderNames=new String[shaders.size()][];
+		res.shaderTextureNames=new String[shaders.size()][];
+		for (int i=0; i<shaders.size(); i++) {
+			EntryInfo info=(EntryInfo)shaders.get(i);
+			res.shaderFileNames[i]=info.name;
+			res.shaderNames[i]=info.definitions;
+			res.shaderTextureNames[i]=info.references;
+		}
+		
+		res.textureNames=new String[textures.size()];
+		res.textureWidths=new int[textures.size()];
+		res.textureHeights=new int[textures.size()];
+		res.textureDepths=new int[textures.size()];
+		res.textureFormats=new String[textures.size()];
+		for (int i=0; i<textures.size(); i++) {
+			EntryInfo info=(EntryInfo)textures.get(i);
+			res.textureNames[i]=info.name;
+			res.textureWidths[i]=info.width;
+			res.textureHeights[i]=info.height;
+			res.textureDepths[i]=info.depth;
+			res.textureFormats[i]=info.format;
+		}
+		
+		res.animationCfgNames=new String[animationCfgs.size()];
+		res.animationCfgAnimationNums=new int[animationCfgs.size()];
+		res.animationCfgSexes=new char[animationCfgs.size()];
+		for (int i=0; i<animationCfgs.size(); i++) {
+			EntryInfo info=(EntryInfo)animationCfgs.get(i);
+			res.animationCfgNames[i]=info.name;
+			res.animationCfgAnimationNums[i]=info.animationNum;
+			res.animationCfgSexes[i]=info.sex;
+		}
+		
+		res.errors=(String[])errors.toArray(new String[errors.size()]);
+		
+		return res;
+	}
+	
+	/**
+	 * <p>Return the texture and shader references of the models, skins and shaders
+	 * in the given catalogs that can not be resolved. A reference is resolved by a
+	 * texture or shader with the same name, ignoring case and extension, in any of
+	 * the catalogs or by one of the given other files (e.g. loose files).
+	 *
+	 * @param catalogs Catalogs to check.
+	 * @param otherFiles Names of other available files, or null if none.
+	 * @return Description of each missing dependency: pak file, entry and reference.
+	 */
+	public static String[] findMissingDependencies(MD3ViewPakCatalog[] catalogs, String[] otherFiles) {
+		Set available=new HashSet();
+		for (int i=0; i<catalogs.length; i++) {
+			for (int j=0; j<catalogs[i].textureNames.length; j++)
+				available.add(getReferenceKey(catalogs[i].textureNames[j]));
+			for (int j=0; j<catalogs[i].shaderNames.length; j++)
+				for (int k=0; k<catalogs[i].shaderNames[j].length; k++)
+					available.add(getReferenceKey(catalogs[i].shaderNames[j][k]));
+		}
+		if (otherFiles!=null)
+			for (int i=0; i<otherFiles.length; i++)
+				available.add(getReferenceKey(otherFiles[i]));
+		
+		List res=new ArrayList();
+		for (int i=0; i<catalogs.length; i++) {
+			String pakName=new File(catalogs[i].pakFilename).getName();
+			for (int j=0; j<catalogs[i].models.length; j++)
+				addMissing(res, available, pakName, catalogs[i].models[j].loadFilename, catalogs[i].models[j].getShaderNames());
+			for (int j=0; j<catalogs[i].skinNames.length; j++)
+				addMissing(res, available, pakName, catalogs[i].skinNames[j], catalogs[i].skinTextureNames[j]);
+			for (int j=0; j<catalogs[i].shaderFileNames.length; j++)
+				addMissing(res, available, pakName, catalogs[i].shaderFileNames[j], catalogs[i].shaderTextureNames[j]);
+		}
+		return (String[])res.toArray(new String[res.size()]);
+	}
+	
+	public String toString() {
+		return new File(pakFilename).getName() + ": " + entryNum + " entries, " + models.length + " models, " +
+			skinNames.length + " skins, " + shaderFileNames.length + " shader files, " + textureNames.length + " textures, " +
+			animationCfgNames.length + " animation configs, " + errors.length + " errors";
+	}
+	
+	/**
+	 * <p>Catalog the pak files or game directories given on the command line and
+	 * print the missing dependencies. Usage:
+	 * <pre>
+	 * java md3.md3view.MD3ViewPakCatalog [-index directory] pakfile|directory...
+	 * </pre>
+	 */
+	public static void main(String[] args) {
+		if (MD3ModelFactory.getFactory()==null)
+			MD3ModelFactory.setFactory(new MD3ModelFactory());
+		
+		String indexDirectory=null;
+		List paks=new ArrayList();
+		try {
+			for (int i=0; i<args.length; i++)
+				if (args[i].equals("-index") && i+1<args.length)
+					indexDirectory=args[++i];
+				else {
+					File f=new File(args[i]);
+					if (f.isDirectory()) {
+						File[] mountPoints=MD3ViewPakFileSystem.getGameDirectoryMountPoints(f);
+						for (int j=1; j<mountPoints.length; j++) //skip the directory itself
+							paks.add(mountPoints[j].getPath());
+					}
+					else
+						paks.add(f.getPath());
+				}
+			
+			if (paks.isEmpty()) {
+				System.out.println("usage: java md3.md3view.MD3ViewPakCatalog [-index directory] pakfile|directory...");
+				return;
+			}
+			
+			MD3ViewPakCatalog[] catalogs=new MD3ViewPakCatalog[paks.size()];
+			for (int i=0; i<catalogs.length; i++) {
+				String pak=(String)paks.get(i);
+				catalogs[i]=indexDirectory!=null ? get(pak, indexDirectory) : build(pak);
+				System.out.println(catalogs[i]);
+				for (int j=0; j<catalogs[i].errors.length; j++)
+					System.out.println("  error: " + catalogs[i].errors[j]);
+			}
+			
+			String[] missing=findMissingDependencies(catalogs, null);
+			System.out.println(missing.length + " missing dependencies");
+			for (int i=0; i<missing.length; i++)
+				System.out.println("  " + missing[i]);
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+	
+	/**
+	 * <p>Return the index file used for the pak file with the given path. Different
+	 * paths can map to the same file, the path stored in the file decides.
+	 */
+	private static File getIndexFile(File indexDirectory, String pakPath) {
+		CRC32 crc=new CRC32();
+		byte[] b=pakPath.getBytes();
+		crc.update(b, 0, b.length);
+		return new File(indexDirectory, Long.toHexString(crc.getValue()) + "_" + Integer.toHexString(pakPath.hashCode()) + INDEX_FILE_EXTENSION);
+	}
+	
+	private static void addMissing(List res, Set available, String pakName, String entryName, String[] references) {
+		for (int i=0; i<references.length; i++)
+			if (references[i].trim().length() > 0 && !available.contains(getReferenceKey(references[i])))
+				res.add(pakName + ": " + entryName + " references " + references[i]);
+	}
+	
+	//normalize a texture or shader name: lower case, forward slashes and no extension
+	private static String getReferenceKey(String name) {
+		String res=name.trim().replace('\\', '/').toLowerCase();
+		int i=res.lastIndexOf('.');
+		return i > res.lastIndexOf('/') ? res.substring(0, i) : res;
+	}
+	
+	//probe the entries with numbers in [from, to[
+	private static void probeEntries(MD3ViewPakReader reader, MD3ModelFactory factory, EntryInfo[] infos, int from, int to) {
+		for (int i=from; i<to; i++)
+			infos[i]=probeEntry(reader, factory, i);
+	}
+	
+	//probe the given entry, returns null if the entry is not an asset
+	private static EntryInfo probeEntry(MD3ViewPakReader reader, MD3ModelFactory factory, int entry) {
+		String name=reader.getName(entry);
+		String lowerName=name.toLowerCase();
+		
+		int kind;
+		if (reader.isDirectory(entry))
+			return null;
+		else if (lowerName.endsWith(".md3"))
+			kind=MODEL;
+		else if (lowerName.endsWith(".skin"))
+			kind=SKIN;
+		else if (lowerName.endsWith(".shader"))
+			kind=SHADER;
+		else if (lowerName.endsWith(".tga") || lowerName.endsWith(".jpg") || lowerName.endsWith(".jpeg"))
+			kind=TEXTURE;
+		else if (lowerName.endsWith("animation.cfg"))
+			kind=ANIMATION_CFG;
+		else
+			return null;
+		
+		EntryInfo res=new EntryInfo(kind, name);
+		ByteBuffer data=null;
+		try {
+			//only the header of a texture is needed, don't inflate all of it
+			data=kind==TEXTURE ? reader.getData(entry, HEADER_PROBE_SIZE) : reader.getData(entry);
+			if (kind==MODEL)
+				res.model=factory.probeMD3Model(name, data);
+			else if (kind==SKIN)
+				probeSkin(res, getText(data));
+			else if (kind==SHADER)
+				probeShader(res, getText(data));
+			else if (kind==TEXTURE) {
+				if (lowerName.endsWith(".tga"))
+					probeTGA(res, data);
+				else if (!probeJPEG(res, data)) {
+					if (data.remaining() < reader.getSize(entry)) {
+						//big segments in front of the frame header, look at the whole file
+						MD3ViewPakReader.release(data);
+						data=null;
+						data=reader.getData(entry);
+					}
+					if (!probeJPEG(res, data))
+						throw new IOException("no JPEG frame header");
+				}
+			}
+			else {
+				AnimationCfg cfg=factory.makeAnimationCfg(new ByteArrayInputStream(getText(data).getBytes("ISO-8859-1")));
+				for (Iterator it=cfg.animationNames(); it.hasNext(); it.next())
+					res.animationNum++;
+				res.sex=cfg.sex;
+			}
+		} catch (IOException e) {
+			res.error=e.getMessage();
+		} catch (RuntimeException e) { //e.g. number format errors in animation.cfg files
+			res.error=e.toString();
+		}
+		finally {
+			if (data!=null)
+				MD3ViewPakReader.release(data);
+		}
+		return res;
+	}
+	
+	private static String getText(ByteBuffer data) throws IOException {
+		byte[] b=new byte[data.remaining()];
+		data.duplicate().get(b);
+		return new String(b, "ISO-8859-1");
+	}
+	
+	//collect the textures of a skin, lines have a meshname,texturename format
+	private static void probeSkin(EntryInfo info, String text) {
+		List textures=new ArrayList();
+		StringTokenizer lines=new StringTokenizer(text, "\n\r");
+		while (lines.hasMoreTokens()) {
+			StringTokenizer st=new StringTokenizer(lines.nextToken().trim(), ",");
+			if (st.countTokens()==2) { //ignore lines with 0, 1 or more than 2 tokens
+				st.nextToken();
+				String textureName=st.nextToken().trim();
+				if (textureName.length() > 0 && !textures.contains(textureName))
+					textures.add(textureName);
+			}
+		}
+		info.references=(String[])textures.toArray(new String[textures.size()]);
+	}
+	
+	//collect the shaders defined in a shader script and the textures used by their stages
+	private static void probeShader(EntryInfo info, String text) {
+		List shaders=new ArrayList(), textures=new ArrayList();
+		String lastToken=null;
+		int depth=0;
+		
+		StringTokenizer lines=new StringTokenizer(text, "\n\r");
+		while (lines.hasMoreTokens()) {
+			String line=lines.nextToken();
+			int i=line.indexOf("//");
+			if (i!=-1)
+				line=line.substring(0, i);
+			
+			StringTokenizer st=new StringTokenizer(line, " \t{}", true);
+			String keyword=null; //first token of the line
+			int argNum=0;
+			while (st.hasMoreTokens()) {
+				String token=st.nextToken();
+				if (token.equals(" ") || token.equals("\t"))
+					continue;
+				
+				if (token.equals("{")) {
+					if (depth==0 && lastToken!=null)
+						shaders.add(lastToken);
+					depth++;
+				}
+				else if (token.equals("}"))
+					depth=Math.max(0, depth-1);
+				else if (depth==0)
+					lastToken=token;
+				else if (keyword==null)
+					keyword=token.toLowerCase();
+				else if (depth==2 && (keyword.equals("map") || keyword.equals("clampmap") ||
+				                      (keyword.equals("animmap") && argNum > 0))) {
+					//stage texture, $lightmap and the like are not files
+					if (!token.startsWith("$") && !token.startsWith("*") && !textures.contains(token))
+						textures.add(token);
+					argNum++;
+				}
+				else
+					argNum++;
+			}
+		}
+		
+		info.definitions=(String[])shaders.toArray(new String[shaders.size()]);
+		info.references=(String[])textures.toArray(new String[textures.size()]);
+	}
+	
+	//read size and format from a TGA header
+	private static void probeTGA(EntryInfo info, ByteBuffer data) throws IOException {
+		int p=data.position();
+		if (data.remaining() < 18)
+			throw new IOException("truncated TGA header");
+		
+		int type=data.get(p+2) & 0xff;
+		info.width=(data.get(p+12) & 0xff) | ((data.get(p+13) & 0xff) << 8);
+		info.height=(data.get(p+14) & 0xff) | ((data.get(p+15) & 0xff) << 8);
+		info.depth=data.get(p+16) & 0xff;
+		
+		switch (type & ~8) {
+			case 1: info.format="TGA color mapped"; break;
+			case 2: info.format="TGA true color"; break;
+			case 3: info.format="TGA grayscale"; break;
+			default: throw new IOException("unsupported TGA image type " + type);
+		}
+		if ((type & 8)!=0)
+			info.format+=" RLE";
+	}
+	
+	//read size and format from the frame header of a JPEG file, returns false if the
+	//given data ends before the frame header
+	private static boolean probeJPEG(EntryInfo info, ByteBuffer data) throws IOException {
+		int p=data.position(), end=data.limit();
+		if (end-p < 4 || (data.get(p) & 0xff)!=0xFF || (data.get(p+1) & 0xff)!=0xD8)
+			throw new IOException("not a JPEG file");
+		p+=2;
+		
+		while (p+4 <= end) {
+			if ((data.get(p) & 0xff)!=0xFF)
+				throw new IOException("corrupt JPEG file");
+			int marker=data.get(p+1) & 0xff;
+			if (marker==0xFF) { //fill byte
+				p++;
+				continue;
+			}
+			if (marker==0xD9 || marker==0xDA) //end of image or start of scan
+				throw new IOException("no JPEG frame header");
+			
+			int length=((data.get(p+2) & 0xff) << 8) | (data.get(p+3) & 0xff);
+			if (marker >= 0xC0 && marker <= 0xCF && marker!=0xC4 && marker!=0xC8 && marker!=0xCC) {
+				if (p+10 > end)
+					return false;
+				info.height=((data.get(p+5) & 0xff) << 8) | (data.get(p+6) & 0xff);
+				info.width=((data.get(p+7) & 0xff) << 8) | (data.get(p+8) & 0xff);
+				info.depth=(data.get(p+9) & 0xff) * 8;
+				info.format=marker==0xC2 || marker==0xC6 || marker==0xCA || marker==0xCE ? "JPEG progressive" : "JPEG baseline";
+				return true;
+			}
+			p+=2+length;
+		}
+		return false;
+	}
+	
+	/**
+	 * <p>Information about a single pak file entry.
+	 */
+	private static class EntryInfo {
+		
+		public int kind;
+		public String name;
+		public String error;
+		public MD3ModelInfo model;
+		public String[] definitions, references;
+		public int width, height, depth; //texture
+		public String format;
+		public int animationNum; //animation.cfg
+		public char sex;
+		
+		public EntryInfo(int kind, String name) {
+			this.kind=kind;
+			this.name=name;
+		}
+	}
+	
+	/**
+	 * <p>Task probing a range of pak file entries, splitting the range
+	 * in subtasks when it is large.
+	 */
+	private static class EntriesTask extends RecursiveAction {
+		
+		private static final long serialVersionUID=1L;
+		
+		private MD3ViewPakReader reader;
+		private MD3ModelFactory factory;
+		private EntryInfo[] infos;
+		private int lo, hi;
+		
+		public EntriesTask(MD3ViewPakReader reader, MD3ModelFactory factory, EntryInfo[] infos, int lo, int hi) {
+			this.reader=reader;
+			this.factory=factory;
+			this.infos=infos;
+			this.lo=lo;
+			this.hi=hi;
+		}
+		
+		protected void compute() {
+			if (hi-lo <= ENTRIES_PER_TASK)
+				probeEntries(reader, factory, infos, lo, hi);
+			else {
+				int mid=(lo+hi) >>> 1;
+				invokeAll(new EntriesTask(reader, factory, infos, lo, mid),
+				          new EntriesTask(reader, factory, infos, mid, hi));
+			}
+		}
+	}
+}
@@ -22,9 +22,11 @@ package md3.md3view;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.zip.*;
 
+import md3.md3model.*;
 import md3.util.*;
 import md3.md3view.visitor.*;
 
@@ -42,7 +44,10 @@ public class MD3ViewPakFileControl extends ScrollPane {
 	
 	private Tree pakFileTree;
 	private MD3View viewFrame;		
-	private ZipFile zipFile;
+	private volatile MD3ViewPakFileSystem fileSystem;
+	private volatile MD3ViewPakCatalog[] catalogs;
+	private Thread catalogThread;
+	private File catalogDirectory;
 	private Menu attachToMenu, applyToMeshMenu;
 	private Image unknownIcon, skinIcon, textureIcon, textIcon, shaderIcon;	
 	
@@ -57,7 +62,15 @@ public class MD3ViewPakFileControl extends ScrollPane {
 	public MD3ViewPakFileControl(MD3View container) {
 		super(ScrollPane.SCROLLBARS_AS_NEEDED);
 		 	
-  	zipFile=null;
+  	fileSystem=null;
+  	catalogs=null;
+  	
+  	//catalogs are stored in the user's home directory
+  	try {
+  		catalogDirectory=new File(System.getProperty("user.home") + File.separator + ".md3view" + File.separator + "catalog");
+  	} catch (SecurityException e) {
+  		catalogDirectory=null; //don't store catalogs
+  	}
   	
 		//setup tree
 		
@@ -163,16 +176,21 @@ public class MD3ViewPakFileControl extends ScrollPane {
 			public void actionPerformed(ActionEvent event) {
 				ZipEntry ze=(ZipEntry)pakFileTree.getSelectedNode().getContent();
 				
+				Vector lines=new Vector(Arrays.asList(new String[] {
+					"Complete File Name: " + ze.getName(),
+					"Location: " + fileSystem.getLocation(ze),
+					"",
+					"File Size: " + ze.getSize() + " bytes",
+					"Compressed Size: " + ze.getCompressedSize() + " bytes",
+					"Modified: " + new Date(ze.getTime()), 
+					"CRC: " + (ze.getCrc()==-1 ? "unknown" : Long.toHexString(ze.getCrc()))
+				}));
+				addCatalogInfo(ze.getName(), lines);
+				
 				new MessageDialog(viewFrame,
 					                pakFileTree.getSelectedNode().getName() + " File Properties",
 					                false, null,
-					                new String[] { "Complete File Name: " + ze.getName(),
-					                	             "",
-					                	             "File Size: " + ze.getSize() + " bytes",
-					                	             "Compressed Size: " + ze.getCompressedSize() + " bytes",
-					                	             "Modified: " + new Date(ze.getTime()), 
-					                	             "CRC: " + Long.toHexString(ze.getCrc())
-					                	           },
+					                (String[])lines.toArray(new String[lines.size()]),
 					                true).setVisible(true);
 			}			  				
 		});
@@ -230,9 +248,7 @@ public class MD3ViewPakFileControl extends ScrollPane {
 	//utility method to open a model in the appliction
 	private void openModel(ZipEntry entry) {
 		try {
-			InputStream in=getInputStream(entry);
-			viewFrame.openModel("pak://" + entry.getName(), in);
-			in.close();
+			viewFrame.openModel("pak://" + entry.getName(), getData(entry));
     }
     catch (java.io.IOException ex) {
       viewFrame.showExceptionDialog(ex.getMessage());
@@ -325,17 +341,35 @@ public class MD3ViewPakFileControl extends ScrollPane {
    */	
 	public void openPakFile(String filename) throws IOException {
 		closePakFile();
-		zipFile=new ZipFile(filename);
-		
+		File f=new File(filename.trim());
+		mount(new MD3ViewPakFileSystem(f.getName(), new File[] { f }));
+	}
+	
+  /**
+   * <p>Open all pak files and loose files of the given game directory
+   * (e.g. baseq3) and display the merged contents in the widget. Pak files
+   * shadow loose files and pak files later in alphabetical order shadow
+   * earlier ones, as in Quake 3.
+   */	
+	public void openGameDirectory(String dirname) throws IOException {
+		closePakFile();
+		File dir=new File(dirname.trim());
+		mount(new MD3ViewPakFileSystem(dir.getName(), MD3ViewPakFileSystem.getGameDirectoryMountPoints(dir)));
+	}
+	
+	//make given file system the current one and display its contents
+	private void mount(MD3ViewPakFileSystem fs) {
 		basePakFileOpenPath="";
+		fileSystem=fs;
+		startCatalog(fs);
 		
 		//create root
-		TreeNode root=new TreeNode(null, new File(filename.trim()).getName());
+		TreeNode root=new TreeNode(null, fs.getName());
 		
 		//add children
-		Enumeration e=zipFile.entries();
-		while(e.hasMoreElements()) {
-			ZipEntry ze=(ZipEntry)e.nextElement();
+		MD3ViewPakIndex index=fs.getIndex();
+		for (int i=0; i<index.size(); i++) {
+			ZipEntry ze=(ZipEntry)index.getEntry(i);
 			
 			TreeNode newNode=addUsingPath(root, ze.getName().toLowerCase());
 			newNode.setContent(ze);
@@ -401,37 +435,195 @@ public class MD3ViewPakFileControl extends ScrollPane {
 		pakFileTree.redraw();
 	}
 	
+	//catalog the pak files of given file system in the background
+	private void startCatalog(final MD3ViewPakFileSystem fs) {
+		catalogs=null;
+		catalogThread=new Thread("MD3ViewPakCatalog") {
+			public void run() {
+				MD3ViewPakReader[] readers=fs.getPakReaders();
+				MD3ViewPakCatalog[] res=new MD3ViewPakCatalog[readers.length];
+				for (int i=0; i<readers.length; i++)
+					try {
+						res[i]=catalogDirectory!=null ? MD3ViewPakCatalog.get(readers[i], catalogDirectory) : MD3ViewPakCatalog.build(readers[i]);
+					} catch (IOException e) {
+						//keep the problem, so reports show the pak file was not checked
+						res[i]=MD3ViewPakCatalog.failed(readers[i], e);
+					}
+				if (fileSystem==fs) //not closed in the mean time
+					catalogs=res;
+			}
+		};
+		catalogThread.setDaemon(true);
+		catalogThread.setPriority(Thread.MIN_PRIORITY);
+		catalogThread.start();
+	}
+	
+	//add the catalog information of the entry with given name, if available
+	private void addCatalogInfo(String name, Vector lines) {
+		MD3ViewPakCatalog[] catalogs=this.catalogs;
+		if (catalogs==null)
+			return;
+		
+		//search the pak file with the highest priority first
+		for (int i=catalogs.length-1; i>=0; i--) {
+			for (int j=0; j<catalogs[i].models.length; j++)
+				if (catalogs[i].models[j].loadFilename.equals(name)) {
+					MD3ModelInfo info=catalogs[i].models[j];
+					lines.add("");
+					lines.add(info.boneFrameNum + " frames, " + info.tagNum + " tags, " + info.meshNum + " meshes");
+					lines.add(info.vertexNum + " vertices, " + info.triangleNum + " triangles");
+					return;
+				}
+			for (int j=0; j<catalogs[i].textureNames.length; j++)
+				if (catalogs[i].textureNames[j].equals(name)) {
+					lines.add("");
+					lines.add("Image: " + catalogs[i].textureWidths[j] + "x" + catalogs[i].textureHeights[j] + ", " +
+					          catalogs[i].textureDepths[j] + " bits per pixel, " + catalogs[i].textureFormats[j]);
+					return;
+				}
+		}
+	}
+	
+	/**
+	 * <p>Return the catalogs of the pak files that are currently open, waiting
+	 * for them to be built if necessary. Pak files that could not be cataloged
+	 * have an empty catalog recording the problem. Returns null when no pak file
+	 * is open.
+	 *
+	 * <p>Building the catalogs of a large game directory takes a while, so this
+	 * should not be called by the event dispatching thread.
+	 *
+	 * @see #isCatalogReady()
+	 */
+	public MD3ViewPakCatalog[] getCatalogs() {
+		Thread t=catalogThread;
+		if (t!=null) try {
+			t.join();
+		} catch (InterruptedException e) {
+		}
+		return catalogs;
+	}
+	
+	/**
+	 * <p>Have the catalogs of the open pak files been built?
+	 */
+	public boolean isCatalogReady() {
+		return catalogs!=null;
+	}
+	
+	/**
+	 * <p>Return the texture and shader references of the assets in the open pak
+	 * files that can not be resolved, taking loose files into account. This waits
+	 * for the catalogs, like getCatalogs(). The references of assets that could not
+	 * be cataloged are not checked, see getCatalogErrors().
+	 *
+	 * @exception IOException When the pak files were closed before they were cataloged.
+	 * @see MD3ViewPakCatalog#findMissingDependencies(MD3ViewPakCatalog[], String[])
+	 */
+	public String[] findMissingDependencies() throws IOException {
+		MD3ViewPakFileSystem fs=fileSystem;
+		MD3ViewPakCatalog[] catalogs=getCatalogs();
+		if (fs==null || catalogs==null)
+			throw new IOException("no pak file catalog available");
+		
+		String[] names=new String[fs.getIndex().size()];
+		for (int i=0; i<names.length; i++)
+			names[i]=fs.getIndex().getName(i);
+		return MD3ViewPakCatalog.findMissingDependencies(catalogs, names);
+	}
+	
+	/**
+	 * <p>Return the problems found while cataloging the open pak files: pak files
+	 * that could not be cataloged and entries that could not be probed. This waits
+	 * for the catalogs, like getCatalogs().
+	 */
+	public String[] getCatalogErrors() {
+		MD3ViewPakCatalog[] catalogs=getCatalogs();
+		Vector res=new Vector();
+		if (catalogs!=null)
+			for (int i=0; i<catalogs.length; i++)
+				for (int j=0; j<catalogs[i].errors.length; j++)
+					res.add(new File(catalogs[i].pakFilename).getName() + ": " + catalogs[i].errors[j]);
+		String[] errors=new String[res.size()];
+		res.copyInto(errors);
+		return errors;
+	}
+	
 	/**
 	 * <p>Close the current pak file of the control.
 	 */
 	public void closePakFile() throws IOException {
 		pakFileTree.setRoot(null);
 		pakFileTree.redraw();
-		if (zipFile!=null)
-			zipFile.close();
-		zipFile=null;
+		MD3ViewPakFileSystem fs=fileSystem;
+		fileSystem=null;
+		catalogs=null;
+		catalogThread=null;
+		if (fs!=null)
+			fs.close();
 	}
 	
 	/**
 	 * <p>Is there currently a pak file open in the control?
 	 */
 	public boolean hasOpenPakFile() {
-		return zipFile!=null;
+		return fileSystem!=null;
 	}
 	
 	/**
-	 * <p>Return a ZipEntry from the pak file for the given name, or null
-	 * if name is not found.
+	 * <p>Return a ZipEntry from the pak file for the given name, ignoring case,
+	 * or null if name is not found.
 	 */
 	public ZipEntry getPakEntry(String name) {
-		return zipFile.getEntry(name);
+		MD3ViewPakFileSystem fs=fileSystem;
+		return fs==null ? null : fs.getEntry(name);
+	}
+	
+	/**
+	 * <p>Return the complete name of the pak file entry matching the given path,
+	 * ignoring case, or null if there is no such entry. The path is taken to be
+	 * relative to the base pak file open path or to one of its parent directories,
+	 * which are tried in turn.
+	 */
+	public String findPakEntryName(String relativePath) {
+		MD3ViewPakFileSystem fs=fileSystem;
+		if (fs==null)
+			return null;
+		int i=fs.getIndex().resolve(basePakFileOpenPath, relativePath);
+		return i==-1 ? null : fs.getIndex().getName(i);
 	}
 	
 	/**
-	 * <p>Return an iterator over all entries of the open pak file.
+	 * <p>Return an iterator over all entries of the open pak file, or over
+	 * all entries that are not shadowed when a game directory is open.
 	 */
 	public Enumeration getPakEntries() {
-		return zipFile.entries();
+		final MD3ViewPakIndex index=fileSystem.getIndex();
+		return new Enumeration() {
+			private int i=0;
+			public boolean hasMoreElements() {
+				return i < index.size();
+			}
+			public Object nextElement() {
+				if (i >= index.size())
+					throw new NoSuchElementException();
+				return index.getEntry(i++);
+			}
+		};
+	}
+	
+	/**
+	 * <p>Return the data of the given pak file entry.
+	 */
+	public ByteBuffer getData(ZipEntry entry) throws IOException {
+		//update basePakFileOpenPath
+		int i;
+		if ((i=entry.getName().lastIndexOf('/')) != -1)
+			basePakFileOpenPath=entry.getName().substring(0, i+1);
+		else
+			basePakFileOpenPath="";
+		
+		return fileSystem.getData(entry);
 	}
 	
 	/**
@@ -445,7 +637,7 @@ public class MD3ViewPakFileControl extends ScrollPane {
 		else
 			basePakFileOpenPath="";
 		
-		return zipFile.getInputStream(entry);
+		return fileSystem.getInputStream(entry);
 	}
 	
 	public void finalize() throws Exception {
@@ -0,0 +1,288 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3view;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * <p>Virtual file system overlaying a number of pak files and directories with
+ * loose files, like the search path of a Quake 3 game directory. Mount points
+ * are given in increasing order of priority: a file in a mount point shadows
+ * files with the same path, ignoring case, in all mount points before it.
+ *
+ * <p>The entries of all mount points are merged in a single MD3ViewPakIndex
+ * in which shadowed entries are not even stored. Loose files are represented
+ * by ZipEntry objects as well, so all files can be handled in the same way.
+ * A file system does not change once it is created, so it can be used by
+ * several threads at the same time.
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+class MD3ViewPakFileSystem {
+	
+	private String name;
+	private Object[] mounts;	//MD3ViewPakReader or File (directory) for each mount point
+	private MD3ViewPakIndex index;
+	private int shadowedCount=0;
+	
+	/**
+	 * <p>Mount the given pak files and directories. Mount points later in the array
+	 * take precedence over earlier ones.
+	 *
+	 * @param name Name of the file system, e.g. the name of the game directory.
+	 * @param mountPoints Pak files and directories with loose files.
+	 */
+	MD3ViewPakFileSystem(String name, File[] mountPoints) throws IOException {
+		this.name=name;
+		
+		//open all pak files and list all loose files
+		mounts=new Object[mountPoints.length];
+		List[] looseFiles=new List[mountPoints.length];
+		int capacity=0;
+		try {
+			for (int i=0; i<mountPoints.length; i++)
+				if (mountPoints[i].isDirectory()) {
+					mounts[i]=mountPoints[i];
+					looseFiles[i]=new ArrayList();
+					listLooseFiles(mountPoints[i], "", looseFiles[i]);
+					capacity+=looseFiles[i].size();
+				}
+				else {
+					MD3ViewPakReader reader=new MD3ViewPakReader(mountPoints[i]);
+					mounts[i]=reader;
+					capacity+=reader.size();
+				}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		
+		//merge all entries, highest priority first
+		index=new MD3ViewPakIndex(capacity);
+		for (int i=mounts.length-1; i>=0; i--)
+			if (mounts[i] instanceof MD3ViewPakReader) {
+				MD3ViewPakReader reader=(MD3ViewPakReader)mounts[i];
+				for (int j=0; j<reader.size(); j++)
+					if (!reader.isDirectory(j) && !index.add(reader.getName(j), new PakEntry(reader, j), i))
+						shadowedCount++;
+			}
+			else
+				for (Iterator it=looseFiles[i].iterator(); it.hasNext(); ) {
+					ZipEntry entry=(ZipEntry)it.next();
+					if (!index.add(entry.getName(), entry, i))
+						shadowedCount++;
+				}
+	}
+	
+	/**
+	 * <p>Return the mount points of a Quake 3 style game directory, in increasing
+	 * order of priority: the directory itself with its loose files, followed by
+	 * its pak files in alphabetical order, so that e.g. pak5.pk3 shadows pak0.pk3.
+	 */
+	static File[] getGameDirectoryMountPoints(File directory) throws IOException {
+		String[] files=directory.list();
+		if (files==null)
+			throw new FileNotFoundException(directory + " is not a directory");
+		
+		List paks=new ArrayList();
+		for (int i=0; i<files.length; i++)
+			if (isPakFile(files[i]))
+				paks.add(files[i]);
+		Collections.sort(paks, String.CASE_INSENSITIVE_ORDER);
+		
+		File[] res=new File[paks.size()+1];
+		res[0]=directory;
+		for (int i=0; i<paks.size(); i++)
+			res[i+1]=new File(directory, (String)paks.get(i));
+		return res;
+	}
+	
+	/**
+	 * <p>Return the name of this file system.
+	 */
+	String getName() {
+		return name;
+	}
+	
+	/**
+	 * <p>Return the merged index of this file system. The entry objects
+	 * in the index are ZipEntry objects.
+	 */
+	MD3ViewPakIndex getIndex() {
+		return index;
+	}
+	
+	/**
+	 * <p>Return the number of mounted pak files and directories.
+	 */
+	int getMountCount() {
+		return mounts.length;
+	}
+	
+	/**
+	 * <p>Return the readers of the mounted pak files, in increasing order
+	 * of priority.
+	 */
+	MD3ViewPakReader[] getPakReaders() {
+		List res=new ArrayList();
+		for (int i=0; i<mounts.length; i++)
+			if (mounts[i] instanceof MD3ViewPakReader)
+				res.add(mounts[i]);
+		return (MD3ViewPakReader[])res.toArray(new MD3ViewPakReader[res.size()]);
+	}
+	
+	/**
+	 * <p>Return the number of files that are shadowed by files with the same
+	 * path in a mount point with higher priority.
+	 */
+	int getShadowedCount() {
+		return shadowedCount;
+	}
+	
+	/**
+	 * <p>Return the entry with the given path, ignoring case, or null when
+	 * there is no such entry.
+	 */
+	ZipEntry getEntry(String path) {
+		int i=index.find(path);
+		return i==-1 ? null : (ZipEntry)index.getEntry(i);
+	}
+	
+	/**
+	 * <p>Return the name of the pak file or directory containing the given entry.
+	 */
+	String getLocation(ZipEntry entry) {
+		Object mount=mounts[index.getSource(indexOf(entry))];
+		return mount instanceof MD3ViewPakReader ? ((MD3ViewPakReader)mount).getName() : ((File)mount).getPath();
+	}
+	
+	/**
+	 * <p>Return an input stream for the given entry of this file system.
+	 */
+	InputStream getInputStream(ZipEntry entry) throws IOException {
+		Object mount=mounts[index.getSource(indexOf(entry))];
+		if (mount instanceof MD3ViewPakReader)
+			return ((MD3ViewPakReader)mount).getInputStream(((PakEntry)entry).number);
+		else
+			return new FileInputStream(new File((File)mount, entry.getName()));
+	}
+	
+	/**
+	 * <p>Return the data of the given entry of this file system. Loose files are
+	 * mapped, not copied.
+	 *
+	 * @see MD3ViewPakReader#getData(int)
+	 */
+	ByteBuffer getData(ZipEntry entry) throws IOException {
+		Object mount=mounts[index.getSource(indexOf(entry))];
+		if (mount instanceof MD3ViewPakReader)
+			return ((MD3ViewPakReader)mount).getData(((PakEntry)entry).number);
+		
+		FileInputStream fin=new FileInputStream(new File((File)mount, entry.getName()));
+		try {
+			FileChannel fc=fin.getChannel();
+			return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+		}
+		finally {
+			fin.close();
+		}
+	}
+	
+	/**
+	 * <p>Close all pak files of this file system.
+	 */
+	void close() {
+		for (int i=0; i<mounts.length; i++)
+			if (mounts[i] instanceof MD3ViewPakReader)
+				((MD3ViewPakReader)mounts[i]).close();
+	}
+	
+	private int indexOf(ZipEntry entry) {
+		int i=index.find(entry.getName());
+		if (i==-1)
+			throw new IllegalArgumentException(entry.getName() + " is not part of " + name);
+		return i;
+	}
+	
+	private static boolean isPakFile(String filename) {
+		return filename.regionMatches(true, filename.length()-4, ".pk3", 0, 4);
+	}
+	
+	//recursively add an entry for all loose files in given directory
+	private static void listLooseFiles(File directory, String path, List res) {
+		String[] files=directory.list();
+		if (files==null)
+			return;
+		
+		for (int i=0; i<files.length; i++) {
+			File f=new File(directory, files[i]);
+			if (f.isDirectory())
+				listLooseFiles(f, path + files[i] + "/", res);
+			else if (!isPakFile(files[i])) {
+				ZipEntry entry=new ZipEntry(path + files[i]);
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(f.length());
+				entry.setCompressedSize(f.length());
+				entry.setTime(f.lastModified());
+				res.add(entry);
+			}
+		}
+	}
+	
+	/**
+	 * <p>Entry of a pak file, all properties are read from the pak reader
+	 * when needed.
+	 */
+	private static class PakEntry extends ZipEntry {
+		
+		private MD3ViewPakReader reader;
+		private int number;
+		
+		public PakEntry(MD3ViewPakReader reader, int number) {
+			super(reader.getName(number));
+			this.reader=reader;
+			this.number=number;
+		}
+		
+		public int getMethod() {
+			return reader.getMethod(number);
+		}
+		
+		public long getSize() {
+			return reader.getSize(number);
+		}
+		
+		public long getCompressedSize() {
+			return reader.getCompressedSize(number);
+		}
+		
+		public long getCrc() {
+			return reader.getCrc(number);
+		}
+		
+		public long getTime() {
+			return reader.getTime(number);
+		}
+	}
+}
@@ -0,0 +1,268 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3view;
+
+/**
+ * <p>Case insensitive index of the entries of a pak file. It is built once when
+ * the pak file is opened and is read only afterwards, so it can safely be
+ * shared by several threads.
+ *
+ * <p>Entries are hashed on their complete path in an open addressing table and
+ * are chained on their base name (the part after the last '/'), which allows
+ * suffix searches without enumerating the whole pak file. None of the lookup
+ * methods allocate objects: paths are hashed and compared in place, ignoring
+ * case the way String.equalsIgnoreCase() does.
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+class MD3ViewPakIndex {
+	
+	private String[] names;
+	private Object[] entries;
+	private int[] sources;
+	private int[] hashes;
+	private int size;
+	
+	private int[] pathTable;	//index+1 of entries by complete path, 0 is empty
+	private int[] baseTable;	//index+1 of first entry by base name, 0 is empty
+	private int[] nextWithBase;	//index+1 of next entry with the same base name
+	
+	/**
+	 * <p>Create a new empty index able to hold the given number of entries.
+	 */
+	MD3ViewPakIndex(int capacity) {
+		capacity=Math.max(capacity, 1);
+		names=new String[capacity];
+		entries=new Object[capacity];
+		sources=new int[capacity];
+		hashes=new int[capacity];
+		nextWithBase=new int[capacity];
+		
+		int tableSize=1;
+		while (tableSize < capacity*2)
+			tableSize<<=1;
+		pathTable=new int[tableSize];
+		baseTable=new int[tableSize];
+	}
+	
+	/**
+	 * <p>Add an entry with given path name to the index. When another entry with
+	 * the same path (ignoring case) was already added, that one is kept.
+	 *
+	 * @param name Path name of the entry.
+	 * @param entry Entry object.
+	 * @param source Number identifying where the entry comes from, e.g. a pak file.
+	 * @return False if the entry was not added because its path was already in use.
+	 */
+	boolean add(String name, Object entry, int source) {
+		if (size==names.length)
+			grow();
+		
+		int hash=hash(name, 0, name.length(), 0);
+		if (find(hash, name, name.length(), "")!=-1)
+			return false;
+		
+		names[size]=name;
+		entries[size]=entry;
+		sources[size]=source;
+		hashes[size]=hash;
+		insert(pathTable, hash, size);
+		
+		int baseStart=name.lastIndexOf('/')+1;
+		int baseSlot=slot(baseTable, hash(name, baseStart, name.length(), 0), name, baseStart);
+		if (baseTable[baseSlot]==0)
+			baseTable[baseSlot]=size+1;
+		else {
+			//append to the chain, so suffix searches follow the pak file order
+			int i=baseTable[baseSlot]-1;
+			while (nextWithBase[i]!=0)
+				i=nextWithBase[i]-1;
+			nextWithBase[i]=size+1;
+		}
+		
+		size++;
+		return true;
+	}
+	
+	/**
+	 * <p>Return the number of entries in the index.
+	 */
+	int size() {
+		return size;
+	}
+	
+	/**
+	 * <p>Return the path name of the entry with given index.
+	 */
+	String getName(int index) {
+		return names[index];
+	}
+	
+	/**
+	 * <p>Return the entry object with given index.
+	 */
+	Object getEntry(int index) {
+		return entries[index];
+	}
+	
+	/**
+	 * <p>Return the source number of the entry with given index.
+	 */
+	int getSource(int index) {
+		return sources[index];
+	}
+	
+	/**
+	 * <p>Return the index of the entry with given path, ignoring case, or -1
+	 * if there is no such entry.
+	 */
+	int find(String path) {
+		return find(hash(path, 0, path.length(), 0), path, path.length(), "");
+	}
+	
+	/**
+	 * <p>Resolve a relative path the way files are searched for in a pak file:
+	 * first relative to the given base path and then relative to each of its
+	 * parent directories, up to the root of the pak file. When the path is not
+	 * found relative to the base path itself, the match that comes first in the
+	 * pak file wins, whatever parent directory it is in.
+	 *
+	 * @param basePath Directory to start from, either empty or ending with a '/'.
+	 * @param relativePath Path to look for.
+	 * @return Index of matching entry, or -1 when not found.
+	 */
+	int resolve(String basePath, String relativePath) {
+		int prefixLength=basePath.length();
+		int res=find(hash(relativePath, 0, relativePath.length(), hash(basePath, 0, prefixLength, 0)),
+		             basePath, prefixLength, relativePath);
+		if (res!=-1)
+			return res;
+		
+		while (prefixLength > 0) {
+			//strip last directory of the prefix
+			prefixLength=basePath.lastIndexOf('/', prefixLength-2)+1;
+			
+			int i=find(hash(relativePath, 0, relativePath.length(), hash(basePath, 0, prefixLength, 0)),
+			           basePath, prefixLength, relativePath);
+			if (i!=-1 && (res==-1 || i < res))
+				res=i;
+		}
+		
+		return res;
+	}
+	
+	/**
+	 * <p>Return the index of the first entry, in pak file order, with a path that
+	 * ends with the given suffix, ignoring case. The suffix should at least contain
+	 * the complete base name of the entries to find.
+	 *
+	 * @return Index of first match, or -1 when not found.
+	 * @see #findNextWithSuffix(String, int)
+	 */
+	int findWithSuffix(String suffix) {
+		int baseStart=suffix.lastIndexOf('/')+1;
+		int i=baseTable[slot(baseTable, hash(suffix, baseStart, suffix.length(), 0), suffix, baseStart)]-1;
+		return i==-1 || endsWith(i, suffix) ? i : findNextWithSuffix(suffix, i);
+	}
+	
+	/**
+	 * <p>Return the index of the next entry after the entry with given index that
+	 * has a path ending with the given suffix, or -1 when there are no more matches.
+	 */
+	int findNextWithSuffix(String suffix, int index) {
+		for (int i=nextWithBase[index]-1; i!=-1; i=nextWithBase[i]-1)
+			if (endsWith(i, suffix))
+				return i;
+		return -1;
+	}
+	
+	//find the entry with a path equal to prefix[0, prefixLength[ + path
+	private int find(int hash, String prefix, int prefixLength, String path) {
+		int mask=pathTable.length-1;
+		for (int slot=(hash ^ (hash>>>16)) & mask; pathTable[slot]!=0; slot=(slot+1) & mask) {
+			int i=pathTable[slot]-1;
+			String name=names[i];
+			if (hashes[i]==hash &&
+			    name.length()==prefixLength+path.length() &&
+			    name.regionMatches(true, 0, prefix, 0, prefixLength) &&
+			    name.regionMatches(true, prefixLength, path, 0, path.length()))
+				return i;
+		}
+		return -1;
+	}
+	
+	//find the slot holding the base name chain for name[baseStart, end[, or the empty slot for it
+	private int slot(int[] table, int hash, String name, int baseStart) {
+		int mask=table.length-1;
+		int baseLength=name.length()-baseStart;
+		int slot=(hash ^ (hash>>>16)) & mask;
+		for (; table[slot]!=0; slot=(slot+1) & mask) {
+			String other=names[table[slot]-1];
+			int otherStart=other.lastIndexOf('/')+1;
+			if (other.length()-otherStart==baseLength &&
+			    other.regionMatches(true, otherStart, name, baseStart, baseLength))
+				break;
+		}
+		return slot;
+	}
+	
+	private void insert(int[] table, int hash, int index) {
+		int mask=table.length-1;
+		int slot=(hash ^ (hash>>>16)) & mask;
+		while (table[slot]!=0)
+			slot=(slot+1) & mask;
+		table[slot]=index+1;
+	}
+	
+	private boolean endsWith(int index, String suffix) {
+		String name=names[index];
+		return name.regionMatches(true, name.length()-suffix.length(), suffix, 0, suffix.length());
+	}
+	
+	//double the capacity of the index and rehash all entries
+	private void grow() {
+		int capacity=names.length*2;
+		String[] oldNames=names;
+		Object[] oldEntries=entries;
+		int[] oldSources=sources;
+		int oldSize=size;
+		
+		names=new String[capacity];
+		entries=new Object[capacity];
+		sources=new int[capacity];
+		hashes=new int[capacity];
+		nextWithBase=new int[capacity];
+		pathTable=new int[pathTable.length*2];
+		baseTable=new int[baseTable.length*2];
+		size=0;
+		
+		for (int i=0; i<oldSize; i++)
+			add(oldNames[i], oldEntries[i], oldSources[i]);
+	}
+	
+	/**
+	 * <p>Case insensitive hash of s[start, end[, continuing from the given hash.
+	 */
+	private static int hash(String s, int start, int end, int hash) {
+		for (int i=start; i<end; i++)
+			hash=31*hash + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+		return hash;
+	}
+}
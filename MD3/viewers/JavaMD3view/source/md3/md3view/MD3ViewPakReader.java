@@ -0,0 +1,488 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3view;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * <p>Reader for pak (*.pk3) files, which are plain zip archives. The central directory
+ * of the pak file is parsed into arrays of primitive values, so opening even a large
+ * pak file only costs a few bytes of heap per entry besides the entry names.
+ *
+ * <p>The data of an entry is returned as a ByteBuffer of exactly the entry size, taken
+ * from a small pool of buffers. Stored entries are read straight into it, deflated
+ * entries are inflated into it. Such a buffer can be given back to the pool with
+ * release() once it is no longer needed. When only the start of an entry is needed,
+ * e.g. to read a file header, a prefix of it can be read: only that much of a deflated
+ * entry is inflated.
+ *
+ * <p>Entries are read with positional reads on the file channel of the pak file, so
+ * multiple threads can read from a pak file at the same time. The pak file is not
+ * memory mapped: a mapping keeps the file open, and on some platforms locked, until it
+ * is garbage collected, while close() releases the file right away.
+ *
+ * <p>Zip64 archives and encrypted entries are not supported.
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+class MD3ViewPakReader {
+	
+	private static final int LOCAL_HEADER_SIGNATURE=0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE=0x02014b50;
+	private static final int END_HEADER_SIGNATURE=0x06054b50;
+	private static final int LOCAL_HEADER_SIZE=30, CENTRAL_HEADER_SIZE=46, END_HEADER_SIZE=22;
+	
+	private static final int MAX_POOLED_BUFFERS=8;
+	private static final int MAX_POOLED_BUFFER_SIZE=4*1024*1024;
+	private static final int CHUNK_SIZE=64*1024;
+	private static LinkedList bufferPool=new LinkedList();
+	private static LinkedList inflaterPool=new LinkedList();
+	
+	private String filename;
+	private volatile FileChannel channel;	//null when closed
+	private int fileSize;
+	private long centralDirectoryCrc;
+	
+	private String[] names;
+	private short[] methods;
+	private int[] times;	//MS-DOS date and time
+	private int[] crcs;
+	private int[] compressedSizes;
+	private int[] sizes;
+	private int[] offsets;	//offset of local header, or of the data once it is known (negative)
+	
+	/**
+	 * <p>Open the given pak file and read its central directory.
+	 */
+	MD3ViewPakReader(File file) throws IOException {
+		filename=file.getPath();
+		
+		FileChannel fc=new FileInputStream(file).getChannel();
+		try {
+			if (fc.size() > Integer.MAX_VALUE)
+				throw new ZipException(filename + ": pak file too large");
+			fileSize=(int)fc.size();
+			readCentralDirectory(fc);
+		}
+		catch (IOException e) {
+			fc.close();
+			throw e;
+		}
+		catch (RuntimeException e) {
+			fc.close();
+			throw e;
+		}
+		channel=fc;
+	}
+	
+	/**
+	 * <p>Return the name of the pak file.
+	 */
+	String getName() {
+		return filename;
+	}
+	
+	/**
+	 * <p>Return the CRC-32 of the central directory of the pak file. The central
+	 * directory holds the names, sizes and CRCs of all entries, so this changes
+	 * whenever the contents of the pak file change.
+	 */
+	long getCentralDirectoryCrc() {
+		return centralDirectoryCrc;
+	}
+	
+	/**
+	 * <p>Return the number of entries in the pak file.
+	 */
+	int size() {
+		return names.length;
+	}
+	
+	/**
+	 * <p>Return the path name of the entry with given number.
+	 */
+	String getName(int entry) {
+		return names[entry];
+	}
+	
+	/**
+	 * <p>Is the entry with given number a directory?
+	 */
+	boolean isDirectory(int entry) {
+		return names[entry].endsWith("/");
+	}
+	
+	/**
+	 * <p>Return the compression method (ZipEntry.STORED or ZipEntry.DEFLATED)
+	 * of the entry with given number.
+	 */
+	int getMethod(int entry) {
+		return methods[entry];
+	}
+	
+	/**
+	 * <p>Return the uncompressed size of the entry with given number.
+	 */
+	long getSize(int entry) {
+		return sizes[entry] & 0xffffffffL;
+	}
+	
+	/**
+	 * <p>Return the compressed size of the entry with given number.
+	 */
+	long getCompressedSize(int entry) {
+		return compressedSizes[entry] & 0xffffffffL;
+	}
+	
+	/**
+	 * <p>Return the CRC-32 of the uncompressed data of the entry with given number.
+	 */
+	long getCrc(int entry) {
+		return crcs[entry] & 0xffffffffL;
+	}
+	
+	/**
+	 * <p>Return the modification time of the entry with given number, in
+	 * milliseconds since the epoch.
+	 */
+	long getTime(int entry) {
+		int dosTime=times[entry];
+		Calendar cal=new GregorianCalendar(((dosTime >> 25) & 0x7f) + 1980,
+		                                   ((dosTime >> 21) & 0x0f) - 1,
+		                                   (dosTime >> 16) & 0x1f,
+		                                   (dosTime >> 11) & 0x1f,
+		                                   (dosTime >> 5) & 0x3f,
+		                                   (dosTime << 1) & 0x3e);
+		return cal.getTime().getTime();
+	}
+	
+	/**
+	 * <p>Return the data of the entry with given number. When the buffer is no
+	 * longer needed, it can be given to release() to allow reuse.
+	 *
+	 * @exception IOException When the entry can't be read, also when the pak file
+	 *            is closed before or while reading it.
+	 */
+	ByteBuffer getData(int entry) throws IOException {
+		return getData(entry, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * <p>Return at most the first maxSize bytes of the data of the entry with given
+	 * number, like getData(int). Deflated entries are only inflated up to that size.
+	 *
+	 * @exception IOException When the entry can't be read, also when the pak file
+	 *            is closed before or while reading it.
+	 */
+	ByteBuffer getData(int entry, int maxSize) throws IOException {
+		FileChannel fc=channel;
+		if (fc==null)
+			throw new IOException(filename + ": pak file closed");
+		
+		try {
+			int dataOffset=getDataOffset(fc, entry);
+			int compressedSize=compressedSizes[entry];
+			int size=sizes[entry];
+			if (compressedSize < 0 || size < 0 || dataOffset > fileSize-compressedSize)
+				throw new ZipException(filename + ": invalid entry size for " + names[entry]);
+			
+			if (methods[entry]==ZipEntry.STORED) {
+				if (size!=compressedSize)
+					throw new ZipException(filename + ": invalid entry size for " + names[entry]);
+				size=Math.min(size, maxSize);
+				ByteBuffer res=ByteBuffer.wrap(takeBuffer(size), 0, size).slice();
+				read(fc, res, dataOffset, entry);
+				res.flip();
+				return res;
+			}
+			else if (methods[entry]==ZipEntry.DEFLATED)
+				return inflate(fc, entry, dataOffset, compressedSize, Math.min(size, maxSize));
+			else
+				throw new ZipException(filename + ": unsupported compression method for " + names[entry]);
+		}
+		catch (ClosedChannelException e) {
+			throw new IOException(filename + ": pak file closed");
+		}
+	}
+	
+	/**
+	 * <p>Return an input stream reading the data of the entry with given number.
+	 * Closing the stream releases its data.
+	 */
+	InputStream getInputStream(int entry) throws IOException {
+		return new BufferInputStream(getData(entry));
+	}
+	
+	/**
+	 * <p>Give a buffer returned by getData() back to the buffer pool. The buffer
+	 * should no longer be used afterwards.
+	 */
+	static void release(ByteBuffer buf) {
+		if (buf.hasArray() && !buf.isReadOnly() && buf.array().length <= MAX_POOLED_BUFFER_SIZE)
+			synchronized (bufferPool) {
+				if (bufferPool.size() < MAX_POOLED_BUFFERS)
+					bufferPool.add(buf.array());
+			}
+	}
+	
+	/**
+	 * <p>Close the pak file, releasing it right away. Reading entries fails with an
+	 * IOException afterwards, also for reads that were in progress.
+	 */
+	void close() {
+		FileChannel fc=channel;
+		channel=null;
+		if (fc!=null)
+			try {
+				fc.close();
+			}
+			catch (IOException e) {
+				//nothing we can do about this
+			}
+	}
+	
+	//fill the given buffer with data of the pak file starting at the given position
+	private void read(FileChannel fc, ByteBuffer buf, long position, int entry) throws IOException {
+		while (buf.hasRemaining()) {
+			int n=fc.read(buf, position);
+			if (n < 0)
+				throw new ZipException(filename + ": truncated data" + (entry<0 ? "" : " for " + names[entry]));
+			position+=n;
+		}
+	}
+	
+	//locate the end of central directory record and parse all entries
+	private void readCentralDirectory(FileChannel fc) throws IOException {
+		int tailSize=Math.min(fileSize, END_HEADER_SIZE+0xffff);
+		ByteBuffer tail=ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+		read(fc, tail, fileSize-tailSize, -1);
+		
+		int end=-1;
+		for (int i=tailSize-END_HEADER_SIZE; i>=0; i--)
+			if (tail.getInt(i)==END_HEADER_SIGNATURE) {
+				end=i;
+				break;
+			}
+		if (end==-1)
+			throw new ZipException(filename + ": not a pak file");
+		
+		int count=tail.getShort(end+10) & 0xffff;
+		int offset=tail.getInt(end+16);
+		if (count==0xffff || offset==-1)
+			throw new ZipException(filename + ": zip64 pak files are not supported");
+		end+=fileSize-tailSize; //position in the file
+		if (offset < 0 || offset > end)
+			throw new ZipException(filename + ": invalid central directory");
+		
+		ByteBuffer data=ByteBuffer.allocate(end-offset).order(ByteOrder.LITTLE_ENDIAN);
+		read(fc, data, offset, -1);
+		CRC32 crc=new CRC32();
+		crc.update(data.array(), 0, data.limit());
+		centralDirectoryCrc=crc.getValue();
+		
+		names=new String[count];
+		methods=new short[count];
+		times=new int[count];
+		crcs=new int[count];
+		compressedSizes=new int[count];
+		sizes=new int[count];
+		offsets=new int[count];
+		
+		offset=0; //position in the central directory
+		for (int i=0; i<count; i++) {
+			if (offset > data.limit()-CENTRAL_HEADER_SIZE || data.getInt(offset)!=CENTRAL_HEADER_SIGNATURE)
+				throw new ZipException(filename + ": invalid central directory");
+			
+			int flags=data.getShort(offset+8) & 0xffff;
+			methods[i]=data.getShort(offset+10);
+			times[i]=data.getInt(offset+12);
+			crcs[i]=data.getInt(offset+16);
+			compressedSizes[i]=data.getInt(offset+20);
+			sizes[i]=data.getInt(offset+24);
+			int nameLength=data.getShort(offset+28) & 0xffff;
+			int extraLength=data.getShort(offset+30) & 0xffff;
+			int commentLength=data.getShort(offset+32) & 0xffff;
+			offsets[i]=data.getInt(offset+42);
+			if ((flags & 1)!=0)
+				methods[i]=-1; //encrypted
+			
+			//zip64 entries have their real sizes and offset in an extra field
+			if (compressedSizes[i]==-1 || sizes[i]==-1 || offsets[i]==-1)
+				throw new ZipException(filename + ": zip64 pak files are not supported");
+			if (offsets[i] < 0 || offset > data.limit()-CENTRAL_HEADER_SIZE-nameLength)
+				throw new ZipException(filename + ": invalid central directory");
+			
+			names[i]=new String(data.array(), offset+CENTRAL_HEADER_SIZE, nameLength, "UTF-8");
+			
+			offset+=CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+	}
+	
+	//return offset of the data of given entry, skipping its local header
+	private int getDataOffset(FileChannel fc, int entry) throws IOException {
+		int offset=offsets[entry];
+		if (offset < 0)
+			return ~offset;
+		
+		if (offset > fileSize-LOCAL_HEADER_SIZE)
+			throw new ZipException(filename + ": invalid local header for " + names[entry]);
+		ByteBuffer header=ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		read(fc, header, offset, entry);
+		if (header.getInt(0)!=LOCAL_HEADER_SIGNATURE)
+			throw new ZipException(filename + ": invalid local header for " + names[entry]);
+		offset+=LOCAL_HEADER_SIZE + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+		offsets[entry]=~offset; //a racing thread computes the same value
+		return offset;
+	}
+	
+	//inflate the first size bytes of given entry into a pooled buffer of exactly that size
+	private ByteBuffer inflate(FileChannel fc, int entry, int dataOffset, int compressedSize, int size) throws IOException {
+		byte[] res=takeBuffer(size);
+		//the compressed data of a prefix is rarely larger than the prefix itself
+		byte[] chunk=new byte[Math.min(CHUNK_SIZE, Math.min(compressedSize, size)+1)];
+		
+		Inflater inflater=takeInflater();
+		try {
+			int position=dataOffset, remaining=compressedSize;
+			
+			int len=0;
+			boolean padded=false;
+			while (len < size) {
+				if (inflater.finished() || inflater.needsDictionary())
+					throw new ZipException(filename + ": invalid entry size for " + names[entry]);
+				
+				if (inflater.needsInput()) {
+					int n=Math.min(chunk.length, remaining);
+					if (n > 0) {
+						read(fc, ByteBuffer.wrap(chunk, 0, n), position, entry);
+						position+=n;
+						remaining-=n;
+					}
+					else if (!padded) {
+						//nowrap inflaters may need an extra dummy byte at the end of the input
+						chunk[n++]=0;
+						padded=true;
+					}
+					else
+						throw new ZipException(filename + ": truncated data for " + names[entry]);
+					inflater.setInput(chunk, 0, n);
+				}
+				
+				len+=inflater.inflate(res, len, size-len);
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException(filename + ": invalid data for " + names[entry] + ": " + e.getMessage());
+		}
+		finally {
+			giveInflater(inflater);
+		}
+		
+		return ByteBuffer.wrap(res, 0, size).slice();
+	}
+	
+	//take a buffer with at least the given size from the pool, or allocate one
+	private static byte[] takeBuffer(int size) {
+		synchronized (bufferPool) {
+			byte[] res=null;
+			for (Iterator it=bufferPool.iterator(); it.hasNext(); ) {
+				byte[] buf=(byte[])it.next();
+				if (buf.length >= size && buf.length <= size*2 && (res==null || buf.length < res.length))
+					res=buf;
+			}
+			if (res!=null) {
+				bufferPool.remove(res);
+				return res;
+			}
+		}
+		return new byte[size];
+	}
+	
+	private static Inflater takeInflater() {
+		synchronized (inflaterPool) {
+			if (!inflaterPool.isEmpty())
+				return (Inflater)inflaterPool.removeFirst();
+		}
+		return new Inflater(true);
+	}
+	
+	private static void giveInflater(Inflater inflater) {
+		inflater.reset();
+		synchronized (inflaterPool) {
+			if (inflaterPool.size() < MAX_POOLED_BUFFERS) {
+				inflaterPool.add(inflater);
+				return;
+			}
+		}
+		inflater.end();
+	}
+	
+	/**
+	 * <p>Input stream reading the data in a buffer, the buffer is
+	 * released when the stream is closed.
+	 */
+	private static class BufferInputStream extends InputStream {
+		
+		private ByteBuffer buf;
+		
+		public BufferInputStream(ByteBuffer buf) {
+			this.buf=buf;
+		}
+		
+		public int read() throws IOException {
+			if (buf==null)
+				throw new IOException("stream closed");
+			return buf.hasRemaining() ? buf.get() & 0xff : -1;
+		}
+		
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (buf==null)
+				throw new IOException("stream closed");
+			if (len==0)
+				return 0;
+			if (!buf.hasRemaining())
+				return -1;
+			len=Math.min(len, buf.remaining());
+			buf.get(b, off, len);
+			return len;
+		}
+		
+		public long skip(long n) throws IOException {
+			if (buf==null)
+				throw new IOException("stream closed");
+			n=Math.max(0, Math.min(n, buf.remaining()));
+			buf.position(buf.position() + (int)n);
+			return n;
+		}
+		
+		public int available() throws IOException {
+			return buf==null ? 0 : buf.remaining();
+		}
+		
+		public void close() {
+			if (buf!=null)
+				release(buf);
+			buf=null;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3view;
+
+import java.lang.ref.*;
+import java.util.*;
+
+import md3.md3model.*;
+
+/**
+ * <p>Keeps track of the textures that still hold their data after it was uploaded to
+ * OpenGL. When the releaseTextureData option is set, the data of the least recently
+ * used textures is released as soon as these textures use more memory than the
+ * textureMemoryBudget option allows. Released data is reloaded in the background when
+ * the texture has to be uploaded again, see MD3ViewTextureUploadQueue.
+ *
+ * <p>Textures sharing their data through the texture cache (see
+ * MD3Texture.getContentKey()) are accounted for once: their data only counts against
+ * the budget once and is released from all of them together, since the cache can
+ * only let go of it when none of them uses it any more.
+ *
+ * <p>Textures are tracked through weak references, so textures that are no longer
+ * used by any model or skin can still be garbage collected.
+ *
+ * <p>All methods are static, this is a Booch utility class.
+ *
+ * @see md3.md3view.MD3ViewOptions#releaseTextureData
+ * @see md3.md3model.MD3TextureCache
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+class MD3ViewTextureMemory {
+	
+	private static LinkedHashMap<Object, TrackedData> data=new LinkedHashMap<Object, TrackedData>(16, 0.75f, true);
+		//access ordered map of content keys, or the weak keys of textures without content key, to their data
+	private static Map<TextureKey, TrackedData> textures=new HashMap<TextureKey, TrackedData>();
+		//weak keys of textures holding uploaded data to the data they use
+	private static ReferenceQueue<MD3Texture> collectedTextures=new ReferenceQueue<MD3Texture>();
+	private static long byteSize=0;
+	private static int releaseCount=0;
+	
+	private MD3ViewTextureMemory() {
+		//Booch utility class: no instances
+	}
+	
+	/**
+	 * <p>Note that the data of the given texture was used (e.g. uploaded) and
+	 * release the data of the least recently used textures, possibly including
+	 * the given one, when over budget.
+	 */
+	static synchronized void used(MD3Texture texture) {
+		if (!MD3ViewOptions.releaseTextureData) {
+			clear();
+			return;
+		}
+		
+		expungeCollectedTextures();
+		TrackedData old=textures.remove(new TextureKey(texture, null));
+		if (old!=null)
+			removeUser(old, new TextureKey(texture, null));
+		if (texture.data!=null) {
+			TextureKey ref=new TextureKey(texture, collectedTextures);
+			Object key=texture.getContentKey()!=null ? (Object)texture.getContentKey() : ref;
+			TrackedData tracked=data.get(key); //also marks the data as most recently used
+			if (tracked==null) {
+				tracked=new TrackedData(key, texture.data.length);
+				data.put(key, tracked);
+				byteSize+=tracked.size;
+			}
+			tracked.users.add(ref);
+			textures.put(ref, tracked);
+		}
+		trim();
+	}
+	
+	/**
+	 * <p>Release the data of the least recently used textures until the budget is met.
+	 */
+	static synchronized void trim() {
+		expungeCollectedTextures();
+		Iterator<TrackedData> it=data.values().iterator();
+		while (byteSize > MD3ViewOptions.textureMemoryBudget && it.hasNext()) {
+			TrackedData tracked=it.next();
+			it.remove();
+			byteSize-=tracked.size;
+			for (TextureKey ref : tracked.users) {
+				textures.remove(ref);
+				MD3Texture texture=ref.get();
+				if (texture!=null)
+					texture.releaseData();
+			}
+			releaseCount++;
+		}
+	}
+	
+	/**
+	 * <p>Stop tracking textures, their data is kept.
+	 */
+	static synchronized void clear() {
+		data.clear();
+		textures.clear();
+		byteSize=0;
+		while (collectedTextures.poll()!=null)
+			; //these are no longer tracked
+	}
+	
+	//stop tracking the given user of the given data, forgetting the data when it has
+	//no more users
+	private static void removeUser(TrackedData tracked, TextureKey ref) {
+		tracked.users.remove(ref);
+		if (tracked.users.isEmpty() && data.remove(tracked.key)!=null)
+			byteSize-=tracked.size;
+	}
+	
+	//forget the textures that have been garbage collected, their data is gone with them
+	//unless other textures still use it
+	private static void expungeCollectedTextures() {
+		Reference<? extends MD3Texture> ref;
+		while ((ref=collectedTextures.poll())!=null) {
+			TrackedData tracked=textures.remove(ref);
+			if (tracked!=null)
+				removeUser(tracked, (TextureKey)ref);
+		}
+	}
+	
+	/**
+	 * <p>Return a short description of the tracked texture data.
+	 */
+	static synchronized String getStatistics() {
+		expungeCollectedTextures();
+		return "uploaded texture data: " + data.size() + " images used by " + textures.size() + " textures, " +
+		       byteSize + " bytes, " + releaseCount + " released";
+	}
+	
+	/**
+	 * <p>Texture data that is tracked, together with the textures using it.
+	 */
+	private static class TrackedData {
+		Object key;
+		int size;
+		List<TextureKey> users=new ArrayList<TextureKey>(2);
+		
+		TrackedData(Object key, int size) {
+			this.key=key;
+			this.size=size;
+		}
+	}
+	
+	/**
+	 * <p>Weak reference to a tracked texture, equal to other references to the same
+	 * texture as long as that texture was not collected.
+	 */
+	private static class TextureKey extends WeakReference<MD3Texture> {
+		private int hash;
+		
+		TextureKey(MD3Texture texture, ReferenceQueue<MD3Texture> queue) {
+			super(texture, queue);
+			hash=System.identityHashCode(texture);
+		}
+		
+		public int hashCode() {
+			return hash;
+		}
+		
+		public boolean equals(Object o) {
+			if (o==this)
+				return true;
+			if (!(o instanceof TextureKey))
+				return false;
+			MD3Texture texture=get();
+			return texture!=null && texture==((TextureKey)o).get();
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3view;
+
+import java.util.*;
+
+import gl4java.*;
+
+import md3.md3view.glmodel.*;
+import md3.md3view.visitor.*;
+
+/**
+ * <p>Manages the textures that are resident in the OpenGL context of a canvas.
+ * Texture names are allocated with glGenTextures() and deleted with glDeleteTextures(),
+ * which also frees the texture memory, when no displayed texture uses them anymore.
+ *
+ * <p>Resident textures are identified by the content key of their data and the
+ * settings they were uploaded with. Textures with the same content share one OpenGL
+ * texture, and textures that are allready resident are not uploaded again.
+ *
+ * <p>All methods should be called with the OpenGL context of the canvas current.
+ *
+ * @see md3.md3model.MD3Texture#getContentKey()
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+class MD3ViewTextureResidency {
+	
+	private Map residents=new HashMap(); //residency keys to Resident objects
+	private Map textureResidents=new WeakHashMap(); //textures to the Resident they are bound to
+	private int anonymousCount=0;
+	
+	private long residentBytes=0;
+	private int uploadCount=0, skippedCount=0, deletedCount=0;
+	private long rateStart=System.currentTimeMillis(); //start of the current one second window
+	private int rateUploads=0; //uploads in the current window
+	private int uploadsPerSecond=0; //uploads in the previous window
+	
+	/**
+	 * <p>Make the data of the given texture resident in the OpenGL context of the
+	 * given canvas and bind the texture to it. The data is only uploaded when the same
+	 * content is not resident with the current upload settings yet.
+	 *
+	 * @return The number of bytes uploaded.
+	 */
+	int upload(MD3ViewGLCanvas md3canvas, MD3GLTexture texture) {
+		GLFunc gl=md3canvas.getGL();
+		String key=getKey(md3canvas, texture);
+		Resident res=key==null ? null : (Resident)residents.get(key);
+		
+		int bytes=0;
+		if (res!=null)
+			skippedCount++;
+		else {
+			int[] names=new int[1];
+			gl.glGenTextures(1, names);
+			int name=names[0];
+			bytes=MD3GLModelUploadTextureVisitor.uploadTextureData(md3canvas, texture, name);
+			if (bytes==0) {
+				//nothing to upload
+				deleteName(gl, name);
+				unbind(texture);
+				return 0;
+			}
+			
+			//the content key is known when released data had to be reloaded
+			key=getKey(md3canvas, texture);
+			if (key==null)
+				key="#" + (++anonymousCount); //can't be shared with other textures
+			res=new Resident(key, name, bytes);
+			residents.put(key, res);
+			residentBytes+=bytes;
+			uploadCount++;
+			updateRate();
+			rateUploads++;
+		}
+		
+		textureResidents.put(texture, res);
+		texture.bind=res.name;
+		texture.uploaded=true;
+		return bytes;
+	}
+	
+	/**
+	 * <p>Is the data of the given texture allready resident with the current upload
+	 * settings? If so, it can be bound without having its data.
+	 */
+	boolean isResident(MD3ViewGLCanvas md3canvas, MD3GLTexture texture) {
+		String key=getKey(md3canvas, texture);
+		return key!=null && residents.containsKey(key);
+	}
+	
+	/**
+	 * <p>Release all resident textures that are not used by any of the given
+	 * MD3GLTexture objects. Textures bound to them become unbound again.
+	 */
+	void releaseUnused(MD3ViewGLCanvas md3canvas, Set used) {
+		GLFunc gl=md3canvas.getGL();
+		Set live=new HashSet();
+		for (Iterator it=used.iterator();it.hasNext();) {
+			Object res=textureResidents.get(it.next());
+			if (res!=null)
+				live.add(res);
+		}
+		
+		for (Iterator it=residents.values().iterator();it.hasNext();) {
+			Resident res=(Resident)it.next();
+			if (!live.contains(res)) {
+				it.remove();
+				residentBytes-=res.bytes;
+				deleteName(gl, res.name);
+			}
+		}
+		
+		for (Iterator it=textureResidents.entrySet().iterator();it.hasNext();) {
+			Map.Entry entry=(Map.Entry)it.next();
+			if (!live.contains(entry.getValue())) {
+				MD3GLTexture texture=(MD3GLTexture)entry.getKey();
+				it.remove();
+				texture.bind=0;
+				texture.uploaded=false;
+			}
+		}
+	}
+	
+	/**
+	 * <p>Return a short description of the resident textures.
+	 */
+	String getStatistics() {
+		return "resident textures: " + residents.size() + " textures, " + residentBytes + " bytes, " +
+		       uploadCount + " uploads, " + skippedCount + " skipped, " + deletedCount + " deleted, " +
+		       getUploadsPerSecond() + " uploads/s";
+	}
+	
+	/**
+	 * <p>Return the number of bytes of texture data resident in OpenGL.
+	 */
+	long getResidentBytes() {
+		return residentBytes;
+	}
+	
+	/**
+	 * <p>Return the number of uploads per second: the number of uploads done in the
+	 * last complete one second window.
+	 */
+	int getUploadsPerSecond() {
+		updateRate();
+		return uploadsPerSecond;
+	}
+	
+	//move the upload rate window forward to the second containing the current time
+	private void updateRate() {
+		long elapsed=System.currentTimeMillis() - rateStart;
+		if (elapsed >= 1000) {
+			//no uploads at all in the previous window if more than one second passed
+			uploadsPerSecond=elapsed < 2000 ? rateUploads : 0;
+			rateStart+=elapsed - elapsed % 1000;
+			rateUploads=0;
+		}
+	}
+	
+	//get the residency key for the given texture with the current upload settings
+	private static String getKey(MD3ViewGLCanvas md3canvas, MD3GLTexture texture) {
+		String contentKey=texture.getContentKey();
+		if (contentKey==null)
+			return null;
+		return contentKey + "/" + MD3GLModelUploadTextureVisitor.getUploadSettings(md3canvas, texture);
+	}
+	
+	//mark the given texture as not bound
+	private void unbind(MD3GLTexture texture) {
+		textureResidents.remove(texture);
+		texture.bind=0;
+		texture.uploaded=false;
+	}
+	
+	//delete an unused texture name together with its texture memory
+	private void deleteName(GLFunc gl, int name) {
+		gl.glDeleteTextures(1, new int[] { name });
+		deletedCount++;
+	}
+	
+	/**
+	 * <p>A texture resident in OpenGL.
+	 */
+	private static class Resident {
+		String key;
+		int name;
+		int bytes;
+		
+		Resident(String key, int name, int bytes) {
+			this.key=key;
+			this.name=name;
+			this.bytes=bytes;
+		}
+	}
+}
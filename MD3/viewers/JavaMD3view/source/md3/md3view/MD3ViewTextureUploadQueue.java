@@ -0,0 +1,108 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3view;
+
+import java.util.*;
+
+import md3.md3view.glmodel.*;
+
+/**
+ * <p>Queue of textures waiting to be uploaded into the OpenGL context of a canvas.
+ * The canvas drains the queue while rendering, uploading only as many textures per
+ * frame as fit in a time and byte budget, so uploading the textures of a big model
+ * doesn't freeze the viewer. Textures that are still being loaded in the background
+ * stay in the queue until their data is available. Textures whose content is allready
+ * resident are bound to it without uploading anything. Textures of which the data was
+ * released have it reloaded in the background before they are uploaded.
+ *
+ * @see md3.md3view.MD3ViewGLCanvas#queueTextureUpload(MD3GLTexture)
+ *
+ * @author Erwin Vervaet (klr8@fragland.net)
+ */
+class MD3ViewTextureUploadQueue {
+	
+	private LinkedList queue=new LinkedList();
+	
+	/**
+	 * <p>Queue the given texture for upload, if it is not queued yet.
+	 */
+	synchronized void add(MD3GLTexture texture) {
+		if (texture!=null && !queue.contains(texture))
+			queue.add(texture);
+	}
+	
+	/**
+	 * <p>Return the number of textures waiting to be uploaded.
+	 */
+	synchronized int size() {
+		return queue.size();
+	}
+	
+	/**
+	 * <p>Upload queued textures that have their data into the GL context of the given
+	 * canvas, in the order they were queued. At least one texture is uploaded, after
+	 * that uploading stops when the time or byte budget is used up.
+	 *
+	 * @param md3canvas Canvas of which the GL context is current.
+	 * @param residency Residency manager of the canvas.
+	 * @param maxMillis Time budget in milliseconds.
+	 * @param maxBytes Budget of uploaded texture data in bytes.
+	 * @return True if there are textures left that could be uploaded right away.
+	 */
+	boolean upload(MD3ViewGLCanvas md3canvas, MD3ViewTextureResidency residency, long maxMillis, int maxBytes) {
+		long deadline=System.currentTimeMillis() + maxMillis;
+		int bytes=0;
+		boolean first=true;
+		
+		while (true) {
+			MD3GLTexture texture;
+			synchronized (this) {
+				texture=nextLoaded();
+				if (texture==null)
+					return false;
+				if (!first && (bytes>=maxBytes || System.currentTimeMillis()>=deadline))
+					return true;
+				queue.remove(texture);
+			}
+			
+			if (texture.data==null && texture.loadFilename!=null && !residency.isResident(md3canvas, texture)) {
+				//the data was released after a previous upload, don't reload it on the
+				//rendering thread, the texture is queued again once it has its data
+				MD3ViewGLModelFactory.reloadTextureInBackground(md3canvas, texture);
+				continue;
+			}
+			
+			bytes+=residency.upload(md3canvas, texture);
+			MD3ViewTextureMemory.used(texture); //might release the data again
+			first=false;
+		}
+	}
+	
+	//return the first texture in the queue that is not loading anymore,
+	//call with the lock held
+	private MD3GLTexture nextLoaded() {
+		for (Iterator it=queue.iterator();it.hasNext();) {
+			MD3GLTexture texture=(MD3GLTexture)it.next();
+			if (!texture.loading)
+				return texture;
+		}
+		return null;
+	}
+}
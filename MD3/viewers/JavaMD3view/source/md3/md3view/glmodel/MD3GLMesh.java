@@ -20,6 +20,7 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 package md3.md3view.glmodel;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import md3.md3model.*;
 
@@ -56,7 +57,21 @@ public class MD3GLMesh extends MD3Mesh {
 
   protected MD3GLMesh(DataInput din) throws IOException {
   	super(din);
-
+  	initBlending();
+  }
+  
+  protected MD3GLMesh(DataInput din, boolean deferFrames) throws IOException {
+  	super(din, deferFrames);
+  	initBlending();
+  }
+  
+  protected MD3GLMesh(ByteBuffer buf) throws IOException {
+  	super(buf);
+  	initBlending();
+  }
+  
+  //setup blending state depending on the name of the mesh
+  void initBlending() {
 		//this should be changed!!!!
     //the blending info is in the .shader scripts    
   	if ((this.name.toLowerCase().indexOf("energy") != -1) ||
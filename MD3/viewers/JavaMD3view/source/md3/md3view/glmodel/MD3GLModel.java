@@ -67,6 +67,32 @@ public class MD3GLModel extends MD3Model {
   	this.interpolationFraction=0.0f;  	
   }
   
+  protected MD3GLModel(String name, java.io.InputStream in, MD3LoadListener listener) throws java.io.IOException {
+  	super(name, in, listener);
+  	this.currentFrame=0;
+  	this.nextFrame=this.boneFrameNum>0?1:0;
+  	this.interpolationFraction=0.0f;  	
+  }
+  
+  protected MD3GLModel(String name, java.nio.ByteBuffer data) throws java.io.IOException {
+  	super(name, data);
+  	this.currentFrame=0;
+  	this.nextFrame=this.boneFrameNum>0?1:0;
+  	this.interpolationFraction=0.0f;  	
+  }
+  
+  /**
+   * <p>Copies of a model start at the first animation frame, they don't inherit
+   * the animation state of the copied model.
+   */
+  public Object clone() {
+  	MD3GLModel res=(MD3GLModel)super.clone();
+  	res.currentFrame=0;
+  	res.nextFrame=res.boneFrameNum>0?1:0;
+  	res.interpolationFraction=0.0f;
+  	return res;
+  }
+  
   public void accept(MD3GLModelVisitor v) {    
   	v.visit(this);
   }
@@ -20,6 +20,7 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 package md3.md3view.glmodel;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import md3.md3model.*;
 
@@ -31,10 +32,41 @@ import md3.md3model.*;
  */ 
 public class MD3GLModelFactory extends MD3ModelFactory {
 	
+  public MD3Model makeMD3Model(String filename) throws IOException {
+  	return new MD3GLModel(filename);
+  }
+  
   public MD3Model makeMD3Model(String name, InputStream in) throws IOException {
   	return new MD3GLModel(name, in);
   }
   
+  public MD3Model makeMD3Model(String name, InputStream in, MD3LoadListener listener) throws IOException {
+  	return new MD3GLModel(name, in, listener);
+  }
+  
+  public MD3Model makeMD3Model(String name, ByteBuffer data) throws IOException {
+  	return new MD3GLModel(name, data);
+  }
+  
+  public MD3Model makeCachedMD3Model(ByteBuffer data) throws IOException {
+  	MD3Model model=super.makeCachedMD3Model(data);
+  	initCachedModel(model);
+  	return model;
+  }
+  
+  //cached models are built from empty objects: setup their OpenGL state
+  private void initCachedModel(MD3Model model) {
+  	MD3GLModel glModel=(MD3GLModel)model;
+  	glModel.currentFrame=0;
+  	glModel.nextFrame=glModel.boneFrameNum>0?1:0;
+  	for (int i=0;i<model.meshNum;i++)
+  		((MD3GLMesh)model.meshes[i]).initBlending();
+  	
+  	java.util.Iterator it=model.linkedModels();
+  	while (it.hasNext())
+  		initCachedModel((MD3Model)it.next());
+  }
+  
   //added by Donald Gray
   public MD3Model makeMD3Model() {
   	return new MD3GLModel();
@@ -44,6 +76,14 @@ public class MD3GLModelFactory extends MD3ModelFactory {
 		return new MD3GLMesh(din);
 	}
 	
+	public MD3Mesh makeMD3Mesh(DataInput din, boolean deferFrames) throws IOException {
+		return new MD3GLMesh(din, deferFrames);
+	}
+	
+	public MD3Mesh makeMD3Mesh(ByteBuffer buf) throws IOException {
+		return new MD3GLMesh(buf);
+	}
+	
   //added by Donald Gray
 	public MD3Mesh makeMD3Mesh() {
 		return new MD3GLMesh();
@@ -56,4 +96,8 @@ public class MD3GLModelFactory extends MD3ModelFactory {
   public MD3Texture makeMD3Texture(String name, String loadFilename, InputStream in) throws IOException {
     return new MD3GLTexture(name, loadFilename, in);
   }
+  
+  public MD3Texture makeMD3Texture() {
+    return new MD3GLTexture();
+  }
 }
\ No newline at end of file
@@ -25,43 +25,62 @@ import md3.md3model.*;
 
 /**
  * <p>This class extends MD3Texture objects with an OpenGL compatible texture binding.
+ * Bindings are allocated by the canvas uploading the texture, textures with the same
+ * content share a binding.
  *  
  * @author Erwin Vervaet (klr8@fragland.net)
  */
 public class MD3GLTexture extends MD3Texture {
 
-  private static transient int topTextureBind=0;
-    //simple index to keep track of texture bindings	
-
   /**
    * <p>OpenGL id the texture is bound to. 0 if unbound.
    */
   public int bind;
+  
+  /**
+   * <p>Is the data of this texture being loaded in the background? The data should
+   * not be used while this is true.
+   */
+  public transient volatile boolean loading=false;
+  
+  /**
+   * <p>Has the data of this texture been uploaded to OpenGL?
+   */
+  public transient boolean uploaded=false;
   	
-  //we must update the topTextureBind to the highest allready generated binding
-  //when deserializing objects    
+  //a deserialized binding belongs to another OpenGL context, so forget it
   private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
     stream.defaultReadObject();
-    if (this.bind>topTextureBind)
-      topTextureBind=this.bind;
+    this.bind=0;
   }
   
   /**
-   * <p>Loads a MD3 texture from the specified file and generates an OpenGL compatible
-   * binding.
+   * <p>Return the OpenGL id to bind when drawing with this texture: the texture's
+   * own binding once its data has been uploaded, 0 as a placeholder before that.
+   */
+  public int getDrawBind() {
+  	return uploaded ? bind : 0;
+  }
+  
+  /**
+   * <p>Create a new unbound MD3 texture without data. The data can be loaded later
+   * using loadData().
+   */
+  protected MD3GLTexture() {
+  }
+  
+  /**
+   * <p>Loads an unbound MD3 texture from the specified file.
    *
    * @param name Name of the texture as specified in .md3 or .skin file.
    * @param loadFilename Full name of file from which texture data will be loaded.
 	 */
   protected MD3GLTexture(String name, String loadFilename) throws IOException  {
 	 	super(name, loadFilename);
-    // generate a binding
-    this.bind=++topTextureBind;
   }
   
   /**
-   * <p>Loads a MD3 texture from the specified input stream and generates an OpenGL
-   * compatible texture binding.
+   * <p>Loads an unbound MD3 texture from the specified input stream.
    *
    * @param name Name of the texture as specified in .md3 or .skin file.
    * @param loadFilename Full name of file from which the texture data is (supposedly) loaded.
@@ -69,7 +88,19 @@ public class MD3GLTexture extends MD3Texture {
 	 */
   protected MD3GLTexture(String name, String loadFilename, InputStream in) throws IOException {
   	super(name, loadFilename, in);
-  	this.bind=++topTextureBind;
+  }
+  
+  /**
+   * <p>Load this texture's bitmap data from the given input stream, e.g. in the
+   * background after it was created without data. The loading flag is cleared
+   * when done, even if loading fails.
+   */
+  public void loadData(InputStream in) throws IOException {
+  	try {
+  		this.loadTextureData(in);
+  	} finally {
+  		loading=false;
+  	}
   }
   
   /**
@@ -77,7 +108,7 @@ public class MD3GLTexture extends MD3Texture {
    */
   public void refreshData(InputStream in) throws IOException {
   	//throw away old data
-  	this.data=null;
+  	this.releaseData();
   	System.gc();
   	
   	//get new data
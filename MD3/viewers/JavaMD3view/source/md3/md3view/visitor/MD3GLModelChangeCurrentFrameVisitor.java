@@ -149,6 +149,8 @@ public class MD3GLModelChangeCurrentFrameVisitor extends MD3GLModelVisitor {
 				}
 				break;
 			case REWIND:
+				//only keep the frames of the new animation decoded
+				model.retainFrames(anim.first, upperBound-anim.first);
 				model.currentFrame=anim.first;
 				model.nextFrame=next(model.currentFrame);
 				model.interpolationFraction=0.0f;
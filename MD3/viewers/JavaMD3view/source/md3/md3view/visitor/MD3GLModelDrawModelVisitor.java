@@ -45,6 +45,10 @@ public class MD3GLModelDrawModelVisitor extends MD3GLModelVisitor {
   //these tmp vars are globals for efficiency: avoid freq. contructor calls
   private Vec3 tmpVec3_1=new Vec3(), tmpVec3_2=new Vec3();
   private MD3BoneFrame tmpBoneFrame_1=MD3ModelFactory.getFactory().makeMD3BoneFrame(0);
+  
+  //interpolation buffers, reused for all meshes and grown when necessary
+  private float[] tmpPositions=new float[0];
+  private byte[] tmpNormals=new byte[0];
 
   /**
    * <p>Create a new visitor that will draw on the specified OpenGL canvas.
@@ -62,10 +66,10 @@ public class MD3GLModelDrawModelVisitor extends MD3GLModelVisitor {
    * @param model The model to render.
    */
   public void visit(MD3GLModel model) {
-  	//draw the model
+  	//draw the model, parts that are still being loaded by a streaming load are skipped
   	
 		//draw current bone frame
-		if (canvas.showBoneFrame) {
+		if (canvas.showBoneFrame && model.boneFrames!=null && model.boneFrames[model.currentFrame]!=null) {
 			//get bone frame, interpolate if necessary
       if (model.interpolationFraction!=0.0 && model.currentFrame!=model.nextFrame)
       	//interpolate bone frame      	
@@ -77,35 +81,48 @@ public class MD3GLModelDrawModelVisitor extends MD3GLModelVisitor {
 
     //draw all meshes of current frame of this model
     for (int i=0; i<model.meshNum; i++) {    
-      MD3GLMesh mesh = (MD3GLMesh)model.meshes[i];
+      MD3GLMesh mesh = model.meshes==null ? null : (MD3GLMesh)model.meshes[i];
+      if (mesh==null || !mesh.isFrameAvailable(model.currentFrame))
+      	continue;
+      //fall back to the current frame if the next one is not available yet
+      boolean interpolate=model.interpolationFraction!=0.0 && model.currentFrame!=model.nextFrame &&
+                          mesh.isFrameAvailable(model.nextFrame);
 	  
   		gl.glBlendFunc(mesh.GLSrcBlendFunc, mesh.GLDstBlendFunc);
   		gl.glDepthMask(mesh.GLDepthMask);
       if (mesh.textureNum > 0 && mesh.textures[0]!=null)
-        gl.glBindTexture(GLEnum.GL_TEXTURE_2D, ((MD3GLTexture)mesh.textures[0]).bind);
+        gl.glBindTexture(GLEnum.GL_TEXTURE_2D, ((MD3GLTexture)mesh.textures[0]).getDrawBind());
       else
         gl.glBindTexture(GLEnum.GL_TEXTURE_2D, 0);
       
       //get mesh frame, do interpolation if necessary
-	    Vec3[] frame;
-      if (model.interpolationFraction!=0.0 && model.currentFrame!=model.nextFrame)
+	    float[] frame;
+      if (interpolate) {
       	//interpolate mesh frame between the 2 current mesh frames
-		  	frame=interpolateMeshFrame(mesh.meshFrames[model.currentFrame], mesh.meshFrames[model.nextFrame], model.interpolationFraction);
-      else
+      	if (mesh.isQuantized())
+			  	frame=interpolateMeshFrame(mesh.getQuantizedPositions(model.currentFrame), mesh.getQuantizedPositions(model.nextFrame), model.interpolationFraction);
+      	else
+			  	frame=interpolateMeshFrame(mesh.getFramePositions(model.currentFrame), mesh.getFramePositions(model.nextFrame), model.interpolationFraction);
+      }
+      else {
       	//no interpolation needed, just draw current frame
-      	frame=mesh.meshFrames[model.currentFrame];
+      	if (mesh.isQuantized())
+      		frame=dequantizeMeshFrame(mesh.getQuantizedPositions(model.currentFrame));
+      	else
+	      	frame=mesh.getFramePositions(model.currentFrame);
+      }
       
       drawMesh(mesh, frame);
     
       //draw vertex normals
 	    if (canvas.showVertexNormals) {
 				//get vertex normals, interpolate if necessary
-	      if (model.interpolationFraction!=0.0 && model.currentFrame!=model.nextFrame)
+	      if (interpolate)
 	      	//interpolate vertex normals
-	      	drawVertexNormals(frame, interpolateVertexNormals(mesh.meshVertexNormals[model.currentFrame], mesh.meshVertexNormals[model.nextFrame], model.interpolationFraction));
+	      	drawVertexNormals(frame, interpolateVertexNormals(mesh.getFrameNormals(model.currentFrame), mesh.getFrameNormals(model.nextFrame), model.interpolationFraction), mesh.vertexNum);
 	      else
 	      	//stick with current vertex normals
-			  	drawVertexNormals(frame, mesh.meshVertexNormals[model.currentFrame]);
+			  	drawVertexNormals(frame, mesh.getFrameNormals(model.currentFrame), mesh.vertexNum);
 	    }
     }
     
@@ -114,6 +131,9 @@ public class MD3GLModelDrawModelVisitor extends MD3GLModelVisitor {
     Iterator it=model.linkedModels();
     while (it.hasNext()) {
       MD3Model child=(MD3Model)it.next();
+      if (model.boneFrames==null || model.boneFrames[model.currentFrame]==null ||
+          model.boneFrames[model.currentFrame].tags[child.getParentTagIndex()]==null)
+      	continue; //tags not loaded yet
       
       //build transformation array m from matrix, interpolate if necessary
       float[] m=new float[16];
@@ -163,40 +183,85 @@ public class MD3GLModelDrawModelVisitor extends MD3GLModelVisitor {
   
   /**
    * <p>Interpolate a mesh animation frame between 2 given mesh animation frames.
+   * The result is stored in a buffer owned by this visitor that is overwritten
+   * by the next call.
    *
-   * @param currMeshFrame Start mesh animation frame.
-   * @param nextMeshFrame End mesh animation frame.
+   * @param currMeshFrame Start mesh animation frame, flat x, y, z vertex positions.
+   * @param nextMeshFrame End mesh animation frame, flat x, y, z vertex positions.
    * @param frac Interpolation fraction, in [0,1].
    */  
-  protected Vec3[] interpolateMeshFrame(Vec3[] currMeshFrame, Vec3[] nextMeshFrame, float frac) {
-  	int vertexNum=currMeshFrame.length;
-  	Vec3[] interpolatedMeshFrame=new Vec3[vertexNum];
+  protected float[] interpolateMeshFrame(float[] currMeshFrame, float[] nextMeshFrame, float frac) {
+  	int len=currMeshFrame.length;
+  	if (tmpPositions.length<len)
+  		tmpPositions=new float[len];
   	
   	//calc interpolated vertices			 
-  	for (int t=0;t<vertexNum;t++) {
-			interpolatedMeshFrame[t]=new Vec3();
-			interpolatedMeshFrame[t].x = (1.0f - frac) * currMeshFrame[t].x + frac * nextMeshFrame[t].x;
-			interpolatedMeshFrame[t].y = (1.0f - frac) * currMeshFrame[t].y + frac * nextMeshFrame[t].y;
-			interpolatedMeshFrame[t].z = (1.0f - frac) * currMeshFrame[t].z + frac * nextMeshFrame[t].z;
-  	}
+  	float[] res=tmpPositions;
+  	for (int i=0;i<len;i++)
+			res[i] = currMeshFrame[i] + frac * (nextMeshFrame[i] - currMeshFrame[i]);
+  	
+  	return res;
+  }
+  
+  /**
+   * <p>Interpolate a mesh animation frame between 2 given quantized mesh animation
+   * frames, dequantizing the vertex positions in the process. The result is stored in
+   * a buffer owned by this visitor that is overwritten by the next call.
+   *
+   * @param currMeshFrame Start mesh animation frame, flat quantized x, y, z vertex positions.
+   * @param nextMeshFrame End mesh animation frame, flat quantized x, y, z vertex positions.
+   * @param frac Interpolation fraction, in [0,1].
+   * @see md3.md3model.MD3Mesh#getQuantizedPositions(int)
+   */  
+  protected float[] interpolateMeshFrame(short[] currMeshFrame, short[] nextMeshFrame, float frac) {
+  	int len=currMeshFrame.length;
+  	if (tmpPositions.length<len)
+  		tmpPositions=new float[len];
   	
-  	return interpolatedMeshFrame;
+  	float[] res=tmpPositions;
+  	float scale=MD3Mesh.QUANTIZATION_SCALE;
+  	for (int i=0;i<len;i++)
+			res[i] = (currMeshFrame[i] + frac * (nextMeshFrame[i] - currMeshFrame[i])) * scale;
+  	
+  	return res;
   }
   
   /**
-   * <p>Interpolate a set of vertex normals between the 2 given sets.
+   * <p>Dequantize a given quantized mesh animation frame. The result is stored in
+   * a buffer owned by this visitor that is overwritten by the next call.
+   *
+   * @param meshFrame The mesh animation frame, flat quantized x, y, z vertex positions.
+   * @see md3.md3model.MD3Mesh#getQuantizedPositions(int)
+   */  
+  protected float[] dequantizeMeshFrame(short[] meshFrame) {
+  	int len=meshFrame.length;
+  	if (tmpPositions.length<len)
+  		tmpPositions=new float[len];
+  	
+  	float[] res=tmpPositions;
+  	float scale=MD3Mesh.QUANTIZATION_SCALE;
+  	for (int i=0;i<len;i++)
+			res[i] = meshFrame[i] * scale;
+  	
+  	return res;
+  }
+  
+  /**
+   * <p>Interpolate a set of vertex normals between the 2 given sets. The result is
+   * stored in a buffer owned by this visitor that is overwritten by the next call.
    *
    * @param currNormals Start normal set.
    * @param nextNormals End normal set.
    * @param frac Interpolation fraction, in [0,1].
    */  
-  protected int[][] interpolateVertexNormals(int[][] currNormals, int[][] nextNormals, float frac) {
-  	int[][] res=new int[currNormals.length][2];
+  protected byte[] interpolateVertexNormals(byte[] currNormals, byte[] nextNormals, float frac) {
+  	int len=currNormals.length;
+  	if (tmpNormals.length<len)
+  		tmpNormals=new byte[len];
   	
-  	for (int i=0;i<currNormals.length;i++) {
-  		res[i][0] = (int)((1.0f - frac) * currNormals[i][0] + frac * nextNormals[i][0]);
-  		res[i][1] = (int)((1.0f - frac) * currNormals[i][1] + frac * nextNormals[i][1]);
-  	}  	
+  	byte[] res=tmpNormals;
+  	for (int i=0;i<len;i++)
+  		res[i] = (byte)((1.0f - frac) * (currNormals[i] & 0xff) + frac * (nextNormals[i] & 0xff));
   	
   	return res;
   }
@@ -286,33 +351,39 @@ public class MD3GLModelDrawModelVisitor extends MD3GLModelVisitor {
    * <p>Draw a given animation frame of a specified mesh on the canvas.
    *
    * @param mesh The MD3Mesh that is being rendered.
-   * @param vecs The animation frame data to be rendered.
+   * @param frame The animation frame data to be rendered, flat x, y, z vertex positions.
    */
-  protected void drawMesh(MD3Mesh mesh, Vec3[] frame) {    
+  protected void drawMesh(MD3Mesh mesh, float[] frame) {    
     canvas.activateRenderMode();
     
+    int[] tris=mesh.triangleIndices;
+    float[] uv=mesh.texCoords;
+    
 		gl.glColor3f(1f,1f,1f);
     gl.glBegin( GLEnum.GL_TRIANGLES );
 
     //upload all triangles in the frame to OpenGL
-    for (int t=0; t<mesh.triangleNum; t++) {    	
+    for (int t=0; t<mesh.triangleNum; t++) {
+    	int a=tris[t*3], b=tris[t*3 + 1], c=tris[t*3 + 2];
+    	int a3=a*3, b3=b*3, c3=c*3;
+    	
     	//calc normal vector
-      tmpVec3_1.x = frame[mesh.triangles[t][1]].x - frame[mesh.triangles[t][0]].x;
-      tmpVec3_2.x = frame[mesh.triangles[t][2]].x - frame[mesh.triangles[t][0]].x;
-      tmpVec3_1.y = frame[mesh.triangles[t][1]].y - frame[mesh.triangles[t][0]].y;
-      tmpVec3_2.y = frame[mesh.triangles[t][2]].y - frame[mesh.triangles[t][0]].y;
-      tmpVec3_1.z = frame[mesh.triangles[t][1]].z - frame[mesh.triangles[t][0]].z;
-      tmpVec3_2.z = frame[mesh.triangles[t][2]].z - frame[mesh.triangles[t][0]].z;
+      tmpVec3_1.x = frame[b3] - frame[a3];
+      tmpVec3_2.x = frame[c3] - frame[a3];
+      tmpVec3_1.y = frame[b3 + 1] - frame[a3 + 1];
+      tmpVec3_2.y = frame[c3 + 1] - frame[a3 + 1];
+      tmpVec3_1.z = frame[b3 + 2] - frame[a3 + 2];
+      tmpVec3_2.z = frame[c3 + 2] - frame[a3 + 2];
       Vec3 normal=tmpVec3_1.cross(tmpVec3_2);
       
       gl.glNormal3f(normal.x, normal.y, normal.z); //no normalization necessary, GL_NORMALIZE is enabled!
       
-      gl.glTexCoord2fv( mesh.textureCoord[mesh.triangles[t][0]] );
-      gl.glVertex3f( frame[mesh.triangles[t][0]].x, frame[mesh.triangles[t][0]].y, frame[mesh.triangles[t][0]].z );
-      gl.glTexCoord2fv( mesh.textureCoord[ mesh.triangles[t][1]] );
-      gl.glVertex3f( frame[mesh.triangles[t][1]].x, frame[mesh.triangles[t][1]].y, frame[mesh.triangles[t][1]].z );
-      gl.glTexCoord2fv( mesh.textureCoord[mesh.triangles[t][2]] );
-      gl.glVertex3f( frame[mesh.triangles[t][2]].x, frame[mesh.triangles[t][2]].y, frame[mesh.triangles[t][2]].z );
+      gl.glTexCoord2f( uv[a*2], uv[a*2 + 1] );
+      gl.glVertex3f( frame[a3], frame[a3 + 1], frame[a3 + 2] );
+      gl.glTexCoord2f( uv[b*2], uv[b*2 + 1] );
+      gl.glVertex3f( frame[b3], frame[b3 + 1], frame[b3 + 2] );
+      gl.glTexCoord2f( uv[c*2], uv[c*2 + 1] );
+      gl.glVertex3f( frame[c3], frame[c3 + 1], frame[c3 + 2] );
     }
     
     gl.glEnd();
@@ -322,12 +393,12 @@ public class MD3GLModelDrawModelVisitor extends MD3GLModelVisitor {
    * <p>Draw the given vertex normals of the given vertices on the canvas.
    *
    * @param frame The animation frame vertex data for wich the normals are drawn.
-   * @param normals The vertex normal data.
+   * @param normals The vertex normal data, 2 unsigned bytes per vertex.
+   * @param vertexNum The number of vertices to draw normals for.
    */
-  protected void drawVertexNormals(Vec3[] frame, int[][] normals) {
-  	float x, y, z;
+  protected void drawVertexNormals(float[] frame, byte[] normals, int vertexNum) {
+  	float x, y, z, vx, vy, vz;
   	double alpha, beta;
-  	Vec3 vec;
   	
     gl.glDisable( GLEnum.GL_TEXTURE_2D );
     gl.glDisable( GLEnum.GL_LIGHTING );
@@ -335,18 +406,18 @@ public class MD3GLModelDrawModelVisitor extends MD3GLModelVisitor {
 		gl.glColor3f(1f,1f,0f);
   	gl.glBegin(GLEnum.GL_LINES);
   	
-  	for (int i=0;i<normals.length;i++) {
-  		vec=frame[i];
+  	for (int i=0;i<vertexNum;i++) {
+  		vx=frame[i*3]; vy=frame[i*3 + 1]; vz=frame[i*3 + 2];
   		
   		//angles in radians!
-  		alpha=normals[i][0] * 2d * Math.PI / 255d;
-  		beta=normals[i][1] * 2d * Math.PI / 255d;
+  		alpha=(normals[i*2] & 0xff) * 2d * Math.PI / 255d;
+  		beta=(normals[i*2 + 1] & 0xff) * 2d * Math.PI / 255d;
  		
-  	  x=vec.x + (float)(Math.cos(beta) * Math.sin(alpha));  	  
-  		y=vec.y + (float)(Math.sin(beta) * Math.sin(alpha));
-  	  z=vec.z + (float)Math.cos(alpha);
+  	  x=vx + (float)(Math.cos(beta) * Math.sin(alpha));  	  
+  		y=vy + (float)(Math.sin(beta) * Math.sin(alpha));
+  	  z=vz + (float)Math.cos(alpha);
 
-  	  gl.glVertex3f(vec.x, vec.y, vec.z);
+  	  gl.glVertex3f(vx, vy, vz);
   	  gl.glVertex3f(x, y, z);  	  
   	}
   	
@@ -85,15 +85,15 @@ public class MD3GLModelExportDXFVisitor extends MD3GLModelVisitor {
   }
   
   private void writeTriangles(MD3Mesh mesh, int currentFrame) {
-    Vec3[] vecs = mesh.meshFrames[currentFrame];
+    Vec3[] vecs = mesh.getMeshFrame(currentFrame);
     float[][] vec=new float[4][1];
     for (int t=0; t<mesh.triangleNum; t++) {
 	    out.print(THREEDFACE_DEF);
 
 			// first vertex
-			vec[0][0]=vecs[mesh.triangles[t][0]].x;
-			vec[1][0]=vecs[mesh.triangles[t][0]].y;
-			vec[2][0]=vecs[mesh.triangles[t][0]].z;
+			vec[0][0]=vecs[mesh.triangleIndices[t*3]].x;
+			vec[1][0]=vecs[mesh.triangleIndices[t*3]].y;
+			vec[2][0]=vecs[mesh.triangleIndices[t*3]].z;
 			vec[3][0]=1;
 			vec=MatrixMath.mult(currentTransformation,vec);
 	
@@ -105,9 +105,9 @@ public class MD3GLModelExportDXFVisitor extends MD3GLModelVisitor {
 			out.print(vec[2][0] + EOL);
 	
 			// second vertex
-			vec[0][0]=vecs[mesh.triangles[t][1]].x;
-			vec[1][0]=vecs[mesh.triangles[t][1]].y;
-			vec[2][0]=vecs[mesh.triangles[t][1]].z;
+			vec[0][0]=vecs[mesh.triangleIndices[t*3 + 1]].x;
+			vec[1][0]=vecs[mesh.triangleIndices[t*3 + 1]].y;
+			vec[2][0]=vecs[mesh.triangleIndices[t*3 + 1]].z;
 			vec[3][0]=1;
 			vec=MatrixMath.mult(currentTransformation,vec);
 	
@@ -119,9 +119,9 @@ public class MD3GLModelExportDXFVisitor extends MD3GLModelVisitor {
 			out.print(vec[2][0] + EOL);
 	
 			// third vertex
-			vec[0][0]=vecs[mesh.triangles[t][2]].x;
-			vec[1][0]=vecs[mesh.triangles[t][2]].y;
-			vec[2][0]=vecs[mesh.triangles[t][2]].z;
+			vec[0][0]=vecs[mesh.triangleIndices[t*3 + 2]].x;
+			vec[1][0]=vecs[mesh.triangleIndices[t*3 + 2]].y;
+			vec[2][0]=vecs[mesh.triangleIndices[t*3 + 2]].z;
 			vec[3][0]=1;
 			vec=MatrixMath.mult(currentTransformation,vec);
 	
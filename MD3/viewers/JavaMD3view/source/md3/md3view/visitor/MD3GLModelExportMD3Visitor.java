@@ -215,29 +215,31 @@ public class MD3GLModelExportMD3Visitor extends MD3GLModelVisitor {
 				// triangle (face) section
 				for (int j=0;j<currMesh.triangleNum;j++)
 				{
-					dfout.writeInt(currMesh.triangles[j][0]);
-					dfout.writeInt(currMesh.triangles[j][1]);
-					dfout.writeInt(currMesh.triangles[j][2]);
+					dfout.writeInt(currMesh.triangleIndices[j*3]);
+					dfout.writeInt(currMesh.triangleIndices[j*3 + 1]);
+					dfout.writeInt(currMesh.triangleIndices[j*3 + 2]);
 				}
 
 				// texture vertex section
 				for (int j=0;j<currMesh.vertexNum;j++)
 				{
-					dfout.writeFloat(currMesh.textureCoord[j][0]);
-					dfout.writeFloat(currMesh.textureCoord[j][1]);
+					dfout.writeFloat(currMesh.texCoords[j*2]);
+					dfout.writeFloat(currMesh.texCoords[j*2 + 1]);
 				}
 
 				// vertices (one set per animation frame)
 				for (int j=0;j<currMesh.meshFrameNum;j++)
 				{
+					Vec3[] frame=currMesh.getMeshFrame(j);
+					int[][] normals=currMesh.getVertexNormals(j);
 					for (int k=0;k<currMesh.vertexNum;k++)
 					{
-						dfout.writeShort((short)(currMesh.meshFrames[j][k].x * 64.0f));
-						dfout.writeShort((short)(currMesh.meshFrames[j][k].y * 64.0f));
-						dfout.writeShort((short)(currMesh.meshFrames[j][k].z * 64.0f));
+						dfout.writeShort((short)(frame[k].x * 64.0f));
+						dfout.writeShort((short)(frame[k].y * 64.0f));
+						dfout.writeShort((short)(frame[k].z * 64.0f));
 
-						dfout.writeUnsignedByte(currMesh.meshVertexNormals[j][k][0]);
-						dfout.writeUnsignedByte(currMesh.meshVertexNormals[j][k][1]);
+						dfout.writeUnsignedByte(normals[k][0]);
+						dfout.writeUnsignedByte(normals[k][1]);
 					}
 				}
 
@@ -86,12 +86,14 @@ public class MD3GLModelExportObjVisitor extends MD3GLModelVisitor {
   }
 
   private void writeVertexData(MD3Mesh mesh, int frame) {
+    float[] positions=mesh.getFramePositions(frame);
+    byte[] normals=mesh.getFrameNormals(frame);
 		for (int i=0; i<mesh.vertexNum; i++) {
       //turn vertex into 4x1 matrix
       float[][] vec=new float[4][1];
-      vec[0][0]=mesh.meshFrames[frame][i].x;
-      vec[1][0]=mesh.meshFrames[frame][i].y;
-      vec[2][0]=mesh.meshFrames[frame][i].z;
+      vec[0][0]=positions[i*3];
+      vec[1][0]=positions[i*3 + 1];
+      vec[2][0]=positions[i*3 + 2];
       vec[3][0]=1;
       
       //transform vertex
@@ -101,11 +103,11 @@ public class MD3GLModelExportObjVisitor extends MD3GLModelVisitor {
 			vertexData.write("v " + vec[0][0] + " " + vec[1][0] + " " + vec[2][0] + "\n");
 			
 			//write texture coord (invert v coordinate?)
-			vertexData.write("vt " + mesh.textureCoord[i][0] + " " + mesh.textureCoord[i][1] + "\n");
+			vertexData.write("vt " + mesh.texCoords[i*2] + " " + mesh.texCoords[i*2 + 1] + "\n");
 
 		  //write vertex normal
-  		double alpha=mesh.meshVertexNormals[frame][i][0] * 2d * Math.PI / 255d;
-  		double beta=mesh.meshVertexNormals[frame][i][1] * 2d * Math.PI / 255d;
+  		double alpha=(normals[i*2] & 0xff) * 2d * Math.PI / 255d;
+  		double beta=(normals[i*2 + 1] & 0xff) * 2d * Math.PI / 255d;
 		  float a=(float)(Math.cos(beta) * Math.sin(alpha)),
 		  	    b=(float)(Math.sin(beta) * Math.sin(alpha)),
 		  	    c=(float)Math.cos(alpha);			
@@ -121,9 +123,9 @@ public class MD3GLModelExportObjVisitor extends MD3GLModelVisitor {
     if (mesh.textureNum>0 && mesh.textures[0]!=null) //only use first texture
       elementData.write("usemtl " + new File(mesh.textures[0].loadFilename).getName() + "\n");
 		for (int t=0; t<mesh.triangleNum; t++) {
-			int a=vertexCount + mesh.triangles[t][0] + 1,
-				  b=vertexCount + mesh.triangles[t][1] + 1,
-				  c=vertexCount + mesh.triangles[t][2] + 1;
+			int a=vertexCount + mesh.triangleIndices[t*3] + 1,
+				  b=vertexCount + mesh.triangleIndices[t*3 + 1] + 1,
+				  c=vertexCount + mesh.triangleIndices[t*3 + 2] + 1;
       elementData.write("f " + c + "/" + c + "/" + c + " " + b + "/" + b + "/" + b + " " + a + "/" + a + "/" + a + "\n");
 		}
 	}
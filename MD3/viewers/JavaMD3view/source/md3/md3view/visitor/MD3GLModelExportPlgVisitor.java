@@ -96,8 +96,8 @@ public class MD3GLModelExportPlgVisitor extends MD3GLModelVisitor {
 			out.println("vertices [" + model.meshes[i].vertexNum + "];");
 			out.println("polygons [" + model.meshes[i].triangleNum + "];");
 			
-			writeVertices(model.meshes[i].meshFrames[model.currentFrame]);
-			writePolygons(model.meshes[i].triangles);
+			writeVertices(model.meshes[i].getMeshFrame(model.currentFrame));
+			writePolygons(model.meshes[i].getTriangles());
 			
 			out.println("}");
 		}
@@ -60,16 +60,16 @@ public class MD3GLModelExportRawVisitor extends MD3GLModelVisitor {
     // write meshes in this model
     for (int i=0; i<model.meshNum; i++) {    
       MD3Mesh mesh = model.meshes[i];            
-      Vec3[] vecs = mesh.meshFrames[model.currentFrame];  
+      Vec3[] vecs = mesh.getMeshFrame(model.currentFrame);  
           
       // write out all the triangles of the current frame of the mesh as 3 vertices
       for (int t=0; t<mesh.triangleNum; t++) {
         for (int v=0; v<3; v++) {
           //turn vertex into 4x1 matrix
           float[][] vec=new float[4][1];
-          vec[0][0]=vecs[mesh.triangles[t][v]].x;
-          vec[1][0]=vecs[mesh.triangles[t][v]].y;
-          vec[2][0]=vecs[mesh.triangles[t][v]].z;
+          vec[0][0]=vecs[mesh.triangleIndices[t*3 + v]].x;
+          vec[1][0]=vecs[mesh.triangleIndices[t*3 + v]].y;
+          vec[2][0]=vecs[mesh.triangleIndices[t*3 + v]].z;
           vec[3][0]=1;
           
           //transform vertex
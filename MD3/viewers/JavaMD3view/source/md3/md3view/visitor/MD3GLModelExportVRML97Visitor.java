@@ -77,7 +77,7 @@ public class MD3GLModelExportVRML97Visitor extends MD3GLModelVisitor {
     out.print("coordIndex [");
     for (int t=0; t<mesh.triangleNum; t++) {
       for (int v=0; v<3; v++)
-        out.print(mesh.triangles[t][v] + ", ");
+        out.print(mesh.triangleIndices[t*3 + v] + ", ");
       out.print("-1, ");
     }
     out.println("]");
@@ -140,9 +140,9 @@ public class MD3GLModelExportVRML97Visitor extends MD3GLModelVisitor {
       String texCoordName="mesh" + i + "TexCoord";
       
       // write out vertex coords of current mesh frame
-      writeCoordinate(mesh.meshFrames[model.currentFrame],coordName);
+      writeCoordinate(mesh.getMeshFrame(model.currentFrame),coordName);
       // write out texture coords of mesh
-      writeTextureCoordinate(mesh.textureCoord, texCoordName);
+      writeTextureCoordinate(mesh.getTextureCoord(), texCoordName);
       // write out all the triangles of the current frame of the mesh
       writeTriangles(mesh, coordName, texCoordName);
     }
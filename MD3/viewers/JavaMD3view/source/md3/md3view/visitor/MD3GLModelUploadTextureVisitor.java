@@ -29,8 +29,8 @@ import md3.md3view.*;
 
 /**
  * <p>An MD3GLModel visitor that walks through a MD3GLModel structure and
- * uploads all texture data of the visited models into a specified
- * OpenGL context.
+ * queues all textures of the visited models for upload into the OpenGL
+ * context of a specified canvas. The canvas uploads them while rendering.
  *
  * @author Erwin Vervaet (klr8@fragland.net) 
  */
@@ -38,7 +38,7 @@ public class MD3GLModelUploadTextureVisitor extends MD3GLModelVisitor {
   private MD3ViewGLCanvas md3canvas;
   
   /**
-   * <p>Create a new texture upload visitor that will upload data into
+   * <p>Create a new texture upload visitor that will queue data for upload into
    * the OpenGL context of the specified MD3ViewGLCanvas.
    *
    * @param md3canvas Texture data will be uploaded to this object's OpenGL context.
@@ -48,17 +48,17 @@ public class MD3GLModelUploadTextureVisitor extends MD3GLModelVisitor {
   }
   
   /**
-   * <p>Upload texture information associated with a model into the OpenGL Context.
+   * <p>Queue texture information associated with a model for upload into the OpenGL Context.
    *
    * @param model The model of which the textures will be uploaded.
    */
   public void visit(MD3GLModel model) {
-    // upload textures of this model to OpenGL
+    // queue textures of this model for upload to OpenGL
     for (int i=0;i<model.meshNum;i++)
       for (int j=0;j<model.meshes[i].textureNum;j++)
-        uploadTextureData(md3canvas, (MD3GLTexture)model.meshes[i].textures[j]);
+        md3canvas.queueTextureUpload((MD3GLTexture)model.meshes[i].textures[j]);
       
-    // upload texture data of children
+    // queue texture data of children
     Iterator it=model.linkedModels();
     while (it.hasNext()) {
       MD3Model child=(MD3Model)it.next();
@@ -66,62 +66,73 @@ public class MD3GLModelUploadTextureVisitor extends MD3GLModelVisitor {
     }
   }
   
-  //naive way of getting 'relevant' (64, 128 or 256) nr smaller or equal to given number
-  private static int getRelevantPart(int nr) {
-    if (nr < 64)
-      return 0;
-    else if (64 <= nr && nr < 128)
-      return 64;
-    else if (128 <= nr && nr < 256)
-      return 128;
-    else
-      return 256;
+  //get the power of two size a texture of the given size is scaled to
+  private static int getScaledSize(int size) {
+    int res=MD3ViewOptions.nearestTextureSize ? ImageScaler.nearestPowerOfTwo(size) : ImageScaler.floorPowerOfTwo(size);
+    return Math.min(res, MD3MipMaps.getMaximumSize());
   }
 
-  //clip non relevant parts of given texture
-  private static byte[] getClippedTextureData(int targetWidth, int targetHeight, byte[] source, int sourceWidth, int sourceHeight) {
-    byte[] res=new byte[targetWidth*targetHeight*4];    
-
-    for (int h=0;h<targetHeight;h++)
-      for (int w=0;w<sourceWidth*4;w++)
-        if (w<(targetWidth*4)) //relevant pixel?
-          res[h*targetWidth*4 + w]=source[h*sourceWidth*4 + w];
-    
-    return res;
+  //get the filter used to scale textures to power of two sizes
+  private static int getScalingFilter() {
+    return MD3ViewOptions.bilinearTextureScaling ? ImageScaler.BILINEAR : ImageScaler.BOX;
+  }
+  
+  /**
+   * <p>Return a description of how the given texture would be uploaded into the
+   * GL context of the given canvas with the current options. Uploads of the same
+   * texture data with equal settings result in the same OpenGL texture.
+   */
+  public static String getUploadSettings(MD3ViewGLCanvas md3canvas, MD3GLTexture texture) {
+    if (md3canvas.mipmapping)
+      return "mipmapped";
+    else
+      return getScaledSize(texture.width) + "x" + getScaledSize(texture.height) + ":" + getScalingFilter();
   }
 
   /**
-   * <p>Upload the data of the given texture into the GL context of the given canvas.
+   * <p>Upload the data of the given texture into the GL context of the given canvas,
+   * as the OpenGL texture with the given binding. Data that was released is not
+   * reloaded here, that is done in the background before the texture is uploaded.
+   *
+   * @return The number of bytes uploaded, 0 if the texture has no data.
    */
-  public static void uploadTextureData(MD3ViewGLCanvas md3canvas, MD3GLTexture texture) {
+  public static int uploadTextureData(MD3ViewGLCanvas md3canvas, MD3GLTexture texture, int bind) {
     GLFunc gl=md3canvas.getGL();
     
     // set active texture binding and set texture parameters
-    gl.glBindTexture( GLEnum.GL_TEXTURE_2D, texture==null?0:texture.bind );
+    gl.glBindTexture( GLEnum.GL_TEXTURE_2D, bind );
     gl.glTexEnvf(GLEnum.GL_TEXTURE_ENV, GLEnum.GL_TEXTURE_ENV_MODE, GLEnum.GL_MODULATE);
     gl.glHint( GLEnum.GL_PERSPECTIVE_CORRECTION_HINT, GLEnum.GL_NICEST );
 
+    int res=0;
     if (md3canvas.mipmapping) {
-      if (texture!=null) {
-        //filtered texture mode
-        gl.glTexParameteri(GLEnum.GL_TEXTURE_2D, GLEnum.GL_TEXTURE_MAG_FILTER, GLEnum.GL_LINEAR);
-        gl.glTexParameteri(GLEnum.GL_TEXTURE_2D, GLEnum.GL_TEXTURE_MIN_FILTER, GLEnum.GL_LINEAR_MIPMAP_LINEAR); 
-        md3canvas.getGLU().gluBuild2DMipmaps(GLEnum.GL_TEXTURE_2D, 4, texture.width, texture.height, GLEnum.GL_RGBA, GLEnum.GL_UNSIGNED_BYTE, texture.data);
-      }      
+      //filtered texture mode
+      gl.glTexParameteri(GLEnum.GL_TEXTURE_2D, GLEnum.GL_TEXTURE_MAG_FILTER, GLEnum.GL_LINEAR);
+      gl.glTexParameteri(GLEnum.GL_TEXTURE_2D, GLEnum.GL_TEXTURE_MIN_FILTER, GLEnum.GL_LINEAR_MIPMAP_LINEAR); 
+      
+      //upload the levels of the mip-map chain, normally allready built while loading the texture
+      MD3MipMaps mipMaps=texture.getMipMaps();
+      if (mipMaps!=null)
+        for (int i=0;i<mipMaps.levels.length;i++) {
+          gl.glTexImage2D( GLEnum.GL_TEXTURE_2D, i, 4, mipMaps.getLevelWidth(i), mipMaps.getLevelHeight(i), 0, GLEnum.GL_RGBA, GLEnum.GL_UNSIGNED_BYTE, mipMaps.levels[i] );
+          res+=mipMaps.levels[i].length;
+        }
     }
     else {
-      if (texture!=null) {
-        //we need to clip the texture to an OpenGL compatible size (OpenGL textures should have width & height
-        //of 64, 128 or 256 pixels when not using mipmapping).
-        int width=getRelevantPart(texture.width);
-        int height=getRelevantPart(texture.height);
-        byte[] data=getClippedTextureData(width, height, texture.data, texture.width, texture.height);
-        
-        //filtered texture mode
-        gl.glTexParameterf(GLEnum.GL_TEXTURE_2D, GLEnum.GL_TEXTURE_MAG_FILTER, GLEnum.GL_LINEAR);
-        gl.glTexParameterf(GLEnum.GL_TEXTURE_2D, GLEnum.GL_TEXTURE_MIN_FILTER, GLEnum.GL_LINEAR);        
+      //we need to scale the texture to an OpenGL compatible size (OpenGL textures should have
+      //power of two width & height when not using mipmapping), the scaled data is cached
+      int width=getScaledSize(texture.width);
+      int height=getScaledSize(texture.height);
+      byte[] data=texture.getScaledData(width, height, getScalingFilter());
+      
+      //filtered texture mode
+      gl.glTexParameterf(GLEnum.GL_TEXTURE_2D, GLEnum.GL_TEXTURE_MAG_FILTER, GLEnum.GL_LINEAR);
+      gl.glTexParameterf(GLEnum.GL_TEXTURE_2D, GLEnum.GL_TEXTURE_MIN_FILTER, GLEnum.GL_LINEAR);        
+      if (data!=null) {
         gl.glTexImage2D( GLEnum.GL_TEXTURE_2D, 0, 4, width, height, 0, GLEnum.GL_RGBA, GLEnum.GL_UNSIGNED_BYTE, data );
+        res=data.length;
       }
     }
+    return res;
   }
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+/*
+Java MD3 Model Viewer - A Java based Quake 3 model viewer.
+Copyright (C) 1999  Erwin 'KLR8' Vervaet
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package md3.md3view.visitor;
+
+import java.util.*;
+
+import md3.md3model.*;
+
+/**
+ * <p>An MD3Model visitor that walks through an MD3Model structure and
+ * collects all textures used by the meshes of the encountered models.
+ *
+ * @author Erwin Vervaet (klr8@fragland.net) 
+ */ 
+public class MD3ModelCollectTexturesVisitor extends MD3ModelVisitor {
+	private Set textures;
+	
+	/**
+	 * <p>Create a new visitor that adds the textures it finds to the given set.
+	 */
+	public MD3ModelCollectTexturesVisitor(Set textures) {
+		this.textures=textures;
+	}
+	
+	public void visit(MD3Model model) {
+		for (int i=0;i<model.meshNum;i++)
+			if (model.meshes[i]!=null)
+				for (int j=0;j<model.meshes[i].textureNum;j++)
+					if (model.meshes[i].textures[j]!=null)
+						textures.add(model.meshes[i].textures[j]);
+		
+		Iterator it=model.linkedModels();
+		while (it.hasNext())
+			((MD3Model)it.next()).accept(this);
+	}
+	
+	/**
+	 * <p>Return the set the collected textures are added to.
+	 */
+	public Set getTextures() {
+		return textures;
+	}
+}
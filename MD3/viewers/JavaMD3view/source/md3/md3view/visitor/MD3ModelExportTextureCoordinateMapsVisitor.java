@@ -76,7 +76,7 @@ public class MD3ModelExportTextureCoordinateMapsVisitor extends MD3ModelVisitor
               yCoords=new int[3];
                 
         for (int j=0;j<3;j++) {
-            int[] tmp=getCoordFromUV(mesh.textureCoord[mesh.triangles[t][j]]);
+            int[] tmp=getCoordFromUV(mesh.texCoords, mesh.triangleIndices[t*3 + j]);
             xCoords[j]=tmp[0];
             yCoords[j]=tmp[1];
         }
@@ -115,11 +115,11 @@ public class MD3ModelExportTextureCoordinateMapsVisitor extends MD3ModelVisitor
     }
   }
   
-  //convert given U/V texture coord. to a (x, y) coordinate in the current image
-  private int[] getCoordFromUV(float[] uv) {
+  //convert U/V texture coord. of given vertex to a (x, y) coordinate in the current image
+  private int[] getCoordFromUV(float[] uv, int vertex) {
     int[] res=new int[2];
-    res[0]=(int)(imgWidth * uv[0]);
-    res[1]=(int)(imgWidth * uv[1]);
+    res[0]=(int)(imgWidth * uv[vertex*2]);
+    res[1]=(int)(imgWidth * uv[vertex*2 + 1]);
     return res;    
   }
   
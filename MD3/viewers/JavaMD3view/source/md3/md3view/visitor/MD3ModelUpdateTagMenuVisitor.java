@@ -81,9 +81,7 @@ public class MD3ModelUpdateTagMenuVisitor extends MD3ModelVisitor {
             String filename=MD3View.instance().showOpenDialog("*.md3");
             //open the requested file
             if (filename!=null) try {
-            	InputStream fin=new FileInputStream(filename);
-            	MD3View.instance().attachModel(model, tagIndex, filename, fin);
-            	fin.close();
+            	MD3View.instance().attachModel(model, tagIndex, filename, MD3View.instance().getDataForPath(filename));
             }
             catch (IOException ex) {
               MD3View.instance().showExceptionDialog(ex.getMessage());
@@ -96,9 +94,8 @@ public class MD3ModelUpdateTagMenuVisitor extends MD3ModelVisitor {
         tagItem.addActionListener( new ActionListener() {
           public void actionPerformed(ActionEvent e) {
           	try {
-          		InputStream in=MD3View.instance().getInputStreamForPath(modelToAttachName);
-	            MD3View.instance().attachModel(model, tagIndex, modelToAttachName, in);
-	            in.close();
+	            MD3View.instance().attachModel(model, tagIndex, modelToAttachName,
+	                                           MD3View.instance().getDataForPath(modelToAttachName));
             }
             catch (java.io.IOException ex) {
               MD3View.instance().showExceptionDialog(ex.getMessage());